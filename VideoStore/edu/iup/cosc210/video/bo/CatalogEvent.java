@@ -0,0 +1,74 @@
+package edu.iup.cosc210.video.bo;
+
+/**
+ * A run of rows of a VideoManager inserted, updated or deleted, or all rows
+ * changed at once.  Rows are index positions, as they were when the event
+ * happened: the rows inserted as they are after the insert, the rows
+ * deleted as they were before the delete.
+ * 
+ * @author dtsmith
+ *
+ */
+public class CatalogEvent {
+	/**
+	 * The kinds of change.
+	 */
+	public enum Type {
+		INSERTED,
+		UPDATED,
+		DELETED,
+		ALL_CHANGED
+	}
+
+	private Type type;
+	private int firstRow;
+	private int lastRow;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param type - the kind of change
+	 * @param firstRow - the first row changed
+	 * @param lastRow - the last row changed, included
+	 */
+	public CatalogEvent(Type type, int firstRow, int lastRow) {
+		this.type = type;
+		this.firstRow = firstRow;
+		this.lastRow = lastRow;
+	}
+
+	/**
+	 * Get the kind of change.
+	 * 
+	 * @return the kind of change
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Get the first row changed.  Not meaningful for ALL_CHANGED.
+	 * 
+	 * @return the first row changed
+	 */
+	public int getFirstRow() {
+		return firstRow;
+	}
+
+	/**
+	 * Get the last row changed, included.  Not meaningful for ALL_CHANGED.
+	 * 
+	 * @return the last row changed
+	 */
+	public int getLastRow() {
+		return lastRow;
+	}
+
+	@Override
+	public String toString() {
+		if (type == Type.ALL_CHANGED) {
+			return type.toString();
+		}
+		return type + " " + firstRow + "-" + lastRow;
+	}
+}
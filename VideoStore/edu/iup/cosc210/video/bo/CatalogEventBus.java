@@ -0,0 +1,168 @@
+package edu.iup.cosc210.video.bo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Turns the changes reported to a CatalogListener into CatalogEvents for a
+ * CatalogEventListener.  Changes are merged into the last pending event
+ * while they extend its run of rows, so adding a hundred thousand videos
+ * is one event; the first change after the pending events were told
+ * schedules telling them through the executor, so all changes made until
+ * the executor gets to it are told at once.  Too many pending events are
+ * replaced by one ALL_CHANGED event.
+ * 
+ * @author dtsmith
+ *
+ */
+class CatalogEventBus implements CatalogListener {
+	private static final int MAX_PENDING = 64;
+
+	private VideoManager vm;
+	private CatalogEventListener listener;
+	private Executor executor;
+	private List<CatalogEvent> pending = new ArrayList<CatalogEvent>();
+	private boolean scheduled;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param vm - the VideoManager whose changes are told
+	 * @param listener - the listener told of the changes
+	 * @param executor - runs the listener, for example on the event dispatch
+	 * thread
+	 */
+	CatalogEventBus(VideoManager vm, CatalogEventListener listener, Executor executor) {
+		this.vm = vm;
+		this.listener = listener;
+		this.executor = executor;
+	}
+
+	/**
+	 * Get the listener told of the changes.
+	 * 
+	 * @return the listener
+	 */
+	CatalogEventListener getListener() {
+		return listener;
+	}
+
+	@Override
+	public synchronized void videoAdded(int index, Video video) {
+		CatalogEvent last = last();
+
+		if (last != null && last.getType() == CatalogEvent.Type.INSERTED
+				&& index >= last.getFirstRow() && index <= last.getLastRow() + 1) {
+			replaceLast(CatalogEvent.Type.INSERTED, last.getFirstRow(), last.getLastRow() + 1);
+		} else {
+			add(CatalogEvent.Type.INSERTED, index, index);
+		}
+	}
+
+	@Override
+	public synchronized void videoRemoved(int index, Video video) {
+		CatalogEvent last = last();
+
+		if (last != null && last.getType() == CatalogEvent.Type.DELETED
+				&& index == last.getFirstRow()) {
+			replaceLast(CatalogEvent.Type.DELETED, index, last.getLastRow() + 1);
+		} else if (last != null && last.getType() == CatalogEvent.Type.DELETED
+				&& index == last.getFirstRow() - 1) {
+			replaceLast(CatalogEvent.Type.DELETED, index, last.getLastRow());
+		} else if (last != null && last.getType() == CatalogEvent.Type.INSERTED
+				&& index >= last.getFirstRow() && index <= last.getLastRow()) {
+			if (last.getFirstRow() == last.getLastRow()) {
+				pending.remove(pending.size() - 1);
+			} else {
+				replaceLast(CatalogEvent.Type.INSERTED, last.getFirstRow(), last.getLastRow() - 1);
+			}
+		} else {
+			add(CatalogEvent.Type.DELETED, index, index);
+		}
+	}
+
+	@Override
+	public synchronized void videoChanged(Video video, VideoField field, Object oldValue) {
+		if (isAllChanged()) {
+			return;
+		}
+
+		int row = vm.indexOf(video);
+		if (row < 0) {
+			return;
+		}
+
+		CatalogEvent last = last();
+		if (last != null && last.getType() != CatalogEvent.Type.DELETED
+				&& row >= last.getFirstRow() && row <= last.getLastRow()) {
+			return;
+		}
+		if (last != null && last.getType() == CatalogEvent.Type.UPDATED
+				&& row >= last.getFirstRow() - 1 && row <= last.getLastRow() + 1) {
+			replaceLast(CatalogEvent.Type.UPDATED, Math.min(row, last.getFirstRow()),
+					Math.max(row, last.getLastRow()));
+		} else {
+			add(CatalogEvent.Type.UPDATED, row, row);
+		}
+	}
+
+	/**
+	 * Tell the listener that all rows changed, after the list of videos was
+	 * replaced.
+	 */
+	synchronized void allChanged() {
+		pending.clear();
+		add(CatalogEvent.Type.ALL_CHANGED, 0, 0);
+	}
+
+	private CatalogEvent last() {
+		return isAllChanged() || pending.isEmpty() ? null : pending.get(pending.size() - 1);
+	}
+
+	private boolean isAllChanged() {
+		return pending.size() == 1 && pending.get(0).getType() == CatalogEvent.Type.ALL_CHANGED;
+	}
+
+	private void replaceLast(CatalogEvent.Type type, int firstRow, int lastRow) {
+		pending.set(pending.size() - 1, new CatalogEvent(type, firstRow, lastRow));
+	}
+
+	private void add(CatalogEvent.Type type, int firstRow, int lastRow) {
+		if (isAllChanged()) {
+			return;
+		}
+		if (pending.size() == MAX_PENDING) {
+			pending.clear();
+			type = CatalogEvent.Type.ALL_CHANGED;
+		}
+		pending.add(new CatalogEvent(type, firstRow, lastRow));
+
+		if (!scheduled) {
+			scheduled = true;
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					dispatch();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Tell the listener the pending events.  Runs through the executor.
+	 */
+	private void dispatch() {
+		List<CatalogEvent> events;
+
+		synchronized (this) {
+			events = pending;
+			pending = new ArrayList<CatalogEvent>();
+			scheduled = false;
+		}
+
+		for (CatalogEvent event : events) {
+			listener.catalogChanged(event);
+		}
+	}
+}
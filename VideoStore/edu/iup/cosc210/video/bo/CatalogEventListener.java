@@ -0,0 +1,21 @@
+package edu.iup.cosc210.video.bo;
+
+/**
+ * Listener told of the changes made to the videos of a VideoManager as runs
+ * of rows.  Unlike a CatalogListener, which is called for every change on
+ * the thread making it, a CatalogEventListener is called later through an
+ * executor, such as the event dispatch thread, with the changes made since
+ * it was last called merged into as few events as possible.
+ * 
+ * @author dtsmith
+ *
+ */
+public interface CatalogEventListener {
+	/**
+	 * Rows were changed.  The events of a batch are told in the order the
+	 * changes were made.
+	 * 
+	 * @param event - the rows changed
+	 */
+	void catalogChanged(CatalogEvent event);
+}
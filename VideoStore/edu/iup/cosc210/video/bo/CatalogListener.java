@@ -0,0 +1,37 @@
+package edu.iup.cosc210.video.bo;
+
+/**
+ * Listener notified of every change made to the videos of a VideoManager:
+ * videos added, videos removed and fields of videos changed through their
+ * setters.  Listeners are called on the thread making the change, right
+ * after the change is made.
+ * 
+ * @author dtsmith
+ *
+ */
+public interface CatalogListener {
+	/**
+	 * A video was added.
+	 * 
+	 * @param index - the index position of the added video
+	 * @param video - the added video
+	 */
+	void videoAdded(int index, Video video);
+
+	/**
+	 * A video was removed.
+	 * 
+	 * @param index - the index position the video had before it was removed
+	 * @param video - the removed video
+	 */
+	void videoRemoved(int index, Video video);
+
+	/**
+	 * A field of a video was changed to a different value.
+	 * 
+	 * @param video - the changed video, holding the new value
+	 * @param field - the changed field
+	 * @param oldValue - the value of the field before the change
+	 */
+	void videoChanged(Video video, VideoField field, Object oldValue);
+}
@@ -0,0 +1,450 @@
+package edu.iup.cosc210.video.bo;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * List of videos stored a field at a time instead of a video at a time.
+ * Vids and titles are kept UTF-8 encoded in one byte heap, rental rates as
+ * whole cents, years in an int array, ratings as codes into a dictionary of
+ * the ratings met, and new release flags as bits.  A video takes about a
+ * quarter of the memory of a Video object with its strings, and a pass over
+ * one field reads a single packed array.
+ *
+ * <p>
+ * get creates a Video on every call, a view of the row at that index.  The
+ * view belongs to the VideoManager, which writes changes made to it back
+ * into the columns.  Rental rates are kept to the cent.  Not thread safe;
+ * the VideoManager calls it while holding its lock.
+ *
+ * @author dtsmith
+ *
+ */
+class ColumnarVideoList extends AbstractList<Video> implements RandomAccess {
+	private static final Charset UTF_8 = StandardCharsets.UTF_8;
+	private static final int MIN_COMPACT_TEXT = 64 << 10;
+
+	private VideoManager manager;
+	private int size;
+
+	private byte[] text = new byte[1024];
+	private int textUsed;
+	private int textGarbage;
+	private int[] vidStart = new int[16];
+	private int[] vidLength = new int[16];
+	private int[] titleStart = new int[16];
+	private int[] titleLength = new int[16];
+
+	private int[] cents = new int[16];
+	private int[] years = new int[16];
+	private char[] ratingCodes = new char[16];
+	private long[] newReleases = new long[1];
+
+	private List<String> ratings = new ArrayList<String>();
+	private Map<String, Integer> ratingCodesByName = new HashMap<String, Integer>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param manager - the VideoManager the views belong to
+	 */
+	ColumnarVideoList(VideoManager manager) {
+		this.manager = manager;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param manager - the VideoManager the views belong to
+	 * @param videos - the videos copied into the columns
+	 */
+	ColumnarVideoList(VideoManager manager, Collection<Video> videos) {
+		this(manager);
+		ensureCapacity(videos.size());
+		for (Video video : videos) {
+			add(video);
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get a view of the video at an index.
+	 *
+	 * @param index - the index position of the video
+	 * @return a new Video holding the fields of the row
+	 */
+	@Override
+	public Video get(int index) {
+		checkIndex(index, size);
+
+		Video video = new Video(getVid(index), getTitle(index), cents[index] / 100.0,
+				years[index], ratings.get(ratingCodes[index]), isNewRelease(index));
+		video.manager = manager;
+		video.position = index;
+		video.rowId = index;
+		return video;
+	}
+
+	@Override
+	public void add(int index, Video video) {
+		checkIndex(index, size + 1);
+		ensureCapacity(size + 1);
+
+		if (index < size) {
+			shift(index, index + 1, size - index);
+		}
+		size++;
+		vidLength[index] = 0;
+		titleLength[index] = -1;
+		write(index, video);
+		modCount++;
+	}
+
+	@Override
+	public Video set(int index, Video video) {
+		Video old = get(index);
+		textGarbage += vidLength[index] + Math.max(titleLength[index], 0);
+		vidLength[index] = 0;
+		titleLength[index] = -1;
+		write(index, video);
+		return old;
+	}
+
+	@Override
+	public Video remove(int index) {
+		Video old = get(index);
+		textGarbage += vidLength[index] + Math.max(titleLength[index], 0);
+
+		shift(index + 1, index, size - index - 1);
+		size--;
+		setNewRelease(size, false);
+		modCount++;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+		textUsed = 0;
+		textGarbage = 0;
+		Arrays.fill(newReleases, 0);
+		modCount++;
+	}
+
+	private static void checkIndex(int index, int limit) {
+		if (index < 0 || index >= limit) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (limit - 1));
+		}
+	}
+
+	/**
+	 * Write the fields of a video into a row whose text was let go.
+	 *
+	 * @param index - the index position of the row
+	 * @param video - the video whose fields are written
+	 */
+	private void write(int index, Video video) {
+		byte[] vid = video.getVid().getBytes(UTF_8);
+		vidStart[index] = append(vid);
+		vidLength[index] = vid.length;
+		setTitle(index, video.getTitle());
+
+		cents[index] = (int) Math.round(video.getRentalRate() * 100);
+		years[index] = video.getYear();
+		ratingCodes[index] = ratingCode(video.getRating());
+		setNewRelease(index, video.isNewRelease());
+	}
+
+	private void setTitle(int index, String title) {
+		if (title == null) {
+			titleStart[index] = 0;
+			titleLength[index] = -1;
+		} else {
+			byte[] bytes = title.getBytes(UTF_8);
+			titleStart[index] = append(bytes);
+			titleLength[index] = bytes.length;
+		}
+	}
+
+	/**
+	 * Write back a field changed in a view.  The old text of a changed
+	 * title is left in the heap as garbage until the heap is compacted.
+	 *
+	 * @param index - the index position of the row
+	 * @param video - the view
+	 * @param field - the changed field
+	 */
+	void update(int index, Video video, VideoField field) {
+		switch (field) {
+		case TITLE:
+			textGarbage += Math.max(titleLength[index], 0);
+			titleLength[index] = -1;
+			setTitle(index, video.getTitle());
+			break;
+		case RENTAL_RATE:
+			cents[index] = (int) Math.round(video.getRentalRate() * 100);
+			break;
+		case YEAR:
+			years[index] = video.getYear();
+			break;
+		case RATING:
+			ratingCodes[index] = ratingCode(video.getRating());
+			break;
+		case NEW_RELEASE:
+			setNewRelease(index, video.isNewRelease());
+			break;
+		}
+	}
+
+	private char ratingCode(String rating) {
+		Integer code = ratingCodesByName.get(rating);
+		if (code == null) {
+			if (ratings.size() > Character.MAX_VALUE) {
+				throw new IllegalStateException("Too many different ratings");
+			}
+			code = ratings.size();
+			ratings.add(rating);
+			ratingCodesByName.put(rating, code);
+		}
+		return (char) code.intValue();
+	}
+
+	private void setNewRelease(int index, boolean newRelease) {
+		if (newRelease) {
+			newReleases[index >>> 6] |= 1L << index;
+		} else {
+			newReleases[index >>> 6] &= ~(1L << index);
+		}
+	}
+
+	/**
+	 * Append bytes to the text heap, compacting the heap first if it is
+	 * full and mostly garbage.
+	 *
+	 * @return the start of the bytes in the heap
+	 */
+	private int append(byte[] bytes) {
+		if (textUsed + bytes.length > text.length) {
+			if (textGarbage > MIN_COMPACT_TEXT && textGarbage * 2 > textUsed) {
+				compactText();
+			}
+			if (textUsed + bytes.length > text.length) {
+				text = Arrays.copyOf(text, Math.max(textUsed + bytes.length, text.length * 2));
+			}
+		}
+
+		System.arraycopy(bytes, 0, text, textUsed, bytes.length);
+		textUsed += bytes.length;
+		return textUsed - bytes.length;
+	}
+
+	private void compactText() {
+		byte[] compacted = new byte[text.length];
+		int used = 0;
+
+		for (int i = 0; i < size; i++) {
+			System.arraycopy(text, vidStart[i], compacted, used, vidLength[i]);
+			vidStart[i] = used;
+			used += vidLength[i];
+
+			if (titleLength[i] > 0) {
+				System.arraycopy(text, titleStart[i], compacted, used, titleLength[i]);
+				titleStart[i] = used;
+				used += titleLength[i];
+			}
+		}
+
+		text = compacted;
+		textUsed = used;
+		textGarbage = 0;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= cents.length) {
+			return;
+		}
+
+		int newCapacity = Math.max(capacity, cents.length * 3 / 2);
+		vidStart = Arrays.copyOf(vidStart, newCapacity);
+		vidLength = Arrays.copyOf(vidLength, newCapacity);
+		titleStart = Arrays.copyOf(titleStart, newCapacity);
+		titleLength = Arrays.copyOf(titleLength, newCapacity);
+		cents = Arrays.copyOf(cents, newCapacity);
+		years = Arrays.copyOf(years, newCapacity);
+		ratingCodes = Arrays.copyOf(ratingCodes, newCapacity);
+		newReleases = Arrays.copyOf(newReleases, (newCapacity + 63) >>> 6);
+	}
+
+	/**
+	 * Move a run of rows, for inserting and removing rows.
+	 */
+	private void shift(int from, int to, int length) {
+		System.arraycopy(vidStart, from, vidStart, to, length);
+		System.arraycopy(vidLength, from, vidLength, to, length);
+		System.arraycopy(titleStart, from, titleStart, to, length);
+		System.arraycopy(titleLength, from, titleLength, to, length);
+		System.arraycopy(cents, from, cents, to, length);
+		System.arraycopy(years, from, years, to, length);
+		System.arraycopy(ratingCodes, from, ratingCodes, to, length);
+
+		if (from < to) {
+			for (int i = from + length - 1; i >= from; i--) {
+				setNewRelease(i + to - from, isNewRelease(i));
+			}
+		} else {
+			for (int i = from; i < from + length; i++) {
+				setNewRelease(i + to - from, isNewRelease(i));
+			}
+		}
+	}
+
+	/**
+	 * Get the vid of the video at an index, without creating a view.
+	 *
+	 * @param index - the index position of the video
+	 * @return the video id
+	 */
+	String getVid(int index) {
+		return new String(text, vidStart[index], vidLength[index], UTF_8);
+	}
+
+	/**
+	 * Get the title of the video at an index, without creating a view.
+	 *
+	 * @param index - the index position of the video
+	 * @return the title of the video
+	 */
+	String getTitle(int index) {
+		return titleLength[index] < 0 ? null
+				: new String(text, titleStart[index], titleLength[index], UTF_8);
+	}
+
+	private boolean isNewRelease(int index) {
+		return (newReleases[index >>> 6] & 1L << index) != 0;
+	}
+
+	/**
+	 * Check whether the video at an index has a vid.
+	 *
+	 * @param index - the index position of the video
+	 * @param vid - the video id
+	 * @return true if the video has the vid
+	 */
+	boolean hasVid(int index, String vid) {
+		return vidMatches(index, vid.getBytes(UTF_8));
+	}
+
+	private boolean vidMatches(int index, byte[] vid) {
+		if (vidLength[index] != vid.length) {
+			return false;
+		}
+		int start = vidStart[index];
+		for (int i = 0; i < vid.length; i++) {
+			if (text[start + i] != vid[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Search the vid column for a vid.
+	 *
+	 * @param vid - the video id
+	 * @return the index position of the first video with the vid, or -1 if
+	 * there is none
+	 */
+	int indexOfVid(String vid) {
+		byte[] bytes = vid.getBytes(UTF_8);
+		for (int i = 0; i < size; i++) {
+			if (vidMatches(i, bytes)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the index positions of all videos.
+	 *
+	 * @return the positions
+	 */
+	RowBitmap allRows() {
+		long[] words = new long[(size + 63) >>> 6];
+		Arrays.fill(words, -1L);
+		if ((size & 63) != 0) {
+			words[words.length - 1] = (1L << size) - 1;
+		}
+		return RowBitmap.fromWords(words).positionsOf(this, modCount);
+	}
+
+	/**
+	 * Scan the rating column for a rating.
+	 *
+	 * @param rating - the rating
+	 * @return the index positions of the videos with the rating
+	 */
+	RowBitmap rowsWithRating(String rating) {
+		long[] words = new long[(size + 63) >>> 6];
+		Integer code = ratingCodesByName.get(rating);
+
+		if (code != null) {
+			char c = (char) code.intValue();
+			for (int i = 0; i < size; i++) {
+				if (ratingCodes[i] == c) {
+					words[i >>> 6] |= 1L << i;
+				}
+			}
+		}
+		return RowBitmap.fromWords(words).positionsOf(this, modCount);
+	}
+
+	/**
+	 * Scan the year column for a range of years.
+	 *
+	 * @param fromYear - the first year of the range
+	 * @param toYear - the last year of the range, included
+	 * @return the index positions of the videos released in the range
+	 */
+	RowBitmap rowsWithYears(int fromYear, int toYear) {
+		long[] words = new long[(size + 63) >>> 6];
+		for (int i = 0; i < size; i++) {
+			if (years[i] >= fromYear && years[i] <= toYear) {
+				words[i >>> 6] |= 1L << i;
+			}
+		}
+		return RowBitmap.fromWords(words).positionsOf(this, modCount);
+	}
+
+	/**
+	 * Check whether a set of rows holds no index positions taken before
+	 * videos were added or removed.
+	 *
+	 * @param rows - the rows
+	 * @return true if the rows can be taken as positions
+	 */
+	boolean holdsPositions(RowBitmap rows) {
+		return rows.holdsPositionsOf(this, modCount);
+	}
+
+	/**
+	 * Get the index positions of the new releases from their bits.
+	 *
+	 * @return the positions
+	 */
+	RowBitmap newReleaseRows() {
+		return RowBitmap.fromWords(newReleases).positionsOf(this, modCount);
+	}
+}
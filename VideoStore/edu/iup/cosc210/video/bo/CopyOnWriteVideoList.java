@@ -0,0 +1,368 @@
+package edu.iup.cosc210.video.bo;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * List of videos that can be read by any number of threads without locking
+ * while one thread at a time changes it.  The videos are held in segments
+ * of at most SEGMENT_SIZE videos, and the list is an immutable version of
+ * the segments published through a volatile field.  A change copies only
+ * the segment it touches and the small table of segments, and publishes a
+ * new version; adding at the end writes past the end of the last segment,
+ * where no earlier version looks, so it copies nothing.
+ *
+ * <p>
+ * get and size read the current version and never wait for a change.
+ * snapshot returns the current version itself, a list that never changes,
+ * so the videos can be saved or searched while they keep being changed.
+ * The changing methods are synchronized, so changes are made one at a time.
+ *
+ * @author dtsmith
+ *
+ */
+class CopyOnWriteVideoList extends AbstractList<Video> implements RandomAccess {
+	static final int SEGMENT_SIZE = 1024;
+	private static final Video[][] NO_SEGMENTS = new Video[0][];
+
+	private volatile Version version = new Version(NO_SEGMENTS, new int[0], 0);
+
+	/**
+	 * Constructor
+	 */
+	CopyOnWriteVideoList() {
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param videos - the videos the list starts with
+	 */
+	CopyOnWriteVideoList(Collection<Video> videos) {
+		addAll(videos);
+	}
+
+	/**
+	 * Get the videos as they are now, in a list that does not change when
+	 * videos are added, removed or replaced.  Takes no copy.
+	 *
+	 * @return the videos as they are now
+	 */
+	List<Video> snapshot() {
+		return version;
+	}
+
+	@Override
+	public int size() {
+		return version.size;
+	}
+
+	@Override
+	public Video get(int index) {
+		return version.get(index);
+	}
+
+	@Override
+	public Iterator<Video> iterator() {
+		return version.iterator();
+	}
+
+	@Override
+	public synchronized boolean add(Video video) {
+		Version v = version;
+		int last = v.segments.length - 1;
+
+		if (last >= 0 && v.size - v.starts[last] < v.segments[last].length) {
+			v.segments[last][v.size - v.starts[last]] = video;
+			version = new Version(v.segments, v.starts, v.size + 1);
+			return true;
+		}
+
+		if (last >= 0 && v.segments[last].length < SEGMENT_SIZE) {
+			Video[][] segments = v.segments.clone();
+			Video[] segment = Arrays.copyOf(v.segments[last], SEGMENT_SIZE);
+			segment[v.size - v.starts[last]] = video;
+			segments[last] = segment;
+			version = new Version(segments, v.starts, v.size + 1);
+			return true;
+		}
+
+		Video[] segment = new Video[last < 0 ? 16 : SEGMENT_SIZE];
+		segment[0] = video;
+		version = new Version(append(v.segments, segment), append(v.starts, v.size), v.size + 1);
+		return true;
+	}
+
+	@Override
+	public synchronized boolean addAll(Collection<? extends Video> added) {
+		if (added.isEmpty()) {
+			return false;
+		}
+
+		Version v = version;
+		Video[][] segments = v.segments;
+		int[] starts = v.starts;
+		int size = v.size;
+		Iterator<? extends Video> it = added.iterator();
+
+		int last = segments.length - 1;
+		if (last >= 0) {
+			int used = size - starts[last];
+			if (used < SEGMENT_SIZE) {
+				Video[] segment = Arrays.copyOf(segments[last], Math.min(SEGMENT_SIZE, used + added.size()));
+				while (used < segment.length) {
+					segment[used++] = it.next();
+					size++;
+				}
+				segments = segments.clone();
+				segments[last] = segment;
+			}
+		}
+
+		int remaining = v.size + added.size() - size;
+		if (remaining > 0) {
+			int n = (remaining + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+			int first = segments.length;
+			segments = Arrays.copyOf(segments, first + n);
+			starts = Arrays.copyOf(starts, first + n);
+
+			for (int k = first; k < segments.length; k++) {
+				Video[] segment = new Video[Math.min(SEGMENT_SIZE, remaining)];
+				starts[k] = size;
+				for (int i = 0; i < segment.length; i++) {
+					segment[i] = it.next();
+				}
+				segments[k] = segment;
+				size += segment.length;
+				remaining -= segment.length;
+			}
+		}
+
+		version = new Version(segments, starts, size);
+		return true;
+	}
+
+	@Override
+	public synchronized void add(int index, Video video) {
+		Version v = version;
+		if (index == v.size) {
+			add(video);
+			return;
+		}
+		if (index < 0 || index > v.size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + v.size);
+		}
+
+		int k = v.segmentOf(index);
+		Video[] old = v.segments[k];
+		int used = v.used(k);
+		int at = index - v.starts[k];
+		Video[] segment = new Video[used + 1];
+		System.arraycopy(old, 0, segment, 0, at);
+		segment[at] = video;
+		System.arraycopy(old, at, segment, at + 1, used - at);
+
+		Video[][] segments;
+		int[] starts;
+		if (segment.length <= SEGMENT_SIZE) {
+			segments = v.segments.clone();
+			starts = v.starts.clone();
+			segments[k] = segment;
+		} else {
+			int half = segment.length / 2;
+			segments = new Video[v.segments.length + 1][];
+			starts = new int[v.starts.length + 1];
+			System.arraycopy(v.segments, 0, segments, 0, k);
+			System.arraycopy(v.segments, k + 1, segments, k + 2, v.segments.length - k - 1);
+			System.arraycopy(v.starts, 0, starts, 0, k + 1);
+			System.arraycopy(v.starts, k + 1, starts, k + 2, v.starts.length - k - 1);
+			segments[k] = Arrays.copyOfRange(segment, 0, half);
+			segments[k + 1] = Arrays.copyOfRange(segment, half, segment.length);
+			starts[k + 1] = starts[k] + half;
+			k++;
+		}
+		for (int j = k + 1; j < starts.length; j++) {
+			starts[j]++;
+		}
+		version = new Version(segments, starts, v.size + 1);
+	}
+
+	@Override
+	public synchronized Video set(int index, Video video) {
+		Version v = version;
+		v.check(index);
+
+		int k = v.segmentOf(index);
+		Video[][] segments = v.segments.clone();
+		segments[k] = Arrays.copyOf(v.segments[k], v.used(k));
+		Video old = segments[k][index - v.starts[k]];
+		segments[k][index - v.starts[k]] = video;
+		version = new Version(segments, v.starts, v.size);
+		return old;
+	}
+
+	/**
+	 * Remove a video.  The segment it was in is copied without it, so a
+	 * later add never writes over a slot an earlier version still reads.  A
+	 * segment left nearly empty is merged into the segment after it.
+	 */
+	@Override
+	public synchronized Video remove(int index) {
+		Version v = version;
+		v.check(index);
+
+		int k = v.segmentOf(index);
+		Video[] old = v.segments[k];
+		int used = v.used(k);
+		int at = index - v.starts[k];
+		Video removed = old[at];
+
+		Video[] segment = new Video[used - 1];
+		System.arraycopy(old, 0, segment, 0, at);
+		System.arraycopy(old, at + 1, segment, at, used - at - 1);
+
+		Video[][] segments;
+		int[] starts;
+		int n = v.segments.length;
+		if (segment.length == 0) {
+			segments = new Video[n - 1][];
+			starts = new int[n - 1];
+			System.arraycopy(v.segments, 0, segments, 0, k);
+			System.arraycopy(v.segments, k + 1, segments, k, n - k - 1);
+			System.arraycopy(v.starts, 0, starts, 0, k);
+			System.arraycopy(v.starts, k + 1, starts, k, n - k - 1);
+			k--;
+		} else if (k + 1 < n && segment.length < SEGMENT_SIZE / 4
+				&& segment.length + v.used(k + 1) <= SEGMENT_SIZE) {
+			int next = v.used(k + 1);
+			Video[] merged = Arrays.copyOf(segment, segment.length + next);
+			System.arraycopy(v.segments[k + 1], 0, merged, segment.length, next);
+			segments = new Video[n - 1][];
+			starts = new int[n - 1];
+			System.arraycopy(v.segments, 0, segments, 0, k);
+			System.arraycopy(v.segments, k + 2, segments, k + 1, n - k - 2);
+			System.arraycopy(v.starts, 0, starts, 0, k + 1);
+			System.arraycopy(v.starts, k + 2, starts, k + 1, n - k - 2);
+			segments[k] = merged;
+		} else {
+			segments = v.segments.clone();
+			starts = v.starts.clone();
+			segments[k] = segment;
+		}
+		for (int j = k + 1; j < starts.length; j++) {
+			starts[j]--;
+		}
+		version = new Version(segments, starts, v.size - 1);
+		return removed;
+	}
+
+	@Override
+	public synchronized void clear() {
+		version = new Version(NO_SEGMENTS, new int[0], 0);
+	}
+
+	private static Video[][] append(Video[][] segments, Video[] segment) {
+		Video[][] result = Arrays.copyOf(segments, segments.length + 1);
+		result[segments.length] = segment;
+		return result;
+	}
+
+	private static int[] append(int[] starts, int start) {
+		int[] result = Arrays.copyOf(starts, starts.length + 1);
+		result[starts.length] = start;
+		return result;
+	}
+
+	/**
+	 * The videos of the list at one moment.  The segments and their starts
+	 * are never changed once a version is published, except for the slots
+	 * past the end of the last segment, which only later versions read.
+	 */
+	private static class Version extends AbstractList<Video> implements RandomAccess {
+		private final Video[][] segments;
+		private final int[] starts;
+		private final int size;
+
+		Version(Video[][] segments, int[] starts, int size) {
+			this.segments = segments;
+			this.starts = starts;
+			this.size = size;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public Video get(int index) {
+			check(index);
+			int k = segmentOf(index);
+			return segments[k][index - starts[k]];
+		}
+
+		void check(int index) {
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			}
+		}
+
+		/**
+		 * Find the segment holding an index, the last whose start is at or
+		 * before it.
+		 */
+		int segmentOf(int index) {
+			int low = 0;
+			int high = starts.length - 1;
+
+			while (low < high) {
+				int mid = (low + high + 1) >>> 1;
+				if (starts[mid] <= index) {
+					low = mid;
+				} else {
+					high = mid - 1;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Get the number of videos of this version in a segment.
+		 */
+		int used(int k) {
+			return (k + 1 < starts.length ? starts[k + 1] : size) - starts[k];
+		}
+
+		@Override
+		public Iterator<Video> iterator() {
+			return new Iterator<Video>() {
+				private int index;
+				private int k;
+				private int at;
+
+				@Override
+				public boolean hasNext() {
+					return index < size;
+				}
+
+				@Override
+				public Video next() {
+					if (index >= size) {
+						throw new NoSuchElementException();
+					}
+					while (at >= used(k)) {
+						k++;
+						at = 0;
+					}
+					index++;
+					return segments[k][at++];
+				}
+			};
+		}
+	}
+}
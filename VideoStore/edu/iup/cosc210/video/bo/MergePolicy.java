@@ -0,0 +1,34 @@
+package edu.iup.cosc210.video.bo;
+
+/**
+ * How to choose between videos with the same vid when catalogs are merged:
+ * keep the video from the file listed first, the video with the latest year,
+ * or the video with the highest rental rate.  A video only replaces one met
+ * earlier when it is strictly preferred, so on a tie the video met first is
+ * kept and the choice does not depend on the order in which the videos are
+ * compared.
+ * 
+ * @author dtsmith
+ *
+ */
+public enum MergePolicy {
+	FIRST_FILE_WINS,
+	LATEST_YEAR,
+	HIGHEST_RATE;
+
+	/**
+	 * Check whether a video should replace a video with the same vid met
+	 * earlier in the merge.
+	 * 
+	 * @param later - the video met later
+	 * @param earlier - the video met earlier
+	 * @return true if the later video is preferred
+	 */
+	public boolean prefers(Video later, Video earlier) {
+		switch (this) {
+		case LATEST_YEAR: return later.getYear() > earlier.getYear();
+		case HIGHEST_RATE: return later.getRentalRate() > earlier.getRentalRate();
+		default: return false;
+		}
+	}
+}
@@ -0,0 +1,325 @@
+package edu.iup.cosc210.video.bo;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.RandomAccess;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * How a VideoManager answers a VideoQuery.  The plan starts from the rows
+ * of the indexes matching the conditions of the query: the video with the
+ * vid, the bitmap indexes by rating, year and new release flag, and the
+ * title trigram index once a title search built it.  The sets are combined
+ * smallest first.  The videos of the rows found are then checked against
+ * every condition, in parallel when there are many, since an index may
+ * find more videos than match (the title trigrams) and some conditions
+ * have no index (rental rates).  Without any index every video is checked.
+ * Last the videos are ordered and cut to the limit, keeping only the best
+ * in a heap when the limit is small.
+ *
+ * <p>
+ * run returns a view of the videos found, which holds their index
+ * positions instead of copying them.  For loaded videos the view reads a
+ * snapshot, so it does not change when videos are added or removed later;
+ * otherwise it reads the videos at those positions when asked.  toString
+ * explains the plan, one step per line with the rows each step left and,
+ * once run, the time it took.  A plan run some time after it was made
+ * starts from the rows its indexes found then, so VideoManager.query plans
+ * and runs a query at once.
+ *
+ * @author dtsmith
+ *
+ */
+public class QueryPlan {
+	private static final int PARALLEL_ROWS = 1 << 16;
+	private static final int HEAP_FACTOR = 8;
+
+	private VideoManager vm;
+	private VideoQuery query;
+	private List<Video> byRow;
+	private boolean rowsArePositions;
+	private boolean parallel;
+	private List<String> steps = new ArrayList<String>();
+	private List<RowBitmap> sets = new ArrayList<RowBitmap>();
+	private List<String> setNames = new ArrayList<String>();
+	private RowBitmap candidates;
+	private boolean empty;
+
+	/**
+	 * Constructor, called by VideoManager.plan while holding its lock.
+	 *
+	 * @param vm - the VideoManager queried
+	 * @param query - the query
+	 * @param byRow - the videos by row
+	 * @param rowsArePositions - true if the rows are the index positions
+	 * @param parallel - true if the videos can be checked by several threads
+	 */
+	QueryPlan(VideoManager vm, VideoQuery query, List<Video> byRow, boolean rowsArePositions,
+			boolean parallel) {
+		this.vm = vm;
+		this.query = query;
+		this.byRow = byRow;
+		this.rowsArePositions = rowsArePositions;
+		this.parallel = parallel;
+		steps.add("query " + query);
+	}
+
+	/**
+	 * Start from the rows of an index.
+	 *
+	 * @param name - what the index finds, for the explanation
+	 * @param rows - the rows found, not changed
+	 */
+	void useIndex(String name, RowBitmap rows) {
+		if (rows == null) {
+			rows = new RowBitmap();
+		}
+		sets.add(rows);
+		setNames.add(name);
+	}
+
+	/**
+	 * Start from the row of the video with the vid of the query.
+	 *
+	 * @param video - the video with the vid, or null if there is none
+	 */
+	void useVid(Video video) {
+		RowBitmap rows = new RowBitmap();
+		if (video != null) {
+			rows.add(video.rowId);
+		}
+		useIndex("index vid", rows);
+	}
+
+	/**
+	 * Note why an index was not used.
+	 *
+	 * @param note - the reason
+	 */
+	void note(String note) {
+		steps.add("note: " + note);
+	}
+
+	/**
+	 * Combine the sets of rows of the indexes used, smallest first.
+	 */
+	void finish() {
+		if (sets.isEmpty()) {
+			steps.add("scan all " + byRow.size() + " rows");
+			return;
+		}
+
+		Integer[] order = new Integer[sets.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Integer.compare(sets.get(a).getCardinality(), sets.get(b).getCardinality());
+			}
+		});
+
+		for (int i : order) {
+			RowBitmap rows = sets.get(i);
+			candidates = candidates == null ? rows : candidates.and(rows);
+			steps.add((candidates == rows ? "from " : "and ") + setNames.get(i) + ": "
+					+ rows.getCardinality() + " rows, " + candidates.getCardinality() + " left");
+			if (candidates.isEmpty()) {
+				empty = true;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Run the plan.  The VideoManager is locked while the videos are found.
+	 *
+	 * @return a view of the videos found
+	 * @throws java.util.ConcurrentModificationException if the plan started
+	 * from index positions of videos since added to or removed from
+	 */
+	public List<Video> run() {
+		synchronized (vm) {
+			if (candidates != null) {
+				vm.checkPositions(candidates);
+			}
+			long start = System.nanoTime();
+			int[] rows = empty ? new int[0] : candidates == null ? null : candidates.toArray();
+			int noRows = rows == null ? byRow.size() : rows.length;
+
+			if (query.hasConditions() && noRows > 0) {
+				boolean inParallel = parallel && noRows >= PARALLEL_ROWS;
+				rows = filter(rows, noRows, inParallel);
+				steps.add((inParallel ? "parallel check of " : "check of ") + noRows
+						+ " rows against the query: " + rows.length + " left" + took(start));
+			} else if (rows == null) {
+				rows = new int[noRows];
+				for (int i = 0; i < noRows; i++) {
+					rows[i] = i;
+				}
+			}
+
+			int limit = query.getLimit();
+			VideoField field = query.getOrderField();
+			int n = rows.length;
+			Integer[] order = null;
+
+			if (field != null) {
+				start = System.nanoTime();
+				Video[] videos = new Video[n];
+				order = new Integer[n];
+				for (int k = 0; k < n; k++) {
+					videos[k] = byRow.get(rows[k]);
+					order[k] = k;
+				}
+
+				Comparator<Integer> comparator = order(field, query.isDescending(), videos);
+				if (limit < n / HEAP_FACTOR) {
+					n = top(order, limit, comparator);
+					steps.add("order by " + field + " keeping the best " + limit + " in a heap"
+							+ took(start));
+				} else {
+					Arrays.sort(order, comparator);
+					steps.add("sort " + n + " videos by " + field + took(start));
+				}
+			}
+			if (n > limit) {
+				n = limit;
+				steps.add("limit " + limit);
+			}
+
+			int[] positions = new int[n];
+			for (int i = 0; i < n; i++) {
+				int row = rows[order == null ? i : order[i]];
+				positions[i] = rowsArePositions ? row : vm.indexOf(byRow.get(row));
+			}
+			steps.add(n + " videos found");
+			return new PositionList(vm, vm.stableVideos(), positions);
+		}
+	}
+
+	/**
+	 * Keep the rows, all rows if null, whose videos match the query.
+	 */
+	private int[] filter(final int[] rows, int noRows, boolean inParallel) {
+		IntStream stream = rows == null ? IntStream.range(0, noRows) : IntStream.of(rows);
+		if (inParallel) {
+			stream = stream.parallel();
+		}
+
+		return stream.filter(new IntPredicate() {
+			@Override
+			public boolean test(int row) {
+				Video video = byRow.get(row);
+				return video != null && query.matches(video);
+			}
+		}).toArray();
+	}
+
+	/**
+	 * Get the order of the videos of an array by a field, equal values in
+	 * the order of the array, which is the order of their rows.
+	 */
+	private static Comparator<Integer> order(final VideoField field, final boolean descending,
+			final Video[] videos) {
+		return new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i, Integer j) {
+				Video a = videos[i];
+				Video b = videos[j];
+				int result;
+				if (field == VideoField.TITLE) {
+					result = compareText(a.getTitle(), b.getTitle(), true);
+				} else if (field == VideoField.RATING) {
+					result = compareText(a.getRating(), b.getRating(), false);
+				} else {
+					@SuppressWarnings("unchecked")
+					Comparable<Object> value = (Comparable<Object>) field.get(a);
+					result = value.compareTo(field.get(b));
+				}
+				if (descending) {
+					result = -result;
+				}
+				return result != 0 ? result : Integer.compare(i, j);
+			}
+		};
+	}
+
+	private static int compareText(String a, String b, boolean ignoreCase) {
+		if (a == null || b == null) {
+			return a == null ? (b == null ? 0 : -1) : 1;
+		}
+		return ignoreCase ? a.compareToIgnoreCase(b) : a.compareTo(b);
+	}
+
+	/**
+	 * Move the first limit entries in an order to the front of the array,
+	 * sorted, keeping only limit entries in a heap.
+	 *
+	 * @return the number of entries kept
+	 */
+	private static int top(Integer[] entries, int limit, Comparator<Integer> order) {
+		if (limit == 0) {
+			return 0;
+		}
+
+		PriorityQueue<Integer> heap = new PriorityQueue<Integer>(limit,
+				Collections.reverseOrder(order));
+		for (Integer entry : entries) {
+			if (heap.size() < limit) {
+				heap.add(entry);
+			} else if (order.compare(entry, heap.peek()) < 0) {
+				heap.poll();
+				heap.add(entry);
+			}
+		}
+
+		int kept = heap.size();
+		for (int i = kept - 1; i >= 0; i--) {
+			entries[i] = heap.poll();
+		}
+		return kept;
+	}
+
+	private static String took(long start) {
+		return String.format(", %.2f ms", (System.nanoTime() - start) / 1e6);
+	}
+
+	@Override
+	public String toString() {
+		return String.join("\n", steps);
+	}
+
+	/**
+	 * The videos found, by their index positions.
+	 */
+	private static class PositionList extends AbstractList<Video> implements RandomAccess {
+		private VideoManager vm;
+		private List<Video> videos;
+		private int[] positions;
+
+		PositionList(VideoManager vm, List<Video> videos, int[] positions) {
+			this.vm = vm;
+			this.videos = videos;
+			this.positions = positions;
+		}
+
+		@Override
+		public Video get(int index) {
+			int position = positions[index];
+			return videos != null ? videos.get(position) : vm.getVideo(position);
+		}
+
+		@Override
+		public int size() {
+			return positions.length;
+		}
+	}
+}
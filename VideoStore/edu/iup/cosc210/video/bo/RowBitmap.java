@@ -0,0 +1,715 @@
+package edu.iup.cosc210.video.bo;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of row ids.  The ids are split into blocks of 65536 by
+ * their high 16 bits; a block holding few ids keeps them as a sorted array
+ * of their low 16 bits, a block holding many as a bitmap of 1024 longs.
+ * Sets are combined block by block with AND, OR and AND NOT, a pair of
+ * bitmap blocks a word at a time, so combining sets of millions of rows
+ * takes microseconds.  The combining methods return new sets and leave
+ * their operands alone.  A set handed out by an index is read-only; add and
+ * remove throw UnsupportedOperationException.  A RowBitmap is not thread
+ * safe, but a read-only one can be shared.
+ *
+ * @author dtsmith
+ *
+ */
+public class RowBitmap {
+	private static final int ARRAY_MAX = 4096;
+	private static final int WORDS = 1024;
+
+	private char[] keys = new char[4];
+	private Container[] containers = new Container[4];
+	private int size;
+	private boolean readOnly;
+	private Object positionsOf;
+	private int positionsVersion;
+
+	/**
+	 * Create an empty set.
+	 */
+	public RowBitmap() {
+	}
+
+	private RowBitmap(int capacity) {
+		keys = new char[Math.max(capacity, 1)];
+		containers = new Container[Math.max(capacity, 1)];
+	}
+
+	/**
+	 * Make a set from a plain bitmap of row ids, a block at a time.
+	 *
+	 * @param words - the bitmap, row id i being bit i % 64 of word i / 64
+	 * @return a new set holding the row ids whose bits are set
+	 */
+	static RowBitmap fromWords(long[] words) {
+		RowBitmap result = new RowBitmap((words.length + WORDS - 1) / WORDS);
+
+		for (int from = 0; from < words.length; from += WORDS) {
+			int to = Math.min(words.length, from + WORDS);
+			int cardinality = 0;
+			for (int w = from; w < to; w++) {
+				cardinality += Long.bitCount(words[w]);
+			}
+			if (cardinality == 0) {
+				continue;
+			}
+
+			Container container;
+			if (cardinality > ARRAY_MAX) {
+				container = new BitmapContainer(Arrays.copyOfRange(words, from, from + WORDS),
+						cardinality);
+			} else {
+				char[] values = new char[cardinality];
+				int n = 0;
+				for (int w = from; w < to; w++) {
+					long word = words[w];
+					while (word != 0) {
+						values[n++] = (char) ((w - from) << 6 | Long.numberOfTrailingZeros(word));
+						word &= word - 1;
+					}
+				}
+				container = new ArrayContainer(values, cardinality);
+			}
+			result.append((char) (from / WORDS), container);
+		}
+		return result;
+	}
+
+	/**
+	 * Add a row id to the set.
+	 *
+	 * @param row - the row id, not negative
+	 */
+	public void add(int row) {
+		checkWritable();
+		char key = (char) (row >>> 16);
+		int i = find(key);
+
+		if (i < 0) {
+			i = -i - 1;
+			insert(i, key, new ArrayContainer());
+		}
+		containers[i] = containers[i].add((char) row);
+	}
+
+	/**
+	 * Remove a row id from the set.
+	 *
+	 * @param row - the row id
+	 */
+	public void remove(int row) {
+		checkWritable();
+		int i = find((char) (row >>> 16));
+
+		if (i >= 0) {
+			containers[i] = containers[i].remove((char) row);
+			if (containers[i].cardinality() == 0) {
+				System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+				System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+				containers[--size] = null;
+			}
+		}
+	}
+
+	private void checkWritable() {
+		if (readOnly) {
+			throw new UnsupportedOperationException("The row set is read-only");
+		}
+	}
+
+	/**
+	 * Get a read-only copy of the set.
+	 *
+	 * @return a read-only set holding the same row ids
+	 */
+	RowBitmap readOnlyCopy() {
+		return copy().makeReadOnly();
+	}
+
+	/**
+	 * Make the set read-only, for a set made to be handed out.
+	 *
+	 * @return this set
+	 */
+	RowBitmap makeReadOnly() {
+		readOnly = true;
+		return this;
+	}
+
+	/**
+	 * Check whether a row id is in the set.
+	 *
+	 * @param row - the row id
+	 * @return true if the row id is in the set
+	 */
+	public boolean contains(int row) {
+		int i = find((char) (row >>> 16));
+		return i >= 0 && containers[i].contains((char) row);
+	}
+
+	/**
+	 * Get the number of row ids in the set.
+	 *
+	 * @return the number of row ids
+	 */
+	public int getCardinality() {
+		int cardinality = 0;
+		for (int i = 0; i < size; i++) {
+			cardinality += containers[i].cardinality();
+		}
+		return cardinality;
+	}
+
+	/**
+	 * Check whether the set is empty.
+	 *
+	 * @return true if the set holds no row ids
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Get the row ids in the set.
+	 *
+	 * @return the row ids in ascending order
+	 */
+	public int[] toArray() {
+		int[] rows = new int[getCardinality()];
+		int n = 0;
+
+		for (int i = 0; i < size; i++) {
+			n = containers[i].copyTo(rows, n, keys[i] << 16);
+		}
+		return rows;
+	}
+
+	/**
+	 * Get a copy of the set, which can be changed.
+	 *
+	 * @return a set holding the same row ids
+	 */
+	public RowBitmap copy() {
+		RowBitmap copy = new RowBitmap(size);
+		for (int i = 0; i < size; i++) {
+			copy.keys[i] = keys[i];
+			copy.containers[i] = containers[i].copy();
+		}
+		copy.size = size;
+		copy.inheritPositions(this, this);
+		return copy;
+	}
+
+	/**
+	 * Mark the set as holding the index positions or the row ids of the
+	 * videos of a list, which are only right while the list has not had
+	 * videos added or removed, or was not numbered again.
+	 *
+	 * @param list - the list
+	 * @param version - the modification count of the list
+	 * @return this set
+	 */
+	RowBitmap positionsOf(Object list, int version) {
+		positionsOf = list;
+		positionsVersion = version;
+		return this;
+	}
+
+	/**
+	 * Check whether the rows of the set can be taken as index positions of a
+	 * list: the set was not made from the positions of another list, or of
+	 * the list at another version.
+	 *
+	 * @param list - the list
+	 * @param version - the modification count of the list
+	 * @return true if the set holds no stale positions
+	 */
+	boolean holdsPositionsOf(Object list, int version) {
+		return positionsOf == null || (positionsOf == list && positionsVersion == version);
+	}
+
+	/**
+	 * Take the positions mark of the sets a set was made from.  Sets of
+	 * positions taken at different times make a set matching no list.
+	 */
+	private void inheritPositions(RowBitmap a, RowBitmap b) {
+		RowBitmap marked = a.positionsOf != null ? a : b;
+		positionsOf = marked.positionsOf;
+		positionsVersion = marked.positionsVersion;
+		if (a.positionsOf != null && b.positionsOf != null && (a.positionsOf != b.positionsOf
+				|| a.positionsVersion != b.positionsVersion)) {
+			positionsOf = new Object();
+		}
+	}
+
+	/**
+	 * Get the row ids in both this set and another.
+	 *
+	 * @param other - the other set
+	 * @return a new set holding the intersection
+	 */
+	public RowBitmap and(RowBitmap other) {
+		RowBitmap result = new RowBitmap(Math.min(size, other.size));
+		int i = 0;
+		int j = 0;
+
+		while (i < size && j < other.size) {
+			if (keys[i] < other.keys[j]) {
+				i++;
+			} else if (keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				Container c = containers[i].and(other.containers[j]);
+				if (c.cardinality() > 0) {
+					result.append(keys[i], c);
+				}
+				i++;
+				j++;
+			}
+		}
+		result.inheritPositions(this, other);
+		return result;
+	}
+
+	/**
+	 * Get the row ids in this set, another set or both.
+	 *
+	 * @param other - the other set
+	 * @return a new set holding the union
+	 */
+	public RowBitmap or(RowBitmap other) {
+		RowBitmap result = new RowBitmap(size + other.size);
+		int i = 0;
+		int j = 0;
+
+		while (i < size || j < other.size) {
+			if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+				result.append(keys[i], containers[i].copy());
+				i++;
+			} else if (i == size || keys[i] > other.keys[j]) {
+				result.append(other.keys[j], other.containers[j].copy());
+				j++;
+			} else {
+				result.append(keys[i], containers[i].or(other.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		result.inheritPositions(this, other);
+		return result;
+	}
+
+	/**
+	 * Get the row ids in this set but not in another.
+	 *
+	 * @param other - the other set
+	 * @return a new set holding the difference
+	 */
+	public RowBitmap andNot(RowBitmap other) {
+		RowBitmap result = new RowBitmap(size);
+		int j = 0;
+
+		for (int i = 0; i < size; i++) {
+			while (j < other.size && other.keys[j] < keys[i]) {
+				j++;
+			}
+
+			Container c;
+			if (j < other.size && other.keys[j] == keys[i]) {
+				c = containers[i].andNot(other.containers[j]);
+			} else {
+				c = containers[i].copy();
+			}
+			if (c.cardinality() > 0) {
+				result.append(keys[i], c);
+			}
+		}
+		result.inheritPositions(this, other);
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+
+	/**
+	 * Find the container of a block, looking at the last block first, as
+	 * row ids are mostly added in order.
+	 */
+	private int find(char key) {
+		if (size > 0 && keys[size - 1] <= key) {
+			return keys[size - 1] == key ? size - 1 : -size - 1;
+		}
+		return Arrays.binarySearch(keys, 0, size, key);
+	}
+
+	private void insert(int i, char key, Container container) {
+		grow();
+		System.arraycopy(keys, i, keys, i + 1, size - i);
+		System.arraycopy(containers, i, containers, i + 1, size - i);
+		keys[i] = key;
+		containers[i] = container;
+		size++;
+	}
+
+	private void append(char key, Container container) {
+		grow();
+		keys[size] = key;
+		containers[size] = container;
+		size++;
+	}
+
+	private void grow() {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			containers = Arrays.copyOf(containers, size * 2);
+		}
+	}
+
+	/**
+	 * The low 16 bits of the row ids in one block.  add and remove return
+	 * the container to use from then on, which changes kind as the
+	 * container fills or empties.
+	 */
+	private abstract static class Container {
+		abstract int cardinality();
+
+		abstract boolean contains(char value);
+
+		abstract Container add(char value);
+
+		abstract Container remove(char value);
+
+		abstract Container copy();
+
+		abstract int copyTo(int[] rows, int n, int high);
+
+		abstract Container and(Container other);
+
+		abstract Container or(Container other);
+
+		abstract Container andNot(Container other);
+	}
+
+	/**
+	 * A block holding at most ARRAY_MAX ids, as a sorted array.
+	 */
+	private static class ArrayContainer extends Container {
+		private char[] values;
+		private int cardinality;
+
+		ArrayContainer() {
+			values = new char[4];
+		}
+
+		ArrayContainer(char[] values, int cardinality) {
+			this.values = values;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+		}
+
+		@Override
+		Container add(char value) {
+			int i;
+			if (cardinality == 0 || values[cardinality - 1] < value) {
+				i = -cardinality - 1;
+			} else {
+				i = Arrays.binarySearch(values, 0, cardinality, value);
+			}
+			if (i >= 0) {
+				return this;
+			}
+			if (cardinality == ARRAY_MAX) {
+				return toBitmap().add(value);
+			}
+
+			i = -i - 1;
+			if (cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(ARRAY_MAX, cardinality * 2));
+			}
+			System.arraycopy(values, i, values, i + 1, cardinality - i);
+			values[i] = value;
+			cardinality++;
+			return this;
+		}
+
+		@Override
+		Container remove(char value) {
+			int i = Arrays.binarySearch(values, 0, cardinality, value);
+			if (i >= 0) {
+				System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+				cardinality--;
+			}
+			return this;
+		}
+
+		@Override
+		Container copy() {
+			return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 4)), cardinality);
+		}
+
+		@Override
+		int copyTo(int[] rows, int n, int high) {
+			for (int i = 0; i < cardinality; i++) {
+				rows[n++] = high | values[i];
+			}
+			return n;
+		}
+
+		BitmapContainer toBitmap() {
+			long[] words = new long[WORDS];
+			for (int i = 0; i < cardinality; i++) {
+				words[values[i] >>> 6] |= 1L << values[i];
+			}
+			return new BitmapContainer(words, cardinality);
+		}
+
+		@Override
+		Container and(Container other) {
+			char[] result = new char[Math.min(cardinality, other.cardinality())];
+			int n = 0;
+
+			if (other instanceof ArrayContainer) {
+				ArrayContainer array = (ArrayContainer) other;
+				int i = 0;
+				int j = 0;
+				while (i < cardinality && j < array.cardinality) {
+					if (values[i] < array.values[j]) {
+						i++;
+					} else if (values[i] > array.values[j]) {
+						j++;
+					} else {
+						result[n++] = values[i];
+						i++;
+						j++;
+					}
+				}
+			} else {
+				for (int i = 0; i < cardinality; i++) {
+					if (other.contains(values[i])) {
+						result[n++] = values[i];
+					}
+				}
+			}
+			return new ArrayContainer(result, n);
+		}
+
+		@Override
+		Container or(Container other) {
+			if (other instanceof BitmapContainer) {
+				return other.or(this);
+			}
+
+			ArrayContainer array = (ArrayContainer) other;
+			char[] result = new char[cardinality + array.cardinality];
+			int n = 0;
+			int i = 0;
+			int j = 0;
+			while (i < cardinality || j < array.cardinality) {
+				if (j == array.cardinality || (i < cardinality && values[i] < array.values[j])) {
+					result[n++] = values[i++];
+				} else if (i == cardinality || values[i] > array.values[j]) {
+					result[n++] = array.values[j++];
+				} else {
+					result[n++] = values[i];
+					i++;
+					j++;
+				}
+			}
+
+			ArrayContainer union = new ArrayContainer(result, n);
+			return n > ARRAY_MAX ? union.toBitmap() : union;
+		}
+
+		@Override
+		Container andNot(Container other) {
+			char[] result = new char[Math.max(cardinality, 4)];
+			int n = 0;
+
+			for (int i = 0; i < cardinality; i++) {
+				if (!other.contains(values[i])) {
+					result[n++] = values[i];
+				}
+			}
+			return new ArrayContainer(result, n);
+		}
+	}
+
+	/**
+	 * A block holding more than ARRAY_MAX ids, as a bitmap.
+	 */
+	private static class BitmapContainer extends Container {
+		private long[] words;
+		private int cardinality;
+
+		BitmapContainer(long[] words, int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		boolean contains(char value) {
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		@Override
+		Container add(char value) {
+			long bit = 1L << value;
+			if ((words[value >>> 6] & bit) == 0) {
+				words[value >>> 6] |= bit;
+				cardinality++;
+			}
+			return this;
+		}
+
+		@Override
+		Container remove(char value) {
+			long bit = 1L << value;
+			if ((words[value >>> 6] & bit) != 0) {
+				words[value >>> 6] &= ~bit;
+				cardinality--;
+				if (cardinality <= ARRAY_MAX) {
+					return toArrayContainer(words, cardinality);
+				}
+			}
+			return this;
+		}
+
+		@Override
+		Container copy() {
+			return new BitmapContainer(words.clone(), cardinality);
+		}
+
+		@Override
+		int copyTo(int[] rows, int n, int high) {
+			for (int w = 0; w < WORDS; w++) {
+				long word = words[w];
+				while (word != 0) {
+					rows[n++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+				}
+			}
+			return n;
+		}
+
+		/**
+		 * Keep the result of combining bitmaps as a bitmap only if it still
+		 * holds more than ARRAY_MAX ids.
+		 */
+		private static Container fromWords(long[] words) {
+			int cardinality = 0;
+			for (long word : words) {
+				cardinality += Long.bitCount(word);
+			}
+
+			if (cardinality <= ARRAY_MAX) {
+				return toArrayContainer(words, cardinality);
+			}
+			return new BitmapContainer(words, cardinality);
+		}
+
+		private static ArrayContainer toArrayContainer(long[] words, int cardinality) {
+			char[] values = new char[Math.max(cardinality, 4)];
+			int n = 0;
+			for (int w = 0; w < WORDS; w++) {
+				long word = words[w];
+				while (word != 0) {
+					values[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return new ArrayContainer(values, n);
+		}
+
+		@Override
+		Container and(Container other) {
+			if (other instanceof ArrayContainer) {
+				return other.and(this);
+			}
+
+			long[] otherWords = ((BitmapContainer) other).words;
+			int cardinality = 0;
+			for (int w = 0; w < WORDS; w++) {
+				cardinality += Long.bitCount(words[w] & otherWords[w]);
+			}
+
+			if (cardinality <= ARRAY_MAX) {
+				char[] values = new char[Math.max(cardinality, 4)];
+				int n = 0;
+				for (int w = 0; w < WORDS; w++) {
+					long word = words[w] & otherWords[w];
+					while (word != 0) {
+						values[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+						word &= word - 1;
+					}
+				}
+				return new ArrayContainer(values, n);
+			}
+
+			long[] result = new long[WORDS];
+			for (int w = 0; w < WORDS; w++) {
+				result[w] = words[w] & otherWords[w];
+			}
+			return new BitmapContainer(result, cardinality);
+		}
+
+		@Override
+		Container or(Container other) {
+			long[] result = words.clone();
+
+			if (other instanceof ArrayContainer) {
+				ArrayContainer array = (ArrayContainer) other;
+				for (int i = 0; i < array.cardinality; i++) {
+					result[array.values[i] >>> 6] |= 1L << array.values[i];
+				}
+			} else {
+				long[] otherWords = ((BitmapContainer) other).words;
+				for (int w = 0; w < WORDS; w++) {
+					result[w] |= otherWords[w];
+				}
+			}
+
+			int cardinality = 0;
+			for (long word : result) {
+				cardinality += Long.bitCount(word);
+			}
+			return new BitmapContainer(result, cardinality);
+		}
+
+		@Override
+		Container andNot(Container other) {
+			long[] result = words.clone();
+
+			if (other instanceof ArrayContainer) {
+				ArrayContainer array = (ArrayContainer) other;
+				for (int i = 0; i < array.cardinality; i++) {
+					result[array.values[i] >>> 6] &= ~(1L << array.values[i]);
+				}
+			} else {
+				long[] otherWords = ((BitmapContainer) other).words;
+				for (int w = 0; w < WORDS; w++) {
+					result[w] &= ~otherWords[w];
+				}
+			}
+			return fromWords(result);
+		}
+	}
+}
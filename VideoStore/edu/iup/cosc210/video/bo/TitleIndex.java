@@ -0,0 +1,447 @@
+package edu.iup.cosc210.video.bo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Trigram index over the titles of the videos of a VideoManager, for
+ * search as you type.  Every run of three characters of a lower cased title
+ * has a posting list of the rows whose title holds it.  Titles are padded
+ * with two start marks, so the start of a title is indexed too and prefixes
+ * of one or two characters can be looked up.  A search intersects the
+ * posting lists of the trigrams of the query, smallest first, and checks the
+ * few candidates left against their title.
+ *
+ * <p>
+ * The index is built on the first search, so loading videos does not pay
+ * for it, and is kept up to date after that.  Not thread safe; the
+ * VideoManager calls it while holding its lock.
+ *
+ * @author dtsmith
+ *
+ */
+class TitleIndex implements CatalogListener {
+	private static final char START = '\u0001';
+
+	private List<Video> rows;
+	private boolean built;
+	private Postings postings = new Postings();
+	private int[] lengths = new int[0];
+
+	/**
+	 * Constructor
+	 *
+	 * @param rows - the videos of the VideoManager by row id, null for
+	 * removed rows
+	 */
+	TitleIndex(List<Video> rows) {
+		this.rows = rows;
+	}
+
+	/**
+	 * Forget all videos.  The index is built again on the next search.
+	 *
+	 * @param rows - the videos of the VideoManager by row id
+	 */
+	void clear(List<Video> rows) {
+		this.rows = rows;
+		built = false;
+		postings = new Postings();
+		lengths = new int[0];
+	}
+
+	@Override
+	public void videoAdded(int index, Video video) {
+		if (built) {
+			add(video.getTitle(), video.rowId);
+		}
+	}
+
+	@Override
+	public void videoRemoved(int index, Video video) {
+		if (built) {
+			remove(video.getTitle(), video.rowId);
+		}
+	}
+
+	@Override
+	public void videoChanged(Video video, VideoField field, Object oldValue) {
+		if (built && field == VideoField.TITLE) {
+			remove((String) oldValue, video.rowId);
+			add(video.getTitle(), video.rowId);
+		}
+	}
+
+	private void build() {
+		for (int row = 0; row < rows.size(); row++) {
+			Video video = rows.get(row);
+			if (video != null) {
+				add(video.getTitle(), row);
+			}
+		}
+		built = true;
+	}
+
+	private void add(String title, int row) {
+		if (row >= lengths.length) {
+			lengths = Arrays.copyOf(lengths, Math.max(row + 1, lengths.length * 2));
+		}
+		lengths[row] = title == null ? 0 : title.length();
+
+		for (long trigram : trigrams(pad(title))) {
+			postings.rows(trigram, true).add(row);
+		}
+	}
+
+	private void remove(String title, int row) {
+		for (long trigram : trigrams(pad(title))) {
+			RowBitmap rowSet = postings.rows(trigram, false);
+			if (rowSet != null) {
+				rowSet.remove(row);
+			}
+		}
+	}
+
+	/**
+	 * Fold the case of a text one character at a time, as regionMatches
+	 * ignoring case compares characters, so the text keeps its length and the
+	 * trigrams found agree with rank.  VideoQuery folds titles the same way.
+	 *
+	 * @param text - the text, may be null
+	 * @return the folded text, empty for null
+	 */
+	static String normalize(String text) {
+		if (text == null) {
+			return "";
+		}
+		char[] chars = text.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+		}
+		return new String(chars);
+	}
+
+	private static String pad(String title) {
+		return "" + START + START + normalize(title);
+	}
+
+	/**
+	 * Get the distinct trigrams of a text, each packed into a long.
+	 */
+	private static long[] trigrams(String text) {
+		int n = Math.max(0, text.length() - 2);
+		long[] trigrams = new long[n];
+
+		for (int i = 0; i < n; i++) {
+			trigrams[i] = (long) text.charAt(i) << 32 | (long) text.charAt(i + 1) << 16
+					| text.charAt(i + 2);
+		}
+
+		Arrays.sort(trigrams);
+		int distinct = 0;
+		for (int i = 0; i < n; i++) {
+			if (distinct == 0 || trigrams[i] != trigrams[distinct - 1]) {
+				trigrams[distinct++] = trigrams[i];
+			}
+		}
+		return Arrays.copyOf(trigrams, distinct);
+	}
+
+	/**
+	 * Find the videos whose title holds a text, ignoring case.  Titles equal
+	 * to the text come first, then titles starting with it, then titles with
+	 * a word starting with it, then the rest; shorter titles first within
+	 * each group.  Texts of one or two characters only match the start of a
+	 * title.
+	 *
+	 * @param text - the text searched for
+	 * @param limit - the most videos returned
+	 * @return the matching videos, best first
+	 */
+	List<Video> search(String text, int limit) {
+		String query = normalize(text);
+		if (query.isEmpty() || limit <= 0) {
+			return Collections.emptyList();
+		}
+		if (!built) {
+			build();
+		}
+
+		String pattern = query.length() < 3 ? pad(query) : query;
+		RowBitmap candidates = candidates(pattern);
+		if (candidates == null) {
+			return Collections.emptyList();
+		}
+
+		TopMatches top = new TopMatches(query, limit);
+		for (int row : candidates.toArray()) {
+			if (top.wants(lengths[row])) {
+				top.offer(rows.get(row));
+			}
+		}
+		return top.toList();
+	}
+
+	/**
+	 * Check whether the index was built by a search.
+	 *
+	 * @return true if the index is built
+	 */
+	boolean isBuilt() {
+		return built;
+	}
+
+	/**
+	 * Get the rows of the titles holding every trigram of a text of at least
+	 * three characters, ignoring case: all rows whose title holds the text,
+	 * and perhaps a few more.  The index must be built.
+	 *
+	 * @param text - the text
+	 * @return the rows, or null if there are none; not to be changed
+	 */
+	RowBitmap titleRows(String text) {
+		return candidates(normalize(text));
+	}
+
+	/**
+	 * Get the rows of the titles holding every trigram of a pattern, the
+	 * posting lists being intersected smallest first.
+	 */
+	private RowBitmap candidates(String pattern) {
+		long[] trigrams = trigrams(pattern);
+		RowBitmap[] lists = new RowBitmap[trigrams.length];
+
+		for (int i = 0; i < trigrams.length; i++) {
+			lists[i] = postings.rows(trigrams[i], false);
+			if (lists[i] == null || lists[i].isEmpty()) {
+				return null;
+			}
+		}
+
+		Arrays.sort(lists, new Comparator<RowBitmap>() {
+			@Override
+			public int compare(RowBitmap a, RowBitmap b) {
+				return Integer.compare(a.getCardinality(), b.getCardinality());
+			}
+		});
+
+		RowBitmap candidates = lists[0];
+		for (int i = 1; i < lists.length && !candidates.isEmpty(); i++) {
+			candidates = candidates.and(lists[i]);
+		}
+		return candidates;
+	}
+
+	/**
+	 * Find the videos whose title holds a text by looking at every video,
+	 * for videos that are not indexed.  Matches are ranked as by search.
+	 *
+	 * @param videos - the videos searched
+	 * @param text - the text searched for
+	 * @param limit - the most videos returned
+	 * @return the matching videos, best first
+	 */
+	static List<Video> scan(List<Video> videos, String text, int limit) {
+		String query = normalize(text);
+		if (query.isEmpty() || limit <= 0) {
+			return Collections.emptyList();
+		}
+
+		TopMatches top = new TopMatches(query, limit);
+		for (Video video : videos) {
+			if (video.getTitle() != null && top.wants(video.getTitle().length())) {
+				top.offer(video);
+			}
+		}
+		return top.toList();
+	}
+
+	/**
+	 * Rank how well a title matches a query.
+	 *
+	 * @return 0 for an equal title, 1 for a title starting with the query,
+	 * 2 for a word starting with the query, 3 for any other occurrence, or
+	 * -1 if the title does not hold the query
+	 */
+	private static int rank(String title, String query) {
+		if (title == null) {
+			return -1;
+		}
+		int length = query.length();
+		int best = -1;
+
+		for (int i = 0; i + length <= title.length(); i++) {
+			if (title.regionMatches(true, i, query, 0, length)) {
+				if (i == 0) {
+					return title.length() == length ? 0 : 1;
+				}
+				if (!Character.isLetterOrDigit(title.charAt(i - 1))) {
+					best = 2;
+				} else if (best < 0) {
+					best = 3;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * The posting lists by trigram, in an open addressing hash table of the
+	 * packed trigrams so looking up the trigrams of a million titles boxes
+	 * no keys.  A posting list emptied by removals is kept for the trigram.
+	 */
+	private static class Postings {
+		private static final long FREE = -1;
+
+		private long[] trigrams = newTable(1024);
+		private RowBitmap[] lists = new RowBitmap[1024];
+		private int size;
+
+		private static long[] newTable(int capacity) {
+			long[] table = new long[capacity];
+			Arrays.fill(table, FREE);
+			return table;
+		}
+
+		/**
+		 * Get the rows of the titles holding a trigram.
+		 *
+		 * @param trigram - the packed trigram
+		 * @param create - true to add an empty list for a trigram not met
+		 * @return the rows, or null if the trigram was not met and create is
+		 * false
+		 */
+		RowBitmap rows(long trigram, boolean create) {
+			int mask = trigrams.length - 1;
+			int i = (int) (trigram * 0x9E3779B97F4A7C15L >>> 32) & mask;
+
+			while (trigrams[i] != FREE) {
+				if (trigrams[i] == trigram) {
+					return lists[i];
+				}
+				i = (i + 1) & mask;
+			}
+			if (!create) {
+				return null;
+			}
+
+			if (size * 2 >= trigrams.length) {
+				grow();
+				return rows(trigram, true);
+			}
+			trigrams[i] = trigram;
+			lists[i] = new RowBitmap();
+			size++;
+			return lists[i];
+		}
+
+		private void grow() {
+			long[] oldTrigrams = trigrams;
+			RowBitmap[] oldLists = lists;
+			trigrams = newTable(oldTrigrams.length * 2);
+			lists = new RowBitmap[oldTrigrams.length * 2];
+			int mask = trigrams.length - 1;
+
+			for (int j = 0; j < oldTrigrams.length; j++) {
+				if (oldTrigrams[j] != FREE) {
+					int i = (int) (oldTrigrams[j] * 0x9E3779B97F4A7C15L >>> 32) & mask;
+					while (trigrams[i] != FREE) {
+						i = (i + 1) & mask;
+					}
+					trigrams[i] = oldTrigrams[j];
+					lists[i] = oldLists[j];
+				}
+			}
+		}
+	}
+
+	/**
+	 * The best matches of a query met so far, in a heap holding the worst
+	 * kept match on top.
+	 */
+	private static class TopMatches {
+		private String query;
+		private int limit;
+		private PriorityQueue<Match> kept;
+
+		TopMatches(String query, int limit) {
+			this.query = query;
+			this.limit = limit;
+			kept = new PriorityQueue<Match>(Math.min(limit, 1024),
+					Collections.<Match>reverseOrder());
+		}
+
+		/**
+		 * Tell whether a title of a length could be kept, judging by its
+		 * length alone: only a title as long as the query can rank 0.
+		 */
+		boolean wants(int titleLength) {
+			if (kept.size() < limit) {
+				return true;
+			}
+			Match worst = kept.peek();
+			int bestRank = titleLength == query.length() ? 0 : 1;
+			return bestRank < worst.rank || (bestRank == worst.rank
+					&& titleLength <= worst.video.getTitle().length());
+		}
+
+		void offer(Video video) {
+			int rank = rank(video.getTitle(), query);
+			if (rank < 0 || (query.length() < 3 && rank > 1)) {
+				return;
+			}
+			Match match = new Match(video, rank);
+			if (kept.size() < limit) {
+				kept.add(match);
+			} else if (match.compareTo(kept.peek()) < 0) {
+				kept.poll();
+				kept.add(match);
+			}
+		}
+
+		List<Video> toList() {
+			Match[] matches = kept.toArray(new Match[kept.size()]);
+			Arrays.sort(matches);
+
+			List<Video> result = new ArrayList<Video>(matches.length);
+			for (Match match : matches) {
+				result.add(match.video);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * A matching video and its rank.
+	 */
+	private static class Match implements Comparable<Match> {
+		private Video video;
+		private int rank;
+
+		Match(Video video, int rank) {
+			this.video = video;
+			this.rank = rank;
+		}
+
+		@Override
+		public int compareTo(Match other) {
+			if (rank != other.rank) {
+				return Integer.compare(rank, other.rank);
+			}
+			int length = video.getTitle().length();
+			int otherLength = other.video.getTitle().length();
+			if (length != otherLength) {
+				return Integer.compare(length, otherLength);
+			}
+			int order = video.getTitle().compareToIgnoreCase(other.video.getTitle());
+			if (order != 0) {
+				return order;
+			}
+			return Integer.compare(video.rowId, other.video.rowId);
+		}
+	}
+}
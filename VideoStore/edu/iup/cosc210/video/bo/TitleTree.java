@@ -0,0 +1,439 @@
+package edu.iup.cosc210.video.bo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * BK-tree over the titles of the videos of a VideoManager, for finding
+ * titles within a few typos of a text.  Each node holds a lower cased title
+ * and the videos with it; a child hangs off its parent by the edit distance
+ * between their titles.  By the triangle inequality, a title within k edits
+ * of the query can only be under the children at distance d - k to d + k of
+ * a node d edits from the query, so a search looks at a small part of the
+ * tree.  Edit distances are computed a machine word at a time for titles up
+ * to 64 characters.
+ *
+ * <p>
+ * A node whose videos were all removed is kept to route searches, and the
+ * tree is built again once such nodes are half of it.  The tree is built on
+ * the first search and kept up to date after that.  Not thread safe; the
+ * VideoManager calls it while holding its lock.
+ *
+ * @author dtsmith
+ *
+ */
+class TitleTree implements CatalogListener {
+	private static final int MIN_REBUILD_NODES = 1024;
+
+	private List<Video> rows;
+	private boolean built;
+	private Node root;
+	private int noNodes;
+	private int noEmptyNodes;
+	private long[] peq = new long[Character.MAX_VALUE + 1];
+
+	/**
+	 * Constructor
+	 *
+	 * @param rows - the videos of the VideoManager by row id, null for
+	 * removed rows
+	 */
+	TitleTree(List<Video> rows) {
+		this.rows = rows;
+	}
+
+	/**
+	 * Forget all videos.  The tree is built again on the next search.
+	 *
+	 * @param rows - the videos of the VideoManager by row id
+	 */
+	void clear(List<Video> rows) {
+		this.rows = rows;
+		built = false;
+		root = null;
+		noNodes = 0;
+		noEmptyNodes = 0;
+	}
+
+	@Override
+	public void videoAdded(int index, Video video) {
+		if (built) {
+			add(video.getTitle(), video);
+		}
+	}
+
+	@Override
+	public void videoRemoved(int index, Video video) {
+		if (built) {
+			remove(video.getTitle(), video);
+		}
+	}
+
+	@Override
+	public void videoChanged(Video video, VideoField field, Object oldValue) {
+		if (built && field == VideoField.TITLE) {
+			remove((String) oldValue, video);
+			add(video.getTitle(), video);
+		}
+	}
+
+	private void build() {
+		root = null;
+		noNodes = 0;
+		noEmptyNodes = 0;
+		for (Video video : rows) {
+			if (video != null) {
+				add(video.getTitle(), video);
+			}
+		}
+		built = true;
+	}
+
+	private void add(String title, Video video) {
+		String key = normalize(title);
+		if (root == null) {
+			root = new Node(key);
+			noNodes++;
+			root.add(video);
+			return;
+		}
+
+		Pattern pattern = new Pattern(key, peq);
+		Node node = root;
+		while (true) {
+			int distance = pattern.distance(node.key);
+			if (distance == 0) {
+				if (node.count == 0) {
+					noEmptyNodes--;
+				}
+				node.add(video);
+				break;
+			}
+
+			Node child = node.child(distance);
+			if (child == null) {
+				child = new Node(key);
+				child.add(video);
+				node.setChild(distance, child);
+				noNodes++;
+				break;
+			}
+			node = child;
+		}
+		pattern.release();
+	}
+
+	private void remove(String title, Video video) {
+		String key = normalize(title);
+		Pattern pattern = new Pattern(key, peq);
+		Node node = root;
+
+		while (node != null) {
+			int distance = pattern.distance(node.key);
+			if (distance == 0) {
+				if (node.remove(video) && node.count == 0) {
+					noEmptyNodes++;
+				}
+				break;
+			}
+			node = node.child(distance);
+		}
+		pattern.release();
+
+		if (noNodes >= MIN_REBUILD_NODES && noEmptyNodes * 2 > noNodes) {
+			built = false;
+			root = null;
+		}
+	}
+
+	private static String normalize(String text) {
+		return text == null ? "" : text.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Find the videos whose title is within some edits of a text, ignoring
+	 * case.  The closest titles come first, then in alphabetical order.
+	 *
+	 * @param text - the text searched for
+	 * @param maxDistance - the most characters inserted, deleted or
+	 * replaced to turn the text into a title
+	 * @param limit - the most videos returned
+	 * @return the matching videos, closest first
+	 */
+	List<Video> search(String text, int maxDistance, int limit) {
+		if (limit <= 0 || maxDistance < 0) {
+			return Collections.emptyList();
+		}
+		if (!built) {
+			build();
+		}
+
+		NearestMatches nearest = new NearestMatches(maxDistance, limit);
+		Pattern pattern = new Pattern(normalize(text), peq);
+		Deque<Node> pending = new ArrayDeque<Node>();
+		if (root != null) {
+			pending.push(root);
+		}
+
+		while (!pending.isEmpty()) {
+			Node node = pending.pop();
+			int distance = pattern.distance(node.key);
+			for (int i = 0; i < node.count; i++) {
+				nearest.offer(node.videos[i], distance);
+			}
+
+			int radius = nearest.radius();
+			int from = Math.max(1, distance - radius);
+			int to = Math.min(node.children.length, distance + radius);
+			for (int d = from; d <= to; d++) {
+				if (node.children[d - 1] != null) {
+					pending.push(node.children[d - 1]);
+				}
+			}
+		}
+		pattern.release();
+		return nearest.toList();
+	}
+
+	/**
+	 * Find the videos whose title is within some edits of a text by looking
+	 * at every video, for videos that are not indexed.  Matches are ranked
+	 * as by search.
+	 *
+	 * @param videos - the videos searched
+	 * @param text - the text searched for
+	 * @param maxDistance - the most edits allowed
+	 * @param limit - the most videos returned
+	 * @return the matching videos, closest first
+	 */
+	static List<Video> scan(List<Video> videos, String text, int maxDistance, int limit) {
+		if (limit <= 0 || maxDistance < 0) {
+			return Collections.emptyList();
+		}
+
+		NearestMatches nearest = new NearestMatches(maxDistance, limit);
+		Pattern pattern = new Pattern(normalize(text), new long[Character.MAX_VALUE + 1]);
+		for (Video video : videos) {
+			String key = normalize(video.getTitle());
+			if (Math.abs(key.length() - pattern.length) <= nearest.radius()) {
+				nearest.offer(video, pattern.distance(key));
+			}
+		}
+		return nearest.toList();
+	}
+
+	/**
+	 * A node of the tree: a title, the videos with it, and the children by
+	 * their distance from the title.
+	 */
+	private static class Node {
+		private static final Node[] NO_CHILDREN = new Node[0];
+
+		private String key;
+		private Video[] videos = new Video[1];
+		private int count;
+		private Node[] children = NO_CHILDREN;
+
+		Node(String key) {
+			this.key = key;
+		}
+
+		void add(Video video) {
+			if (count == videos.length) {
+				videos = Arrays.copyOf(videos, count * 2);
+			}
+			videos[count++] = video;
+		}
+
+		boolean remove(Video video) {
+			for (int i = 0; i < count; i++) {
+				if (videos[i] == video) {
+					videos[i] = videos[--count];
+					videos[count] = null;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		Node child(int distance) {
+			return distance <= children.length ? children[distance - 1] : null;
+		}
+
+		void setChild(int distance, Node child) {
+			if (distance > children.length) {
+				children = Arrays.copyOf(children, distance);
+			}
+			children[distance - 1] = child;
+		}
+	}
+
+	/**
+	 * A text to compute edit distances from.  Texts of up to 64 characters
+	 * use the bit-parallel algorithm of Myers, with the positions of each
+	 * character of the text kept in a table shared by all patterns of a
+	 * tree, so only one pattern can be in use at a time; release clears the
+	 * table.  Longer texts use the classic dynamic program.
+	 */
+	private static class Pattern {
+		private String text;
+		private int length;
+		private long[] peq;
+
+		Pattern(String text, long[] peq) {
+			this.text = text;
+			this.length = text.length();
+			this.peq = peq;
+			if (length <= 64) {
+				for (int i = 0; i < length; i++) {
+					peq[text.charAt(i)] |= 1L << i;
+				}
+			}
+		}
+
+		void release() {
+			if (length <= 64) {
+				for (int i = 0; i < length; i++) {
+					peq[text.charAt(i)] = 0;
+				}
+			}
+		}
+
+		/**
+		 * Get the number of characters to insert, delete or replace to turn
+		 * the pattern into another text.
+		 */
+		int distance(String other) {
+			if (length == 0) {
+				return other.length();
+			}
+			if (length > 64) {
+				return dynamicDistance(other);
+			}
+
+			long pv = -1;
+			long mv = 0;
+			long last = 1L << (length - 1);
+			int score = length;
+
+			for (int j = 0; j < other.length(); j++) {
+				long eq = peq[other.charAt(j)];
+				long xv = eq | mv;
+				long xh = (((eq & pv) + pv) ^ pv) | eq;
+				long ph = mv | ~(xh | pv);
+				long mh = pv & xh;
+
+				if ((ph & last) != 0) {
+					score++;
+				} else if ((mh & last) != 0) {
+					score--;
+				}
+
+				ph = (ph << 1) | 1;
+				mh = mh << 1;
+				pv = mh | ~(xv | ph);
+				mv = ph & xv;
+			}
+			return score;
+		}
+
+		private int dynamicDistance(String other) {
+			int[] previous = new int[length + 1];
+			int[] current = new int[length + 1];
+			for (int i = 0; i <= length; i++) {
+				previous[i] = i;
+			}
+
+			for (int j = 1; j <= other.length(); j++) {
+				current[0] = j;
+				char c = other.charAt(j - 1);
+				for (int i = 1; i <= length; i++) {
+					int cost = text.charAt(i - 1) == c ? 0 : 1;
+					current[i] = Math.min(Math.min(current[i - 1], previous[i]) + 1,
+							previous[i - 1] + cost);
+				}
+				int[] swap = previous;
+				previous = current;
+				current = swap;
+			}
+			return previous[length];
+		}
+	}
+
+	/**
+	 * The closest matches met so far, in a heap holding the furthest kept
+	 * match on top.  Once the heap is full the search radius shrinks to the
+	 * distance of the furthest kept match.
+	 */
+	private static class NearestMatches {
+		private int maxDistance;
+		private int limit;
+		private PriorityQueue<Match> kept;
+
+		NearestMatches(int maxDistance, int limit) {
+			this.maxDistance = maxDistance;
+			this.limit = limit;
+			kept = new PriorityQueue<Match>(Math.min(limit, 1024),
+					Collections.<Match>reverseOrder());
+		}
+
+		int radius() {
+			return kept.size() < limit ? maxDistance : kept.peek().distance;
+		}
+
+		void offer(Video video, int distance) {
+			if (distance > radius()) {
+				return;
+			}
+			Match match = new Match(video, distance);
+			if (kept.size() < limit) {
+				kept.add(match);
+			} else if (match.compareTo(kept.peek()) < 0) {
+				kept.poll();
+				kept.add(match);
+			}
+		}
+
+		List<Video> toList() {
+			Match[] matches = kept.toArray(new Match[kept.size()]);
+			Arrays.sort(matches);
+
+			List<Video> result = new ArrayList<Video>(matches.length);
+			for (Match match : matches) {
+				result.add(match.video);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * A matching video and its distance from the text searched for.
+	 */
+	private static class Match implements Comparable<Match> {
+		private Video video;
+		private int distance;
+
+		Match(Video video, int distance) {
+			this.video = video;
+			this.distance = distance;
+		}
+
+		@Override
+		public int compareTo(Match other) {
+			if (distance != other.distance) {
+				return Integer.compare(distance, other.distance);
+			}
+			int order = normalize(video.getTitle()).compareTo(normalize(other.video.getTitle()));
+			if (order != 0) {
+				return order;
+			}
+			return Integer.compare(video.rowId, other.video.rowId);
+		}
+	}
+}
@@ -14,16 +14,10 @@ public class Video {
 	private int year;
 	private String rating;
 	private boolean newRelease;
-	private static int nextNum = 100;
+	VideoManager manager;
+	int position;
+	int rowId;
 
-	/**
-	 * Initialize the next available video id number
-	 * @param no - the number to be used as the next available video id
-	 */
-	private static void intializeNextNum(int no) {
-		nextNum = no;
-	}
-	
 	/**
 	 * Create a new Video
 	 * 
@@ -45,11 +39,13 @@ public class Video {
 	}
 
 	/**
-	 * Default constructor used to provide default values for a new
-	 * video.
+	 * Constructor used to provide default values for a new video, see
+	 * VideoManager.newVideo.
+	 * 
+	 * @param vid - video id
 	 */
-	public Video() {
-		vid = "V" + nextNum++;
+	public Video(String vid) {
+		this.vid = vid;
 		title = "";
 		rentalRate = 1.99;
 		year = new Date().getYear() + 1900;
@@ -81,7 +77,11 @@ public class Video {
 	 * @param rentalRate - the new daily rental rate
 	 */
 	public void setRentalRate(double rentalRate) {
+		double oldRate = this.rentalRate;
 		this.rentalRate = rentalRate;
+		if (Double.compare(oldRate, rentalRate) != 0) {
+			changed(VideoField.RENTAL_RATE, oldRate);
+		}
 	}
 
 	/**
@@ -98,7 +98,11 @@ public class Video {
 	 * @param title - update title
 	 */
 	public void setTitle(String title) {
+		String oldTitle = this.title;
 		this.title = title;
+		if (!equal(oldTitle, title)) {
+			changed(VideoField.TITLE, oldTitle);
+		}
 	}
 
 	/**
@@ -116,7 +120,11 @@ public class Video {
 	 * @param year the updated year the video was released
 	 */
 	public void setYear(int year) {
+		int oldYear = this.year;
 		this.year = year;
+		if (oldYear != year) {
+			changed(VideoField.YEAR, oldYear);
+		}
 	}
 
 	/**
@@ -134,7 +142,11 @@ public class Video {
 	 * @param newRelease the updated new release indicator
 	 */
 	public void setNewRelease(boolean newRelease) {
+		boolean oldNewRelease = this.newRelease;
 		this.newRelease = newRelease;
+		if (oldNewRelease != newRelease) {
+			changed(VideoField.NEW_RELEASE, oldNewRelease);
+		}
 	}
 
 	/**
@@ -152,6 +164,43 @@ public class Video {
 	 * @param rating the updated movie industry rating
 	 */
 	public void setRating(String rating) {
+		String oldRating = this.rating;
 		this.rating = rating;
+		if (!equal(oldRating, rating)) {
+			changed(VideoField.RATING, oldRating);
+		}
+	}
+
+	/**
+	 * Set a field without telling the VideoManager holding this video, which
+	 * is told by the caller instead, for many videos at once.
+	 * 
+	 * @param field - the field to be set
+	 * @param value - the new value
+	 */
+	void setQuietly(VideoField field, Object value) {
+		switch (field) {
+		case TITLE: title = (String) value; break;
+		case RENTAL_RATE: rentalRate = (Double) value; break;
+		case YEAR: year = (Integer) value; break;
+		case RATING: rating = (String) value; break;
+		case NEW_RELEASE: newRelease = (Boolean) value; break;
+		}
+	}
+
+	/**
+	 * Tell the VideoManager holding this video, if any, that a field changed.
+	 * 
+	 * @param field - the changed field
+	 * @param oldValue - the value of the field before the change
+	 */
+	private void changed(VideoField field, Object oldValue) {
+		if (manager != null) {
+			manager.videoChanged(this, field, oldValue);
+		}
+	}
+
+	private static boolean equal(String a, String b) {
+		return a == null ? b == null : a.equals(b);
 	}
 }
@@ -0,0 +1,323 @@
+package edu.iup.cosc210.video.bo;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A figure over the videos of a VideoManager kept up to date as the videos
+ * change: the count of videos, or the sum, average, lowest or highest value
+ * of a numeric field, for each group of videos with the same rating, year
+ * or new release flag, or for all videos at once.  For example the count of
+ * videos by rating, or the average rental rate by year:
+ *
+ * <pre>
+ * VideoAggregate rates = vm.addAggregate(VideoAggregate.Function.AVERAGE,
+ *         VideoField.RENTAL_RATE, VideoField.YEAR);
+ * Double rate1999 = rates.getValue(1999);
+ * </pre>
+ *
+ * <p>
+ * The VideoManager tells the aggregate of each video added or removed and
+ * of each field changed, and the aggregate updates the group of the video
+ * alone, so reading a figure costs a lookup whatever the number of videos.
+ * Counts, sums and averages take constant time per change; the lowest and
+ * highest values keep how many videos of the group have each value, so a
+ * change costs the log of the number of distinct values.  The aggregate is
+ * thread safe: figures can be read from any thread while the videos change.
+ *
+ * @author dtsmith
+ *
+ */
+public class VideoAggregate implements CatalogListener {
+	/**
+	 * How the values of a group of videos are combined.
+	 */
+	public enum Function {
+		COUNT,
+		SUM,
+		AVERAGE,
+		MIN,
+		MAX
+	}
+
+	private Function function;
+	private VideoField valueField;
+	private VideoField groupField;
+	private Map<Object, Group> groups = new HashMap<Object, Group>();
+
+	/**
+	 * Constructor, called by VideoManager.addAggregate.
+	 *
+	 * @param function - how the values are combined
+	 * @param valueField - the numeric field combined, RENTAL_RATE or YEAR;
+	 * ignored for COUNT
+	 * @param groupField - the field the videos are grouped by, RATING, YEAR
+	 * or NEW_RELEASE, or null for all videos in one group
+	 */
+	VideoAggregate(Function function, VideoField valueField, VideoField groupField) {
+		if (function == Function.COUNT) {
+			valueField = null;
+		} else if (valueField != VideoField.RENTAL_RATE && valueField != VideoField.YEAR) {
+			throw new IllegalArgumentException("Can not aggregate " + valueField);
+		}
+		if (groupField == VideoField.TITLE || groupField == VideoField.RENTAL_RATE) {
+			throw new IllegalArgumentException("Can not group by " + groupField);
+		}
+
+		this.function = function;
+		this.valueField = valueField;
+		this.groupField = groupField;
+	}
+
+	/**
+	 * Get how the values are combined.
+	 *
+	 * @return the function
+	 */
+	public Function getFunction() {
+		return function;
+	}
+
+	/**
+	 * Get the field combined.
+	 *
+	 * @return the field, or null for COUNT
+	 */
+	public VideoField getValueField() {
+		return valueField;
+	}
+
+	/**
+	 * Get the field the videos are grouped by.
+	 *
+	 * @return the field, or null if all videos are one group
+	 */
+	public VideoField getGroupField() {
+		return groupField;
+	}
+
+	/**
+	 * Get the figure of a group.
+	 *
+	 * @param group - the value of the group field shared by the group, boxed
+	 * for years and flags; null when all videos are one group
+	 * @return the figure, or null if no video is in the group
+	 */
+	public synchronized Double getValue(Object group) {
+		Group values = groups.get(group);
+		return values == null ? null : values.value();
+	}
+
+	/**
+	 * Get the number of videos of a group.
+	 *
+	 * @param group - the value of the group field shared by the group
+	 * @return the number of videos
+	 */
+	public synchronized int getCount(Object group) {
+		Group values = groups.get(group);
+		return values == null ? 0 : values.count;
+	}
+
+	/**
+	 * Get the figures of all groups.
+	 *
+	 * @return the figures by group, ordered by group; a copy
+	 */
+	public synchronized Map<Object, Double> getValues() {
+		Map<Object, Double> values = new TreeMap<Object, Double>(GROUP_ORDER);
+		for (Map.Entry<Object, Group> entry : groups.entrySet()) {
+			values.put(entry.getKey(), entry.getValue().value());
+		}
+		return values;
+	}
+
+	/**
+	 * Get the figure of all videos, combined from the figures of the groups.
+	 *
+	 * @return the figure, or null if there are no videos
+	 */
+	public synchronized Double getTotal() {
+		if (groups.isEmpty()) {
+			return null;
+		}
+
+		Group total = new Group(false);
+		for (Group group : groups.values()) {
+			total.count += group.count;
+			total.sum += group.sum;
+			if (group.values != null) {
+				total.min = Math.min(total.min, group.values.firstKey());
+				total.max = Math.max(total.max, group.values.lastKey());
+			}
+		}
+		return total.value();
+	}
+
+	/**
+	 * Forget all videos and add the videos of a list.
+	 *
+	 * @param videos - the videos, or null to leave the aggregate empty
+	 */
+	synchronized void reset(Iterable<Video> videos) {
+		groups.clear();
+		if (videos != null) {
+			for (Video video : videos) {
+				add(video);
+			}
+		}
+	}
+
+	private void add(Video video) {
+		add(group(video), value(video));
+	}
+
+	private void add(Object key, double value) {
+		Group group = groups.get(key);
+		if (group == null) {
+			group = new Group(function == Function.MIN || function == Function.MAX);
+			groups.put(key, group);
+		}
+		group.add(value);
+	}
+
+	private void remove(Object key, double value) {
+		Group group = groups.get(key);
+		if (group != null && group.remove(value)) {
+			groups.remove(key);
+		}
+	}
+
+	private Object group(Video video) {
+		return groupField == null ? null : groupField.get(video);
+	}
+
+	private double value(Video video) {
+		return valueField == null ? 0 : ((Number) valueField.get(video)).doubleValue();
+	}
+
+	@Override
+	public synchronized void videoAdded(int index, Video video) {
+		add(video);
+	}
+
+	@Override
+	public synchronized void videoRemoved(int index, Video video) {
+		remove(group(video), value(video));
+	}
+
+	@Override
+	public synchronized void videoChanged(Video video, VideoField field, Object oldValue) {
+		change(video, field, oldValue);
+	}
+
+	/**
+	 * Tell the aggregate that a field of many videos changed, taking the
+	 * lock once.
+	 *
+	 * @param videos - the changed videos
+	 * @param field - the changed field
+	 * @param oldValues - the value of the field of each video before the
+	 * change
+	 */
+	synchronized void videosChanged(List<Video> videos, VideoField field,
+			List<Object> oldValues) {
+		if (field != groupField && field != valueField) {
+			return;
+		}
+		for (int i = 0; i < videos.size(); i++) {
+			change(videos.get(i), field, oldValues.get(i));
+		}
+	}
+
+	private void change(Video video, VideoField field, Object oldValue) {
+		if (field != groupField && field != valueField) {
+			return;
+		}
+
+		Object oldGroup = field == groupField ? oldValue : group(video);
+		double oldNumber = field == valueField ? ((Number) oldValue).doubleValue() : value(video);
+		remove(oldGroup, oldNumber);
+		add(video);
+	}
+
+	@Override
+	public String toString() {
+		return function + (valueField == null ? "" : " of " + valueField)
+				+ (groupField == null ? "" : " by " + groupField) + " " + getValues();
+	}
+
+	/**
+	 * Orders the groups, the group of videos without a rating first.
+	 */
+	private static final Comparator<Object> GROUP_ORDER = new Comparator<Object>() {
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		@Override
+		public int compare(Object a, Object b) {
+			if (a == null || b == null) {
+				return a == null ? (b == null ? 0 : -1) : 1;
+			}
+			return ((Comparable) a).compareTo(b);
+		}
+	};
+
+	/**
+	 * The count and sum of the values of a group, and for MIN and MAX how
+	 * many videos have each value.
+	 */
+	private class Group {
+		private int count;
+		private double sum;
+		private double min = Double.POSITIVE_INFINITY;
+		private double max = Double.NEGATIVE_INFINITY;
+		private TreeMap<Double, Integer> values;
+
+		Group(boolean keepValues) {
+			if (keepValues) {
+				values = new TreeMap<Double, Integer>();
+			}
+		}
+
+		void add(double value) {
+			count++;
+			sum += value;
+			if (values != null) {
+				Integer n = values.get(value);
+				values.put(value, n == null ? 1 : n + 1);
+			}
+		}
+
+		/**
+		 * Remove a value.
+		 *
+		 * @return true if the group is left empty
+		 */
+		boolean remove(double value) {
+			count--;
+			sum -= value;
+			if (values != null) {
+				Integer n = values.get(value);
+				if (n != null && n > 1) {
+					values.put(value, n - 1);
+				} else {
+					values.remove(value);
+				}
+			}
+			return count <= 0;
+		}
+
+		Double value() {
+			switch (function) {
+			case COUNT: return (double) count;
+			case SUM: return sum;
+			case AVERAGE: return sum / count;
+			case MIN: return values == null ? min : values.firstKey();
+			case MAX: return values == null ? max : values.lastKey();
+			}
+			return null;
+		}
+	}
+}
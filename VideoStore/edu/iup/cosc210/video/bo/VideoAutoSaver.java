@@ -0,0 +1,213 @@
+package edu.iup.cosc210.video.bo;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Write-behind persistence for a VideoManager.  Changes only mark the
+ * catalog dirty; the save is done on a background thread once no change
+ * has been made for a delay, so a burst of edits is saved once.  A save is
+ * never put off for longer than a maximum lag after the first unsaved
+ * change, even while changes keep coming.  A failed save is retried after
+ * the delay.
+ *
+ * @author dtsmith
+ *
+ */
+public class VideoAutoSaver implements CatalogListener {
+	private VideoManager vm;
+	private long delay;
+	private long maxLag;
+	private ScheduledExecutorService executor;
+
+	private boolean dirty;
+	private long firstChange;
+	private long lastChange;
+	private ScheduledFuture<?> pending;
+	private IOException lastError;
+
+	/**
+	 * Constructor
+	 *
+	 * @param vm - the VideoManager whose changes are saved
+	 * @param delayMillis - how long to wait after the last change before saving
+	 * @param maxLagMillis - the longest a change may wait to be saved
+	 */
+	public VideoAutoSaver(VideoManager vm, long delayMillis, long maxLagMillis) {
+		this.vm = vm;
+		this.delay = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+		this.maxLag = TimeUnit.MILLISECONDS.toNanos(Math.max(delayMillis, maxLagMillis));
+
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Video auto save");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	@Override
+	public void videoAdded(int index, Video video) {
+		changed();
+	}
+
+	@Override
+	public void videoRemoved(int index, Video video) {
+		changed();
+	}
+
+	@Override
+	public void videoChanged(Video video, VideoField field, Object oldValue) {
+		changed();
+	}
+
+	/**
+	 * Mark the catalog dirty and make sure a save is scheduled.
+	 */
+	private synchronized void changed() {
+		long now = System.nanoTime();
+
+		if (!dirty) {
+			dirty = true;
+			firstChange = now;
+		}
+		lastChange = now;
+
+		if (pending == null && !executor.isShutdown()) {
+			pending = executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					saveWhenQuiet();
+				}
+			}, delay, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Save if the changes have stopped or the maximum lag is reached,
+	 * otherwise wait some more.
+	 */
+	private void saveWhenQuiet() {
+		synchronized (this) {
+			pending = null;
+			if (!dirty) {
+				return;
+			}
+
+			long now = System.nanoTime();
+			long quietAt = lastChange + delay;
+			long lagAt = firstChange + maxLag;
+			long saveAt = Math.min(quietAt, lagAt);
+
+			if (saveAt - now > 0) {
+				pending = executor.schedule(new Runnable() {
+					@Override
+					public void run() {
+						saveWhenQuiet();
+					}
+				}, saveAt - now, TimeUnit.NANOSECONDS);
+				return;
+			}
+		}
+
+		save();
+	}
+
+	/**
+	 * Save the catalog if it is dirty.  Runs on the background thread.
+	 */
+	private void save() {
+		synchronized (this) {
+			if (!dirty) {
+				return;
+			}
+			dirty = false;
+		}
+
+		try {
+			vm.save();
+			synchronized (this) {
+				lastError = null;
+			}
+		} catch (IOException e) {
+			failed(e);
+		} catch (RuntimeException e) {
+			failed(new IOException(e.getMessage(), e));
+		}
+	}
+
+	/**
+	 * Record a failed save and keep the catalog dirty, so the save is tried
+	 * again.
+	 */
+	private void failed(IOException e) {
+		synchronized (this) {
+			lastError = e;
+		}
+		changed();
+	}
+
+	/**
+	 * Get the error of the last save, if it failed.
+	 *
+	 * @return the error, or null if the last save succeeded
+	 */
+	public synchronized IOException getLastError() {
+		return lastError;
+	}
+
+	/**
+	 * Start saving any unsaved changes now, without waiting for the delay.
+	 *
+	 * @return a future completing when the save is done
+	 */
+	public Future<?> flush() {
+		return executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				save();
+			}
+		});
+	}
+
+	/**
+	 * Save any unsaved changes and wait for the save to finish.
+	 *
+	 * @param timeoutMillis - the longest time to wait
+	 * @return true if all changes are saved, false if the time ran out
+	 * @throws IOException if the save failed
+	 * @throws InterruptedException
+	 */
+	public boolean awaitFlush(long timeoutMillis) throws IOException, InterruptedException {
+		try {
+			flush().get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			return false;
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+
+		synchronized (this) {
+			if (lastError != null) {
+				throw lastError;
+			}
+			return !dirty;
+		}
+	}
+
+	/**
+	 * Stop saving.  Unsaved changes are not saved; call awaitFlush first.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,69 @@
+package edu.iup.cosc210.video.bo;
+
+import java.util.Objects;
+
+/**
+ * The fields of a video that can be changed after the video is created.
+ * 
+ * @author dtsmith
+ *
+ */
+public enum VideoField {
+	TITLE,
+	RENTAL_RATE,
+	YEAR,
+	RATING,
+	NEW_RELEASE;
+
+	/**
+	 * Get the value of this field of a video.
+	 * 
+	 * @param video - the video
+	 * @return the value of the field, boxed for numbers and booleans
+	 */
+	public Object get(Video video) {
+		switch (this) {
+		case TITLE: return video.getTitle();
+		case RENTAL_RATE: return video.getRentalRate();
+		case YEAR: return video.getYear();
+		case RATING: return video.getRating();
+		case NEW_RELEASE: return video.isNewRelease();
+		}
+		return null;
+	}
+
+	/**
+	 * Set this field of a video to a new value.
+	 * 
+	 * @param video - the video
+	 * @param value - the new value, boxed for numbers and booleans
+	 */
+	public void set(Video video, Object value) {
+		switch (this) {
+		case TITLE: video.setTitle((String) value); break;
+		case RENTAL_RATE: video.setRentalRate((Double) value); break;
+		case YEAR: video.setYear((Integer) value); break;
+		case RATING: video.setRating((String) value); break;
+		case NEW_RELEASE: video.setNewRelease((Boolean) value); break;
+		}
+	}
+
+	/**
+	 * Tell whether two videos have the same value of this field, as the
+	 * setters tell a change, without boxing the values.
+	 * 
+	 * @param a - a video
+	 * @param b - the other video
+	 * @return true if the values are equal
+	 */
+	boolean same(Video a, Video b) {
+		switch (this) {
+		case TITLE: return Objects.equals(a.getTitle(), b.getTitle());
+		case RENTAL_RATE: return Double.compare(a.getRentalRate(), b.getRentalRate()) == 0;
+		case YEAR: return a.getYear() == b.getYear();
+		case RATING: return Objects.equals(a.getRating(), b.getRating());
+		case NEW_RELEASE: return a.isNewRelease() == b.isNewRelease();
+		}
+		return false;
+	}
+}
@@ -0,0 +1,320 @@
+package edu.iup.cosc210.video.bo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * History of the changes made to the videos of a VideoManager, for undo and
+ * redo.  Each change is recorded as it is made with what it takes to
+ * reverse it: the index of an added video, a removed video and the index it
+ * had, the old value of a changed field.  Nothing is copied, so undoing an
+ * edit costs the number of changes it made, however many videos there are.
+ *
+ * <p>
+ * Changes are grouped into edits, the steps undone and redone.  A change
+ * made outside beginEdit and endEdit is an edit of its own.  Undoing an
+ * edit reverses its changes last first; the VideoManager reports the
+ * reversing changes like any other, and they are recorded as the edit that
+ * redoes it.  A new edit drops the edits undone.
+ *
+ * <p>
+ * The history is kept under a budget of memory.  Once over it the oldest
+ * edits are forgotten; an edit larger than the whole budget empties the
+ * history, since older edits can only be undone after it.  Not thread safe;
+ * the VideoManager calls it while holding its lock.
+ *
+ * @author dtsmith
+ *
+ */
+class VideoHistory implements CatalogListener {
+	private static final long CHANGE_BYTES = 48;
+	private static final long VIDEO_BYTES = 260;
+
+	private VideoManager vm;
+	private long maxBytes;
+	private long bytes;
+	private Deque<Edit> undos = new ArrayDeque<Edit>();
+	private Deque<Edit> redos = new ArrayDeque<Edit>();
+	private Edit current;
+	private int depth;
+	private boolean undoing;
+	private boolean redoing;
+
+	/**
+	 * Constructor
+	 *
+	 * @param vm - the VideoManager whose changes are recorded
+	 * @param maxBytes - about how many bytes the history may take
+	 */
+	VideoHistory(VideoManager vm, long maxBytes) {
+		this.vm = vm;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Start an edit.  Changes are part of the edit until the matching call
+	 * to endEdit.  Edits may be nested; the outermost edit is the step.
+	 */
+	void beginEdit() {
+		if (depth++ == 0) {
+			current = new Edit();
+		}
+	}
+
+	/**
+	 * End an edit started by beginEdit.
+	 */
+	void endEdit() {
+		if (depth == 0) {
+			throw new IllegalStateException("No edit was begun");
+		}
+		if (--depth == 0) {
+			Edit edit = current;
+			current = null;
+			if (!edit.changes.isEmpty()) {
+				push(edit);
+			}
+		}
+	}
+
+	/**
+	 * Check whether there is an edit to undo.
+	 *
+	 * @return true if undo would reverse an edit
+	 */
+	boolean canUndo() {
+		return depth == 0 && !undos.isEmpty();
+	}
+
+	/**
+	 * Check whether there is an undone edit to redo.
+	 *
+	 * @return true if redo would make an edit again
+	 */
+	boolean canRedo() {
+		return depth == 0 && !redos.isEmpty();
+	}
+
+	/**
+	 * Undo the last edit.
+	 *
+	 * @return false if there was no edit to undo
+	 */
+	boolean undo() {
+		if (!canUndo()) {
+			return false;
+		}
+
+		Edit edit = undos.pop();
+		bytes -= edit.bytes;
+		undoing = true;
+		try {
+			replay(edit);
+		} finally {
+			undoing = false;
+		}
+		return true;
+	}
+
+	/**
+	 * Redo the last edit undone.
+	 *
+	 * @return false if there was no edit to redo
+	 */
+	boolean redo() {
+		if (!canRedo()) {
+			return false;
+		}
+
+		Edit edit = redos.pop();
+		bytes -= edit.bytes;
+		redoing = true;
+		try {
+			replay(edit);
+		} finally {
+			redoing = false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reverse the changes of an edit, last first, as one edit recorded by
+	 * push.
+	 */
+	private void replay(Edit edit) {
+		beginEdit();
+		try {
+			List<Change> changes = edit.changes;
+			for (int i = changes.size() - 1; i >= 0; i--) {
+				changes.get(i).reverse(vm);
+			}
+		} finally {
+			endEdit();
+		}
+	}
+
+	/**
+	 * Forget all edits.
+	 */
+	void clear() {
+		undos.clear();
+		redos.clear();
+		bytes = 0;
+		if (current != null) {
+			current.changes.clear();
+			current.bytes = 0;
+		}
+	}
+
+	/**
+	 * File a finished edit: an edit made while undoing can be redone, any
+	 * other edit can be undone, and a new edit drops the edits undone.
+	 */
+	private void push(Edit edit) {
+		if (undoing) {
+			redos.push(edit);
+		} else {
+			if (!redoing) {
+				for (Edit undone : redos) {
+					bytes -= undone.bytes;
+				}
+				redos.clear();
+			}
+			undos.push(edit);
+		}
+
+		bytes += edit.bytes;
+		if (undoing) {
+			trim(redos);
+		}
+		trim(undos);
+		trim(redos);
+	}
+
+	/**
+	 * Forget the edits furthest from the current state until the history
+	 * is back under its budget.
+	 */
+	private void trim(Deque<Edit> edits) {
+		while (bytes > maxBytes && !edits.isEmpty()) {
+			bytes -= edits.removeLast().bytes;
+		}
+	}
+
+	/**
+	 * Record a change in the open edit, or as an edit of its own.  An open
+	 * edit outgrowing the budget can not be undone, and neither can the
+	 * edits before it, so the history is emptied and the edit stops being
+	 * recorded.
+	 */
+	private void record(Change change, long changeBytes) {
+		if (current == null) {
+			Edit edit = new Edit();
+			edit.add(change, changeBytes);
+			if (edit.bytes > maxBytes) {
+				clear();
+			} else {
+				push(edit);
+			}
+			return;
+		}
+
+		if (current.overflowed) {
+			return;
+		}
+		current.add(change, changeBytes);
+		if (current.bytes > maxBytes) {
+			clear();
+			current.overflowed = true;
+		}
+	}
+
+	@Override
+	public void videoAdded(int index, Video video) {
+		record(new Added(index, video), CHANGE_BYTES);
+	}
+
+	@Override
+	public void videoRemoved(int index, Video video) {
+		record(new Removed(index, video), CHANGE_BYTES + VIDEO_BYTES);
+	}
+
+	@Override
+	public void videoChanged(Video video, VideoField field, Object oldValue) {
+		record(new Changed(video, field, oldValue), CHANGE_BYTES);
+	}
+
+	/**
+	 * The changes of one step.
+	 */
+	private static class Edit {
+		private List<Change> changes = new ArrayList<Change>();
+		private long bytes;
+		private boolean overflowed;
+
+		void add(Change change, long changeBytes) {
+			changes.add(change);
+			bytes += changeBytes;
+		}
+	}
+
+	/**
+	 * A change and how to reverse it.
+	 */
+	private static abstract class Change {
+		abstract void reverse(VideoManager vm);
+	}
+
+	private static class Added extends Change {
+		private int index;
+		private Video video;
+
+		Added(int index, Video video) {
+			this.index = index;
+			this.video = video;
+		}
+
+		@Override
+		void reverse(VideoManager vm) {
+			if (index < vm.getNoVideos() && vm.getVideo(index).getVid().equals(video.getVid())) {
+				vm.removeVideo(index);
+			} else {
+				vm.removeVideo(video);
+			}
+		}
+	}
+
+	private static class Removed extends Change {
+		private int index;
+		private Video video;
+
+		Removed(int index, Video video) {
+			this.index = index;
+			this.video = video;
+		}
+
+		@Override
+		void reverse(VideoManager vm) {
+			vm.insertVideo(Math.min(index, vm.getNoVideos()), video);
+		}
+	}
+
+	private static class Changed extends Change {
+		private Video video;
+		private VideoField field;
+		private Object oldValue;
+
+		Changed(Video video, VideoField field, Object oldValue) {
+			this.video = video;
+			this.field = field;
+			this.oldValue = oldValue;
+		}
+
+		@Override
+		void reverse(VideoManager vm) {
+			field.set(video, oldValue);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package edu.iup.cosc210.video.bo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out the ids of new videos, "V" followed by a number, never the same
+ * id twice.  A shared counter holds the first number not yet handed out.
+ * Each thread takes a block of numbers from it at once and hands them out
+ * by itself, so threads creating videos together touch the counter once a
+ * block instead of once a video.  Numbers left in the block of a thread
+ * are not handed out by another, so ids may have gaps.
+ *
+ * <p>
+ * The allocator is told of the ids of the videos loaded, and only hands
+ * out numbers above the largest seen; a block taken before a larger id was
+ * seen is dropped.  Each VideoManager has an allocator of its own, whose
+ * counter is saved with the catalog, so the ids of videos deleted before a
+ * save are not handed out again after it.  The methods are thread safe and
+ * take no lock.
+ *
+ * @author dtsmith
+ *
+ */
+public class VideoIdAllocator {
+	public static final String PREFIX = "V";
+	private static final int BLOCK_SIZE = 64;
+	private static final int MAX_DIGITS = 18;
+
+	private AtomicLong next;
+	private AtomicLong floor;
+	private ThreadLocal<Block> blocks = new ThreadLocal<Block>() {
+		@Override
+		protected Block initialValue() {
+			return new Block();
+		}
+	};
+
+	/**
+	 * Constructor
+	 *
+	 * @param first - the first number handed out
+	 */
+	public VideoIdAllocator(long first) {
+		next = new AtomicLong(first);
+		floor = new AtomicLong(first);
+	}
+
+	/**
+	 * Hand out a new id.
+	 *
+	 * @return the id, not handed out before
+	 */
+	public String nextVid() {
+		Block block = blocks.get();
+
+		while (true) {
+			if (block.next < block.end) {
+				long number = block.next++;
+				if (number >= floor.get()) {
+					return PREFIX + number;
+				}
+				block.end = 0;
+			}
+
+			block.next = next.getAndAdd(BLOCK_SIZE);
+			block.end = block.next + BLOCK_SIZE;
+		}
+	}
+
+	/**
+	 * Get the first number no thread has taken yet, to be saved.
+	 *
+	 * @return the number
+	 */
+	public long getNextNumber() {
+		return next.get();
+	}
+
+	/**
+	 * Make sure no number below a given number is handed out from now on.
+	 *
+	 * @param number - the lowest number that may still be handed out
+	 */
+	public void reserveBelow(long number) {
+		raise(next, number);
+		raise(floor, number);
+	}
+
+	private static void raise(AtomicLong value, long atLeast) {
+		long current;
+		while ((current = value.get()) < atLeast && !value.compareAndSet(current, atLeast)) {
+			// another thread moved the value, look again
+		}
+	}
+
+	/**
+	 * Tell the allocator of an id in use, so it is not handed out.  Ids not
+	 * made of the prefix and a number are ignored.
+	 *
+	 * @param vid - the id
+	 */
+	public void seen(String vid) {
+		long number = parseNumber(vid);
+		if (number >= floor.get()) {
+			reserveBelow(number + 1);
+		}
+	}
+
+	/**
+	 * Get the number of an id.
+	 *
+	 * @return the number, or -1 if the id is not the prefix and a number
+	 */
+	private static long parseNumber(String vid) {
+		int length = vid == null ? 0 : vid.length();
+		if (length <= PREFIX.length() || length > PREFIX.length() + MAX_DIGITS
+				|| !vid.startsWith(PREFIX)) {
+			return -1;
+		}
+
+		long number = 0;
+		for (int i = PREFIX.length(); i < length; i++) {
+			char c = vid.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			number = number * 10 + (c - '0');
+		}
+		return number;
+	}
+
+	/**
+	 * The numbers a thread has taken and not handed out yet.
+	 */
+	private static class Block {
+		private long next;
+		private long end;
+	}
+}
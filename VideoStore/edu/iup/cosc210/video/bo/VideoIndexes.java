@@ -0,0 +1,261 @@
+package edu.iup.cosc210.video.bo;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bitmap indexes over the videos of a VideoManager, by rating, by year and
+ * by new release flag.  Videos are identified by their row id, which does
+ * not change while the video is held, unlike its index position.  The
+ * indexes are kept up to date as videos are added, removed and changed.
+ * The sets handed out are read-only copies, made when a set is first asked
+ * for after it changed, so repeated queries over unchanged videos copy
+ * nothing.  Not thread safe; the VideoManager calls it while holding its
+ * lock.
+ *
+ * @author dtsmith
+ *
+ */
+class VideoIndexes implements CatalogListener {
+	private Rows all = new Rows();
+	private Map<String, Rows> byRating = new HashMap<String, Rows>();
+	private TreeMap<Integer, Rows> byYear = new TreeMap<Integer, Rows>();
+	private Rows newReleases = new Rows();
+
+	/**
+	 * The rows of one key of an index, with a read-only copy of them made
+	 * when first asked for since they changed.
+	 */
+	private static class Rows {
+		private RowBitmap rows = new RowBitmap();
+		private RowBitmap readOnly;
+
+		void add(int row) {
+			rows.add(row);
+			readOnly = null;
+		}
+
+		void remove(int row) {
+			rows.remove(row);
+			readOnly = null;
+		}
+
+		void addAll(RowBitmap added) {
+			rows = rows.or(added);
+			readOnly = null;
+		}
+
+		void removeAll(RowBitmap removed) {
+			rows = rows.andNot(removed);
+			readOnly = null;
+		}
+
+		boolean isEmpty() {
+			return rows.isEmpty();
+		}
+
+		RowBitmap get() {
+			if (readOnly == null) {
+				readOnly = rows.readOnlyCopy();
+			}
+			return readOnly;
+		}
+	}
+
+	@Override
+	public void videoAdded(int index, Video video) {
+		all.add(video.rowId);
+		add(byRating, video.getRating(), video.rowId);
+		add(byYear, video.getYear(), video.rowId);
+		if (video.isNewRelease()) {
+			newReleases.add(video.rowId);
+		}
+	}
+
+	@Override
+	public void videoRemoved(int index, Video video) {
+		all.remove(video.rowId);
+		remove(byRating, video.getRating(), video.rowId);
+		remove(byYear, video.getYear(), video.rowId);
+		newReleases.remove(video.rowId);
+	}
+
+	@Override
+	public void videoChanged(Video video, VideoField field, Object oldValue) {
+		switch (field) {
+		case RATING:
+			remove(byRating, (String) oldValue, video.rowId);
+			add(byRating, video.getRating(), video.rowId);
+			break;
+		case YEAR:
+			remove(byYear, (Integer) oldValue, video.rowId);
+			add(byYear, video.getYear(), video.rowId);
+			break;
+		case NEW_RELEASE:
+			if (video.isNewRelease()) {
+				newReleases.add(video.rowId);
+			} else {
+				newReleases.remove(video.rowId);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Tell the indexes that a field of many videos changed.  The rows of
+	 * each key are changed once, by set operations, instead of once a video.
+	 *
+	 * @param videos - the changed videos
+	 * @param field - the changed field
+	 * @param oldValues - the value of the field of each video before the
+	 * change
+	 */
+	void videosChanged(List<Video> videos, VideoField field, List<Object> oldValues) {
+		switch (field) {
+		case RATING:
+			move(byRating, videos, field, oldValues);
+			break;
+		case YEAR:
+			move(byYear, videos, field, oldValues);
+			break;
+		case NEW_RELEASE:
+			RowBitmap added = new RowBitmap();
+			RowBitmap removed = new RowBitmap();
+			for (Video video : videos) {
+				(video.isNewRelease() ? added : removed).add(video.rowId);
+			}
+			newReleases.removeAll(removed);
+			newReleases.addAll(added);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Move the rows of videos from the keys of their old values to the keys
+	 * of their new values.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <K> void move(Map<K, Rows> index, List<Video> videos, VideoField field,
+			List<Object> oldValues) {
+		Map<K, RowBitmap> removed = new HashMap<K, RowBitmap>();
+		Map<K, RowBitmap> added = new HashMap<K, RowBitmap>();
+		for (int i = 0; i < videos.size(); i++) {
+			Video video = videos.get(i);
+			rowsOf(removed, (K) oldValues.get(i)).add(video.rowId);
+			rowsOf(added, (K) field.get(video)).add(video.rowId);
+		}
+
+		for (Map.Entry<K, RowBitmap> entry : removed.entrySet()) {
+			Rows rows = index.get(entry.getKey());
+			if (rows != null) {
+				rows.removeAll(entry.getValue());
+				if (rows.isEmpty()) {
+					index.remove(entry.getKey());
+				}
+			}
+		}
+		for (Map.Entry<K, RowBitmap> entry : added.entrySet()) {
+			Rows rows = index.get(entry.getKey());
+			if (rows == null) {
+				rows = new Rows();
+				index.put(entry.getKey(), rows);
+			}
+			rows.addAll(entry.getValue());
+		}
+	}
+
+	private static <K> RowBitmap rowsOf(Map<K, RowBitmap> rows, K key) {
+		RowBitmap set = rows.get(key);
+		if (set == null) {
+			set = new RowBitmap();
+			rows.put(key, set);
+		}
+		return set;
+	}
+
+	private static <K> void add(Map<K, Rows> index, K key, int row) {
+		Rows rows = index.get(key);
+		if (rows == null) {
+			rows = new Rows();
+			index.put(key, rows);
+		}
+		rows.add(row);
+	}
+
+	private static <K> void remove(Map<K, Rows> index, K key, int row) {
+		Rows rows = index.get(key);
+		if (rows != null) {
+			rows.remove(row);
+			if (rows.isEmpty()) {
+				index.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Forget all videos.
+	 */
+	void clear() {
+		all = new Rows();
+		byRating.clear();
+		byYear.clear();
+		newReleases = new Rows();
+	}
+
+	/**
+	 * Get the rows of all videos.
+	 *
+	 * @return the rows, read-only
+	 */
+	RowBitmap all() {
+		return all.get();
+	}
+
+	/**
+	 * Get the rows of the videos with a rating.
+	 *
+	 * @param rating - the rating
+	 * @return the rows, read-only
+	 */
+	RowBitmap rating(String rating) {
+		Rows rows = byRating.get(rating);
+		return rows == null ? new RowBitmap().readOnlyCopy() : rows.get();
+	}
+
+	/**
+	 * Get the rows of the videos released in a range of years.
+	 *
+	 * @param fromYear - the first year of the range
+	 * @param toYear - the last year of the range
+	 * @return the rows, read-only
+	 */
+	RowBitmap years(int fromYear, int toYear) {
+		if (fromYear == toYear) {
+			Rows rows = byYear.get(fromYear);
+			return rows == null ? new RowBitmap().readOnlyCopy() : rows.get();
+		}
+
+		RowBitmap result = new RowBitmap();
+		if (fromYear < toYear) {
+			for (Rows rows : byYear.subMap(fromYear, true, toYear, true).values()) {
+				result = result.or(rows.get());
+			}
+		}
+		return result.makeReadOnly();
+	}
+
+	/**
+	 * Get the rows of the new releases.
+	 *
+	 * @return the rows, read-only
+	 */
+	RowBitmap newReleases() {
+		return newReleases.get();
+	}
+}
@@ -1,101 +1,1843 @@
 package edu.iup.cosc210.video.bo;
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
 
+import edu.iup.cosc210.video.io.ImportReport;
+import edu.iup.cosc210.video.io.PagedVideoList;
+import edu.iup.cosc210.video.io.ParallelVideoLoader;
+import edu.iup.cosc210.video.io.StringDictionary;
+import edu.iup.cosc210.video.io.VideoJournal;
 import edu.iup.cosc210.video.io.VideoReader;
+import edu.iup.cosc210.video.io.VideoMerger;
+import edu.iup.cosc210.video.io.VideoSnapshot;
 import edu.iup.cosc210.video.io.VideoWriter;
 
 /**
  * VideoManger maintains a list of videos.  The videos can be loaded from 
  * a comma separated file using method loadFile and saved using method saveToFile.
+ * The methods of a VideoManager are thread safe, so videos can be saved in
+ * the background while the user interface keeps changing them.  Loaded
+ * videos are held in a CopyOnWriteVideoList, so getVideo, getNoVideos and
+ * snapshot read them without waiting for the lock, and the table repaints
+ * while a large load or merge is being indexed.  Videos are
+ * indexed by vid, so they can be found, and their index position told,
+ * without searching the list, and by rating, year and new release flag, so
+ * they can be filtered without looking at every video.
  * 
  * @author dtsmith
  *
  */
 public class VideoManager {
-	private List<Video> videos = new ArrayList<Video>();
+	public static final String SNAPSHOT_EXTENSION = ".snap";
+	public static final String JOURNAL_EXTENSION = ".journal";
+	public static final String IDS_EXTENSION = ".ids";
+	private static final long FIRST_VID_NUMBER = 100;
+	private static final int MIN_COMPACTION_RECORDS = 1000;
+	private static final int DICTIONARY_ENTRIES = 1 << 18;
+	private static final int MIN_FREED_ROWS = 1024;
+	private static final int PARALLEL_UPDATES = 1 << 16;
+
+	private volatile List<Video> videos = new CopyOnWriteVideoList();
+	private Map<String, Video> byVid = new HashMap<String, Video>();
+	private Map<String, List<Video>> duplicates = new HashMap<String, List<Video>>();
+	private int duplicateVids;
+	private Set<String> sharedVids = new HashSet<String>();
+	private int positionsValidTo;
+	private int freedRows;
+	private List<Video> rows = new ArrayList<Video>();
+	private VideoIndexes indexes = new VideoIndexes();
+	private TitleIndex titles = new TitleIndex(rows);
+	private TitleTree titleTree = new TitleTree(rows);
+	private List<CatalogListener> listeners = new ArrayList<CatalogListener>();
+	private List<CatalogEventBus> buses = new ArrayList<CatalogEventBus>();
+	private List<VideoAggregate> aggregates = new ArrayList<VideoAggregate>();
+	private String catalogFileName;
+	private boolean catalogCompressed;
+	private long catalogModified;
+	private long catalogLength;
+	private VideoJournal journal;
+	private VideoAutoSaver autoSaver;
+	private VideoHistory history;
+	private Object compactionLock = new Object();
+	private StringDictionary dictionary = new StringDictionary(DICTIONARY_ENTRIES);
+	private VideoIdAllocator ids = new VideoIdAllocator(FIRST_VID_NUMBER);
+
+	/**
+	 * Load videos from a comma separated text file.  The videos are added
+	 * once the whole file is read, so a file that can not be read adds none.
+	 * 
+	 * @param fileName - the name of the file containing the videos
+	 * @throws IOException
+	 */
+	public void loadFile(String fileName) throws IOException {
+		loadNextNumber(fileName);
+		VideoReader in = new VideoReader(fileName);
+		in.setDictionary(dictionary);
+		List<Video> loaded = new ArrayList<Video>();
+
+		try {
+			Video video;
+
+			while ((video = in.readVideo()) != null) {
+				loaded.add(video);
+			}
+		} finally {
+			in.close();
+		}
+
+		addVideos(loaded);
+	}
+
+	/**
+	 * Load videos from a comma separated text file.  The file is memory mapped
+	 * and parsed in parallel, which is much faster than loadFile for large
+	 * files.  The videos are added in the order they appear in the file.
+	 * 
+	 * @param fileName - the name of the file containing the videos
+	 * @throws IOException
+	 */
+	public void loadFileParallel(String fileName) throws IOException {
+		loadNextNumber(fileName);
+		addVideos(newLoader().load(fileName));
+	}
+
+	/**
+	 * Create a loader sharing titles and ratings through the dictionary of
+	 * this VideoManager.
+	 */
+	private ParallelVideoLoader newLoader() {
+		ParallelVideoLoader loader = new ParallelVideoLoader();
+		loader.setDictionary(dictionary);
+		return loader;
+	}
+
+	/**
+	 * Get the dictionary through which the titles and ratings of the videos
+	 * loaded are shared, so a title or rating met more than once, within a
+	 * file or across the files loaded and merged, is held as one string.
+	 * Its counters tell the hit rate and about how many bytes were saved.
+	 * 
+	 * @return the dictionary
+	 */
+	public StringDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Import the valid videos from a comma separated text file.  Lines that
+	 * are not valid videos are left out and reported instead of failing the
+	 * import.  The file is memory mapped and checked in parallel, and the
+	 * valid videos are added in one batch once the whole file is read, so a
+	 * file that can not be read adds none.
+	 * 
+	 * @param fileName - the name of the file containing the videos
+	 * @return the report of the videos imported and the lines left out
+	 * @throws IOException
+	 */
+	public ImportReport importFile(String fileName) throws IOException {
+		ImportReport report = new ImportReport(fileName);
+
+		addVideos(newLoader().load(fileName, report));
+		return report;
+	}
+
+	/**
+	 * Merge the videos of several comma separated text files, such as the
+	 * catalogs of branch stores, into this VideoManager.  The files are
+	 * loaded and de-duplicated on vid in parallel.  The policy decides which
+	 * video is kept when a vid is met more than once, in the files or in the
+	 * videos already held; a video already held is updated in place when a
+	 * video in the files is preferred.  New videos are added in the order
+	 * their vid is first met, file by file.
+	 * 
+	 * @param fileNames - the names of the files, in order of precedence
+	 * @param policy - chooses the video kept for a vid met more than once
+	 * @return the number of videos added
+	 * @throws IOException
+	 */
+	public int mergeFiles(List<String> fileNames, MergePolicy policy) throws IOException {
+		VideoMerger merger = new VideoMerger(policy);
+		merger.setDictionary(dictionary);
+		List<Video> merged = merger.merge(fileNames);
+		List<Video> added = new ArrayList<Video>();
+
+		synchronized (this) {
+			beginEdit();
+			try {
+				for (Video video : merged) {
+					Video existing = findById(video.getVid());
+
+					if (existing == null) {
+						added.add(video);
+					} else if (policy.prefers(video, existing)) {
+						for (VideoField field : VideoField.values()) {
+							field.set(existing, field.get(video));
+						}
+					}
+				}
+
+				addVideos(added);
+			} finally {
+				endEdit();
+			}
+		}
+
+		return added.size();
+	}
+
+	/**
+	 * Load videos from a binary snapshot written by saveSnapshot.
+	 * 
+	 * @param fileName - the name of the snapshot file
+	 * @throws IOException
+	 */
+	public void loadSnapshot(String fileName) throws IOException {
+		addVideos(new VideoSnapshot(fileName).getVideos(dictionary));
+	}
+
+	/**
+	 * Load videos from a comma separated text file, taking the fast path
+	 * through the binary snapshot of the file when the snapshot was written
+	 * from the file as it is now, of the same length and modification time.
+	 * Otherwise, or if the snapshot is torn or corrupt, the file is parsed
+	 * and a new snapshot of the videos read is written for the next time.
+	 * The snapshot of a file is kept next to it with the extension ".snap"
+	 * appended.
+	 * 
+	 * @param fileName - the name of the file containing the videos
+	 * @throws IOException
+	 */
+	public void openCatalog(String fileName) throws IOException {
+		File file = new File(fileName);
+		File snapshot = new File(fileName + SNAPSHOT_EXTENSION);
+
+		if (!file.exists()) {
+			throw new FileNotFoundException(fileName);
+		}
+
+		boolean compressed = VideoReader.isCompressed(fileName);
+		loadNextNumber(fileName);
+
+		synchronized (this) {
+			catalogFileName = fileName;
+			catalogCompressed = compressed;
+			catalogModified = file.lastModified();
+			catalogLength = file.length();
+		}
+
+		long length = file.length();
+		long modified = file.lastModified();
+		if (snapshot.exists()) {
+			try {
+				VideoSnapshot saved = new VideoSnapshot(snapshot.getPath());
+				if (saved.getSourceLength() == length && saved.getSourceModified() == modified) {
+					addVideos(saved.getVideos(dictionary));
+					return;
+				}
+			} catch (IOException e) {
+				// an unreadable snapshot is replaced below
+			}
+		}
+
+		List<Video> loaded = newLoader().load(fileName);
+
+		try {
+			VideoSnapshot.write(snapshot.getPath(), loaded, length, modified);
+		} catch (IOException e) {
+			// the snapshot is only an optimization, the catalog is loaded
+		}
+		addVideos(loaded);
+	}
+
+	/**
+	 * Open a comma separated text file read-only, without loading it.  An
+	 * index of the file is built in the background, and videos are read from
+	 * the file only when getVideo asks for them, keeping a bounded number of
+	 * pages of videos in memory.  Returns as soon as the index is started;
+	 * getNoVideos counts the videos indexed so far, the listener being told
+	 * each time more are indexed, and is exact once the whole file is indexed.
+	 * Videos can not be added or removed, and changes made to a video are not
+	 * kept.  Compressed files can not be opened this way.
+	 * 
+	 * @param fileName - the name of the file containing the videos
+	 * @param cachePages - the number of pages of PagedVideoList.PAGE_SIZE
+	 * videos kept in memory
+	 * @param listener - told as videos are indexed, on the index thread; may
+	 * be null
+	 * @throws IOException
+	 */
+	public void openPaged(String fileName, int cachePages, PagedVideoList.Listener listener)
+			throws IOException {
+		if (!new File(fileName).exists()) {
+			throw new FileNotFoundException(fileName);
+		}
+
+		PagedVideoList paged = new PagedVideoList(fileName, cachePages, listener);
+
+		synchronized (this) {
+			if (videos instanceof PagedVideoList) {
+				((PagedVideoList) videos).close();
+			} else if (isIndexed()) {
+				for (Video video : videos) {
+					video.manager = null;
+				}
+			}
+			videos = paged;
+			catalogFileName = null;
+			reindex();
+		}
+	}
+
+	/**
+	 * Load videos from a comma separated text file into columnar storage,
+	 * which takes about a quarter of the memory of Video objects.  Each field
+	 * is kept in a packed array, and getVideo returns a new Video on each
+	 * call, a view of the row whose changes are written back.  The videos
+	 * are read a line at a time, so only the columns are ever in memory.
+	 * Videos can be added, removed, changed and saved as usual, though they
+	 * are not indexed: vids are found and rows are selected by scanning the
+	 * columns, the rows being the index positions of the videos, and rental
+	 * rates are kept to the cent.
+	 * 
+	 * @param fileName - the name of the file containing the videos
+	 * @throws IOException
+	 */
+	public void openColumnar(String fileName) throws IOException {
+		File file = new File(fileName);
+		if (!file.exists()) {
+			throw new FileNotFoundException(fileName);
+		}
+
+		ColumnarVideoList columns = new ColumnarVideoList(this);
+		VideoReader in = new VideoReader(fileName);
+		loadNextNumber(fileName);
+
+		try {
+			Video video;
+
+			while ((video = in.readVideo()) != null) {
+				columns.add(video);
+			}
+		} finally {
+			in.close();
+		}
+
+		boolean compressed = VideoReader.isCompressed(fileName);
+
+		synchronized (this) {
+			if (videos instanceof PagedVideoList) {
+				((PagedVideoList) videos).close();
+			} else if (isIndexed()) {
+				for (Video video : videos) {
+					video.manager = null;
+				}
+			}
+			videos = columns;
+			catalogFileName = fileName;
+			catalogCompressed = compressed;
+			reindex();
+		}
+		recordCatalogState();
+	}
+
+	/**
+	 * Check whether the videos were opened read-only by openPaged.
+	 * 
+	 * @return true if videos can not be added, removed or saved
+	 */
+	public synchronized boolean isReadOnly() {
+		return videos instanceof PagedVideoList;
+	}
+
+	/**
+	 * Save the videos in the VideoManager to a binary snapshot.
+	 * 
+	 * @param fileName - the name of the snapshot file
+	 * @throws IOException
+	 */
+	public void saveSnapshot(String fileName) throws IOException {
+		VideoSnapshot.write(fileName, snapshot());
+	}
+
+	/**
+	 * Start journaling the changes made to the videos, which were loaded from
+	 * a catalog file.  A journal left by an earlier run is replayed first, so
+	 * the videos include every change made since the catalog file was last
+	 * saved in full.  The journal is kept next to the catalog file with the
+	 * extension ".journal" appended.  The journal finds videos by vid, so a
+	 * change to a video whose vid another video has too is not journaled;
+	 * the next save writes the catalog in full instead.
+	 * 
+	 * @param fileName - the name of the catalog file the videos were loaded from
+	 * @throws IOException
+	 */
+	public void openJournal(String fileName) throws IOException {
+		VideoJournal journal = new VideoJournal(fileName + JOURNAL_EXTENSION);
+
+		synchronized (this) {
+			List<Video> replayed = journal.replay(videos);
+			if (replayed != videos && columns() != null) {
+				videos = new ColumnarVideoList(this, replayed);
+				reindex();
+			} else if (replayed != videos) {
+				for (Video video : videos) {
+					video.manager = null;
+				}
+				videos = new CopyOnWriteVideoList(replayed);
+				for (Video video : videos) {
+					video.manager = this;
+				}
+				reindex();
+			}
+
+			if (!fileName.equals(catalogFileName)) {
+				catalogFileName = fileName;
+				catalogCompressed = VideoReader.isCompressed(fileName);
+				recordCatalogState();
+			}
+			this.journal = journal;
+			if (columns() != null) {
+				findSharedVids();
+			}
+			addCatalogListener(journal);
+		}
+
+		if (isCompactionDue()) {
+			compact();
+		}
+	}
+
+	/**
+	 * Save the changes made to the videos to the catalog file.  With a
+	 * journal open this only forces the journal to the disk, compacting it
+	 * into the catalog file once it has grown large compared with the
+	 * catalog, or once it failed to record a change.  Without a journal all
+	 * videos are saved.
+	 * 
+	 * @throws IOException
+	 */
+	public void save() throws IOException {
+		VideoJournal journal;
+		String fileName;
+		boolean compressed;
+
+		synchronized (this) {
+			journal = this.journal;
+			fileName = catalogFileName;
+			compressed = catalogCompressed;
+		}
+
+		if (fileName == null) {
+			throw new IllegalStateException("No catalog file is open");
+		}
+
+		if (journal == null) {
+			synchronized (compactionLock) {
+				writeFile(fileName, snapshot(), compressed);
+				recordCatalogState();
+			}
+		} else if (isCompactionDue() || journal.isFullSaveNeeded()) {
+			compact();
+		} else {
+			journal.sync();
+		}
+	}
+
+	/**
+	 * Save all videos to the catalog file and empty the journal.  The
+	 * VideoManager is only locked while the videos are copied; changes made
+	 * while the file is written go to a fresh journal.
+	 * 
+	 * @throws IOException
+	 */
+	public void compact() throws IOException {
+		synchronized (compactionLock) {
+			List<Video> videos;
+			String fileName;
+			boolean compressed;
+
+			synchronized (this) {
+				if (journal == null) {
+					throw new IllegalStateException("No journal is open");
+				}
+				videos = snapshot();
+				fileName = catalogFileName;
+				compressed = catalogCompressed;
+				journal.rotate();
+			}
+
+			writeFile(fileName, videos, compressed);
+			recordCatalogState();
+			journal.discardRotated();
+		}
+	}
+
+	/**
+	 * Remember the time and length of the catalog file as this VideoManager
+	 * last read or wrote it, to tell its own saves from changes made to the
+	 * file by others.
+	 */
+	private synchronized void recordCatalogState() {
+		File file = new File(catalogFileName);
+		catalogModified = file.lastModified();
+		catalogLength = file.length();
+	}
+
+	/**
+	 * Read the catalog file again if another program changed it since this
+	 * VideoManager last read or saved it.  The videos are not changed; the
+	 * caller decides how to apply the videos read.  Saves are held off while
+	 * the file is read.
+	 * 
+	 * @return the videos in the catalog file, or null if it has not changed
+	 * @throws IOException
+	 */
+	public List<Video> readChangedCatalog() throws IOException {
+		synchronized (compactionLock) {
+			String fileName;
+			long modified;
+			long length;
+
+			synchronized (this) {
+				if (catalogFileName == null) {
+					return null;
+				}
+				fileName = catalogFileName;
+				File file = new File(fileName);
+				modified = file.lastModified();
+				length = file.length();
+				if (modified == catalogModified && length == catalogLength) {
+					return null;
+				}
+			}
+
+			List<Video> loaded = newLoader().load(fileName);
+
+			synchronized (this) {
+				catalogModified = modified;
+				catalogLength = length;
+			}
+			return loaded;
+		}
+	}
+
+	private synchronized boolean isCompactionDue() {
+		return journal.getNoRecords() >= Math.max(MIN_COMPACTION_RECORDS, videos.size() / 4);
+	}
+
+	/**
+	 * Start saving changes in the background: changes are saved once they
+	 * stop for a delay, but never later than a maximum lag after the first
+	 * unsaved change.  A catalog file must have been opened by openCatalog or
+	 * openJournal.
+	 * 
+	 * @param delayMillis - how long to wait after the last change before saving
+	 * @param maxLagMillis - the longest a change may wait to be saved
+	 */
+	public synchronized void startAutoSave(long delayMillis, long maxLagMillis) {
+		if (catalogFileName == null) {
+			throw new IllegalStateException("No catalog file is open");
+		}
+
+		stopAutoSave();
+		autoSaver = new VideoAutoSaver(this, delayMillis, maxLagMillis);
+		addCatalogListener(autoSaver);
+	}
+
+	/**
+	 * Stop saving changes in the background.  Unsaved changes are not saved;
+	 * call awaitFlush first.
+	 */
+	public synchronized void stopAutoSave() {
+		if (autoSaver != null) {
+			removeCatalogListener(autoSaver);
+			autoSaver.shutdown();
+			autoSaver = null;
+		}
+	}
+
+	/**
+	 * Start saving unsaved changes in the background right away.  Does not
+	 * wait for the save, so it can be called from the event dispatch thread.
+	 */
+	public void flush() {
+		VideoAutoSaver autoSaver = getAutoSaver();
+
+		if (autoSaver != null) {
+			autoSaver.flush();
+		}
+	}
+
+	/**
+	 * Save changes not yet saved in the background and wait for the save to
+	 * finish, for example before the program exits.  Returns right away if
+	 * changes are not being saved in the background.
+	 * 
+	 * @param timeoutMillis - the longest time to wait
+	 * @return true if all changes are saved, false if the time ran out
+	 * @throws IOException if the save failed
+	 * @throws InterruptedException
+	 */
+	public boolean awaitFlush(long timeoutMillis) throws IOException, InterruptedException {
+		VideoAutoSaver autoSaver = getAutoSaver();
+
+		if (autoSaver == null) {
+			return true;
+		}
+		return autoSaver.awaitFlush(timeoutMillis);
+	}
+
+	private synchronized VideoAutoSaver getAutoSaver() {
+		return autoSaver;
+	}
+
+	/**
+	 * Start recording the changes made to the videos so they can be undone
+	 * and redone.  Changes made before, such as loading the catalog, are
+	 * not recorded.  The oldest edits are forgotten once the history
+	 * takes more than about maxBytes of memory.
+	 * 
+	 * @param maxBytes - about how many bytes the history may take
+	 */
+	public synchronized void startHistory(long maxBytes) {
+		stopHistory();
+		history = new VideoHistory(this, maxBytes);
+		addCatalogListener(history);
+	}
+
+	/**
+	 * Stop recording changes and forget those recorded.
+	 */
+	public synchronized void stopHistory() {
+		if (history != null) {
+			removeCatalogListener(history);
+			history = null;
+		}
+	}
+
+	/**
+	 * Start an edit: the changes made until the matching call to endEdit are
+	 * undone and redone as one step once startHistory was called, and are
+	 * written to the journal as one batch, replayed all or not at all.
+	 * Edits may be nested.
+	 */
+	public synchronized void beginEdit() {
+		if (history != null) {
+			history.beginEdit();
+		}
+		if (journal != null) {
+			journal.beginBatch();
+		}
+	}
+
+	/**
+	 * End an edit started by beginEdit.
+	 */
+	public synchronized void endEdit() {
+		try {
+			if (journal != null) {
+				journal.endBatch();
+			}
+		} finally {
+			if (history != null) {
+				history.endEdit();
+			}
+		}
+	}
+
+	/**
+	 * Check whether there is an edit to undo.
+	 * 
+	 * @return true if undo would reverse an edit
+	 */
+	public synchronized boolean canUndo() {
+		return history != null && history.canUndo();
+	}
+
+	/**
+	 * Check whether there is an undone edit to redo.
+	 * 
+	 * @return true if redo would make an edit again
+	 */
+	public synchronized boolean canRedo() {
+		return history != null && history.canRedo();
+	}
+
+	/**
+	 * Undo the last edit, reversing its changes.  Costs the number of
+	 * changes of the edit.  The reversing changes are told to the catalog
+	 * listeners like any other.
+	 * 
+	 * @return false if there was no edit to undo
+	 */
+	public synchronized boolean undo() {
+		return history != null && history.undo();
+	}
+
+	/**
+	 * Redo the last edit undone.
+	 * 
+	 * @return false if there was no edit to redo
+	 */
+	public synchronized boolean redo() {
+		return history != null && history.redo();
+	}
+
+	/**
+	 * Save the videos in the VideoManager to a comma separated file.  The file
+	 * is only replaced once all videos are safely written, so a failed save
+	 * leaves the previous file intact.  The VideoManager is only locked while
+	 * the videos are copied.
+	 * 
+	 * @param fileName - the name of the file in which to save videos
+	 * @throws IOException
+	 */
+	public void saveToFile(String fileName) throws IOException {
+		writeFile(fileName, snapshot(), false);
+	}
+
+	/**
+	 * Save the videos in the VideoManager to a comma separated file compressed
+	 * with gzip.  loadFile and the other load methods read compressed files
+	 * as well as plain ones.
+	 * 
+	 * @param fileName - the name of the file in which to save videos
+	 * @param compressionLevel - the compression level, from 0 (none) to 9
+	 * (best), or -1 for the default level
+	 * @throws IOException
+	 */
+	public void saveToFile(String fileName, int compressionLevel) throws IOException {
+		VideoWriter out = new VideoWriter(fileName, compressionLevel);
+		writeFile(out, snapshot());
+		saveNextNumber(fileName);
+	}
+
+	private void writeFile(String fileName, List<Video> videos, boolean compressed)
+			throws IOException {
+		VideoWriter out;
+		if (compressed) {
+			out = new VideoWriter(fileName, Deflater.DEFAULT_COMPRESSION);
+		} else {
+			out = new VideoWriter(fileName);
+		}
+		writeFile(out, videos);
+		saveNextNumber(fileName);
+	}
+
+	/**
+	 * Save the next number of the video id allocator next to a catalog file,
+	 * with the extension ".ids" appended, so that the ids of videos deleted
+	 * before the save are not handed out again after the catalog is loaded.
+	 * The number is taken after the videos were written, so it is above the
+	 * ids of all of them.  Like the catalog, the number is written to a
+	 * temporary file that replaces the previous one once on the disk.
+	 * 
+	 * @param fileName - the name of the catalog file
+	 * @throws IOException
+	 */
+	private void saveNextNumber(String fileName) throws IOException {
+		Path target = Paths.get(fileName + IDS_EXTENSION);
+		Path temp = Files.createTempFile(target.toAbsolutePath().getParent(),
+				target.getFileName().toString(), ".tmp");
+
+		FileOutputStream file = new FileOutputStream(temp.toFile());
+		boolean written = false;
+		try {
+			file.write(Long.toString(ids.getNextNumber()).getBytes(StandardCharsets.US_ASCII));
+			file.getFD().sync();
+			file.close();
+
+			try {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			written = true;
+		} finally {
+			if (!written) {
+				file.close();
+				Files.deleteIfExists(temp);
+			}
+		}
+	}
+
+	/**
+	 * Keep the video id allocator from handing out the ids saved as taken
+	 * next to a catalog file.  A catalog saved before the number was kept
+	 * has no such file, the largest id among the videos loaded keeping new
+	 * ids apart from theirs.  A file that can not be read or does not hold a
+	 * number is ignored the same way, as the snapshot of a catalog is: the
+	 * number is only a helper, rebuilt from the vids loaded and written
+	 * again on the next save.
+	 * 
+	 * @param fileName - the name of the catalog file
+	 */
+	private void loadNextNumber(String fileName) {
+		try {
+			byte[] number = Files.readAllBytes(Paths.get(fileName + IDS_EXTENSION));
+			ids.reserveBelow(Long.parseLong(new String(number, StandardCharsets.US_ASCII).trim()));
+		} catch (IOException e) {
+			// no number was saved, or it can not be read
+		} catch (NumberFormatException e) {
+			// the number is torn or corrupt
+		}
+	}
+
+	private static void writeFile(VideoWriter out, List<Video> videos) throws IOException {
+		boolean written = false;
+		try {
+			for (Video video : videos) {
+				out.saveVideo(video);
+			}
+			out.close();
+			written = true;
+		} finally {
+			if (!written) {
+				out.abort();
+			}
+		}
+	}
+
+	/**
+	 * Get the list of videos as it is now, which does not change when videos
+	 * are added or removed.  Loaded videos are not copied and the lock is
+	 * not taken; the videos opened by openPaged or openColumnar are copied.
+	 * 
+	 * @return the videos in the VideoManager's list
+	 */
+	public List<Video> snapshot() {
+		List<Video> videos = this.videos;
+		if (videos instanceof CopyOnWriteVideoList) {
+			return ((CopyOnWriteVideoList) videos).snapshot();
+		}
+
+		synchronized (this) {
+			return new ArrayList<Video>(this.videos);
+		}
+	}
+
+	/**
+	 * Create a video with default values and a video id not used by any
+	 * video of this VideoManager, nor handed out by it before.  The video is
+	 * not added.
+	 * 
+	 * @return the video
+	 */
+	public Video newVideo() {
+		return new Video(ids.nextVid());
+	}
+
+	/**
+	 * Add a video to the list of videos.
+	 * 
+	 * @param video - the video to be added
+	 */
+	public synchronized void addVideo(Video video) {
+		ids.seen(video.getVid());
+		noteSharedVid(video);
+		video.manager = this;
+		videos.add(video);
+
+		int index = videos.size() - 1;
+		if (isIndexed()) {
+			index(video, index);
+		} else {
+			video.position = index;
+		}
+		for (CatalogListener listener : listeners) {
+			listener.videoAdded(index, video);
+		}
+	}
+
+	/**
+	 * Add videos to the end of the list of videos, all at once.
+	 * 
+	 * @param added - the videos to be added
+	 */
+	public synchronized void addVideos(List<Video> added) {
+		int index = videos.size();
+		Set<String> heldVids = null;
+		if (journal != null && columns() != null) {
+			heldVids = new HashSet<String>();
+			for (Video video : videos) {
+				heldVids.add(video.getVid());
+			}
+		}
+		for (Video video : added) {
+			ids.seen(video.getVid());
+			if (heldVids != null && !heldVids.add(video.getVid())) {
+				sharedVids.add(video.getVid());
+				journal.dropUntilSaved();
+			}
+			video.manager = this;
+		}
+		videos.addAll(added);
+
+		beginEdit();
+		try {
+			for (Video video : added) {
+				if (isIndexed()) {
+					index(video, index);
+				} else {
+					video.position = index;
+				}
+				for (CatalogListener listener : listeners) {
+					listener.videoAdded(index, video);
+				}
+				index++;
+			}
+		} finally {
+			endEdit();
+		}
+	}
+
+	/**
+	 * Insert a video into the list of videos at an index position, moving
+	 * the videos from that position on down by one.
+	 * 
+	 * @param index - the index position of the inserted video
+	 * @param video - the video to be inserted
+	 */
+	public synchronized void insertVideo(int index, Video video) {
+		if (index == videos.size()) {
+			addVideo(video);
+			return;
+		}
+
+		ids.seen(video.getVid());
+		noteSharedVid(video);
+		video.manager = this;
+		videos.add(index, video);
+
+		if (isIndexed()) {
+			index(video, index);
+			positionsValidTo = Math.min(positionsValidTo, index);
+		} else {
+			video.position = index;
+		}
+		for (CatalogListener listener : listeners) {
+			listener.videoAdded(index, video);
+		}
+	}
+
+	/**
+	 * Remove a video from the list of videos.
+	 * 
+	 * @param video - the video to be removed
+	 */
+	public synchronized void removeVideo(Video video) {
+		int i = positionOf(video);
+
+		if (i >= 0) {
+			removeVideo(i);
+		}
+	}
+
+	/**
+	 * Remove a video given its vid from the list of videos.
+	 * 
+	 * @param vid - the video id of the video to be removed
+	 * @return the video removed, or null if there is no video with the vid
+	 */
+	public synchronized Video removeById(String vid) {
+		int i = indexOf(vid);
+
+		if (i < 0) {
+			return null;
+		}
+		Video video = videos.get(i);
+		removeVideo(i);
+		return video;
+	}
 
 	/**
-	 * Load videos from a comma separated text file.
+	 * Remove a video given its index from the list of videos.
 	 * 
-	 * @param fileName - the name of the file containing the videos
-	 * @throws IOException
+	 * @param index - the index position of the video to be removed
 	 */
-	public void loadFile(String fileName) throws IOException {
-		VideoReader in = new VideoReader(fileName);
+	public synchronized void removeVideo(int i) {
+		Video video = videos.remove(i);
+		video.manager = null;
+		if (isIndexed()) {
+			unindex(video, i);
+			if (freedRows >= MIN_FREED_ROWS && freedRows * 2 > rows.size()) {
+				compactRows();
+			}
+		} else if (journal != null && sharedVids.contains(video.getVid())) {
+			journal.dropUntilSaved();
+		}
 
-		Video video;
+		for (CatalogListener listener : listeners) {
+			listener.videoRemoved(i, video);
+		}
+	}
 
-		while ((video = in.readVideo()) != null) {
-			addVideo(video);
+	/**
+	 * Find a video given its vid.  If more than one video has the vid, one
+	 * of them is found.
+	 * 
+	 * @param vid - the video id
+	 * @return the video with the vid, or null if there is none
+	 */
+	public synchronized Video findById(String vid) {
+		if (!isIndexed()) {
+			int i = scanForId(vid);
+			return i >= 0 ? videos.get(i) : null;
 		}
-		
-		in.close();
+		return byVid.get(vid);
 	}
 
 	/**
-	 * Save the videos in the VideoManager to a comma separated file.
+	 * Check whether there is a video with a vid.
 	 * 
-	 * @param fileName - the name of the file in which to save videos
-	 * @throws IOException
+	 * @param vid - the video id
+	 * @return true if a video has the vid
 	 */
-	public void saveToFile(String fileName) throws IOException {
-		VideoWriter out = new VideoWriter(fileName);
+	public synchronized boolean containsId(String vid) {
+		return findById(vid) != null;
+	}
+
+	/**
+	 * Get the index position of a video given its vid.
+	 * 
+	 * @param vid - the video id
+	 * @return the index position of the video with the vid, or -1 if there
+	 * is none
+	 */
+	public synchronized int indexOf(String vid) {
+		if (!isIndexed()) {
+			return scanForId(vid);
+		}
+
+		Video video = byVid.get(vid);
+		return video == null ? -1 : positionOf(video);
+	}
+
+	/**
+	 * Get the index position of a video.
+	 * 
+	 * @param video - the video
+	 * @return the index position of the video, or -1 if it is not held by
+	 * this VideoManager
+	 */
+	public synchronized int indexOf(Video video) {
+		return positionOf(video);
+	}
+
+	/**
+	 * Search the videos opened by openPaged or openColumnar for a vid, which
+	 * are not indexed.
+	 */
+	private int scanForId(String vid) {
+		if (videos instanceof ColumnarVideoList) {
+			return ((ColumnarVideoList) videos).indexOfVid(vid);
+		}
+		for (int i = 0; i < videos.size(); i++) {
+			if (videos.get(i).getVid().equals(vid)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the index position of a video held by this VideoManager.  Each
+	 * video remembers its position.  Removing a video shifts the videos after
+	 * it, so positions from the lowest removed index on are only brought up
+	 * to date when one of them is asked for; removing videos costs nothing
+	 * extra, and a run of lookups costs at most one pass over the shifted
+	 * videos.
+	 * 
+	 * @param video - the video
+	 * @return the index position of the video, or -1 if it is not held
+	 */
+	private int positionOf(Video video) {
+		if (video.manager != this) {
+			return -1;
+		}
+
+		if (videos instanceof ColumnarVideoList) {
+			ColumnarVideoList columns = (ColumnarVideoList) videos;
+			if (video.position < columns.size() && columns.hasVid(video.position, video.getVid())) {
+				return video.position;
+			}
+			return columns.indexOfVid(video.getVid());
+		}
+
+		if (video.position >= positionsValidTo) {
+			for (int i = positionsValidTo; i < videos.size(); i++) {
+				videos.get(i).position = i;
+			}
+			positionsValidTo = videos.size();
+		}
+		return video.position;
+	}
+
+	/**
+	 * Check whether the videos are indexed.  The videos opened by openPaged
+	 * or openColumnar are not held as Video objects, so they are searched
+	 * instead.
+	 */
+	private boolean isIndexed() {
+		return !(videos instanceof PagedVideoList || videos instanceof ColumnarVideoList);
+	}
+
+	/**
+	 * Add a video to the vid index, the bitmap indexes and the title indexes.
+	 */
+	private void index(Video video, int position) {
+		video.position = position;
+		video.rowId = rows.size();
+		rows.add(video);
+		if (positionsValidTo == position) {
+			positionsValidTo++;
+		}
+
+		if (byVid.containsKey(video.getVid())) {
+			List<Video> others = duplicates.get(video.getVid());
+			if (others == null) {
+				others = new ArrayList<Video>(1);
+				duplicates.put(video.getVid(), others);
+			}
+			others.add(video);
+			duplicateVids++;
+			if (journal != null) {
+				journal.dropUntilSaved();
+			}
+		} else {
+			byVid.put(video.getVid(), video);
+		}
+
+		indexes.videoAdded(position, video);
+		titles.videoAdded(position, video);
+		titleTree.videoAdded(position, video);
+	}
+
+	/**
+	 * Remove a video from the indexes.  If another video has the same vid,
+	 * the one added first takes the place of the video in the vid index.
+	 * The other videos of each vid held more than once are kept by vid, so
+	 * no scan is needed.
+	 */
+	private void unindex(Video video, int position) {
+		positionsValidTo = Math.min(positionsValidTo, position);
+		rows.set(video.rowId, null);
+		freedRows++;
+		indexes.videoRemoved(position, video);
+		titles.videoRemoved(position, video);
+		titleTree.videoRemoved(position, video);
+
+		String vid = video.getVid();
+		List<Video> others = duplicates.get(vid);
+		if (others != null && journal != null) {
+			journal.dropUntilSaved();
+		}
+		if (byVid.get(vid) != video) {
+			if (others != null && others.remove(video)) {
+				duplicateVids--;
+				if (others.isEmpty()) {
+					duplicates.remove(vid);
+				}
+			}
+			return;
+		}
+
+		if (others == null) {
+			byVid.remove(vid);
+			return;
+		}
+		byVid.put(vid, others.remove(0));
+		duplicateVids--;
+		if (others.isEmpty()) {
+			duplicates.remove(vid);
+		}
+	}
+
+	/**
+	 * Rebuild the vid index after the list of videos was replaced.  The
+	 * history of the videos replaced is forgotten, the event listeners are
+	 * told that all rows changed, the aggregates are computed again and the
+	 * id allocator is told of the vids.
+	 */
+	private void reindex() {
+		if (history != null) {
+			history.clear();
+		}
+		for (CatalogEventBus bus : buses) {
+			bus.allChanged();
+		}
+		for (VideoAggregate aggregate : aggregates) {
+			aggregate.reset(videos instanceof PagedVideoList ? null : videos);
+		}
+		byVid = new HashMap<String, Video>(videos.size() * 4 / 3 + 1);
+		duplicates.clear();
+		duplicateVids = 0;
+		sharedVids.clear();
+		positionsValidTo = 0;
+		freedRows = 0;
+		rows = new ArrayList<Video>();
+		indexes.clear();
+		titles.clear(rows);
+		titleTree.clear(rows);
+
+		if (!(videos instanceof PagedVideoList)) {
+			for (Video video : videos) {
+				ids.seen(video.getVid());
+			}
+		}
+		if (journal != null && columns() != null) {
+			findSharedVids();
+		}
+		if (!isIndexed()) {
+			return;
+		}
+		for (int i = 0; i < videos.size(); i++) {
+			index(videos.get(i), i);
+		}
+	}
 
+	/**
+	 * Find the vids held by more than one of the columnar videos, which are
+	 * not indexed by vid, so the journal drops the changes made to their
+	 * videos.  A vid stays noted after its videos are removed.
+	 */
+	private void findSharedVids() {
+		Set<String> seen = new HashSet<String>(videos.size() * 4 / 3 + 1);
 		for (Video video : videos) {
-			out.saveVideo(video);
+			if (!seen.add(video.getVid())) {
+				sharedVids.add(video.getVid());
+			}
 		}
-		
-		out.close();
 	}
 
 	/**
-	 * Add a video to the list of videos.
+	 * Note the vid of a columnar video about to be added if another video
+	 * has it, telling the journal to drop changes until the catalog is
+	 * saved in full.  Indexed videos are noted by index.
+	 */
+	private void noteSharedVid(Video video) {
+		ColumnarVideoList columns = columns();
+		if (journal != null && columns != null && columns.indexOfVid(video.getVid()) >= 0) {
+			sharedVids.add(video.getVid());
+			journal.dropUntilSaved();
+		}
+	}
+
+	/**
+	 * Check whether another video has the vid of a video, so the journal
+	 * can not record a change to it.
+	 */
+	private boolean sharesVid(Video video) {
+		if (isIndexed()) {
+			return duplicates.containsKey(video.getVid());
+		}
+		return sharedVids.contains(video.getVid());
+	}
+
+	/**
+	 * Number the rows again without the rows of the videos removed, once
+	 * they are most of the rows, so the list of rows and the indexes do not
+	 * keep growing as videos are added and removed.  The bitmap indexes are
+	 * rebuilt and the title indexes are built again on the next search.
+	 * Sets of rows taken before are rejected by getVideos.
+	 */
+	private void compactRows() {
+		List<Video> compacted = new ArrayList<Video>(rows.size() - freedRows);
+		for (Video video : rows) {
+			if (video != null) {
+				video.rowId = compacted.size();
+				compacted.add(video);
+			}
+		}
+
+		rows = compacted;
+		freedRows = 0;
+		indexes.clear();
+		titles.clear(rows);
+		titleTree.clear(rows);
+		for (Video video : rows) {
+			indexes.videoAdded(video.position, video);
+		}
+	}
+
+	/**
+	 * Mark a set of rows of the indexes as holding the row ids of this
+	 * numbering of the rows.
+	 */
+	private RowBitmap numbered(RowBitmap rowSet) {
+		return rowSet.positionsOf(rows, 0);
+	}
+
+	/**
+	 * Get the videos opened by openColumnar.
 	 * 
-	 * @param video - the video to be added
+	 * @return the columns, or null if the videos are not held in columns
 	 */
-	public void addVideo(Video video) {
-		videos.add(video);
+	private ColumnarVideoList columns() {
+		return videos instanceof ColumnarVideoList ? (ColumnarVideoList) videos : null;
 	}
 
 	/**
-	 * Remove a video from the list of videos.
+	 * Get the rows of all videos.  A row identifies a video for as long as
+	 * it is held, while its index position changes as videos before it are
+	 * removed; once most rows are of removed videos, the rows are numbered
+	 * again and sets taken before can no longer be used.  The rows not in a set are allRows().andNot(set).  The sets
+	 * returned by the row methods are read-only; combine them with and, or
+	 * and andNot, or copy them to change them.  The rows of the videos opened
+	 * by openColumnar are their index positions, found by scanning the
+	 * columns.
 	 * 
-	 * @param video - the video to be removed
+	 * @return the rows of all videos
 	 */
-	public void removeVideo(Video video) {
-		videos.remove(video);
+	public synchronized RowBitmap allRows() {
+		ColumnarVideoList columns = columns();
+		if (columns != null) {
+			return columns.allRows();
+		}
+		return numbered(indexes.all());
 	}
 
 	/**
-	 * Remove a video given its index from the list of videos.
+	 * Get the rows of the videos with a rating.
 	 * 
-	 * @param index - the index position of the video to be removed
+	 * @param rating - the rating
+	 * @return the rows of the videos with the rating
+	 */
+	public synchronized RowBitmap rowsWithRating(String rating) {
+		ColumnarVideoList columns = columns();
+		if (columns != null) {
+			return columns.rowsWithRating(rating);
+		}
+		return numbered(indexes.rating(rating));
+	}
+
+	/**
+	 * Get the rows of the videos released in a year.
+	 * 
+	 * @param year - the year
+	 * @return the rows of the videos released in the year
+	 */
+	public synchronized RowBitmap rowsWithYear(int year) {
+		return rowsWithYears(year, year);
+	}
+
+	/**
+	 * Get the rows of the videos released in a range of years.
+	 * 
+	 * @param fromYear - the first year of the range
+	 * @param toYear - the last year of the range, included
+	 * @return the rows of the videos released in the range
+	 */
+	public synchronized RowBitmap rowsWithYears(int fromYear, int toYear) {
+		ColumnarVideoList columns = columns();
+		if (columns != null) {
+			return columns.rowsWithYears(fromYear, toYear);
+		}
+		return numbered(indexes.years(fromYear, toYear));
+	}
+
+	/**
+	 * Get the rows of the new releases.
+	 * 
+	 * @return the rows of the videos flagged as new releases
+	 */
+	public synchronized RowBitmap newReleaseRows() {
+		ColumnarVideoList columns = columns();
+		if (columns != null) {
+			return columns.newReleaseRows();
+		}
+		return numbered(indexes.newReleases());
+	}
+
+	/**
+	 * Get the videos of a set of rows.  Rows of videos removed since the set
+	 * was made are left out.  The rows of the videos opened by openColumnar
+	 * are index positions, which shift as videos are added or removed, so a
+	 * set of them is only taken while no video was added or removed since.
+	 * 
+	 * @param rowSet - the rows
+	 * @return the videos, in the order they were added
+	 * @throws ConcurrentModificationException if the set holds index
+	 * positions of videos since added to or removed from, or rows since
+	 * numbered again
+	 */
+	public synchronized List<Video> getVideos(RowBitmap rowSet) {
+		checkPositions(rowSet);
+		int[] rowIds = rowSet.toArray();
+		List<Video> result = new ArrayList<Video>(rowIds.length);
+		List<Video> byRow = columns() != null ? videos : rows;
+
+		for (int row : rowIds) {
+			Video video = row < byRow.size() ? byRow.get(row) : null;
+			if (video != null) {
+				result.add(video);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Make sure a set of rows holds no index positions of the videos taken
+	 * before videos were added or removed.
+	 * 
+	 * @param rowSet - the rows
+	 * @throws ConcurrentModificationException if the positions are stale
+	 */
+	void checkPositions(RowBitmap rowSet) {
+		ColumnarVideoList columns = columns();
+		if (columns != null ? !columns.holdsPositions(rowSet)
+				: !rowSet.holdsPositionsOf(rows, 0)) {
+			throw new ConcurrentModificationException(
+					"The rows were taken before videos were added or removed,"
+					+ " or before the rows were numbered again");
+		}
+	}
+
+	/**
+	 * Plan how to answer a query from the indexes held.  The plan is not run;
+	 * see query and explain.
+	 * 
+	 * @param query - the query
+	 * @return the plan
+	 */
+	public synchronized QueryPlan plan(VideoQuery query) {
+		ColumnarVideoList columns = columns();
+		QueryPlan plan = new QueryPlan(this, query, isIndexed() ? rows : videos,
+				!isIndexed(), !(videos instanceof PagedVideoList));
+
+		if (videos instanceof PagedVideoList) {
+			plan.note("videos opened read-only are not indexed");
+			plan.finish();
+			return plan;
+		}
+
+		String kind = columns != null ? "column scan " : "index ";
+		if (query.getVid() != null) {
+			if (columns != null) {
+				int i = columns.indexOfVid(query.getVid());
+				RowBitmap rows = new RowBitmap();
+				if (i >= 0) {
+					rows.add(i);
+				}
+				plan.useIndex("column scan vid = " + query.getVid(), rows);
+			} else if (duplicateVids == 0) {
+				plan.useVid(byVid.get(query.getVid()));
+			} else {
+				plan.note("vid index not used, some vids are held more than once");
+			}
+		}
+		if (query.getRating() != null) {
+			plan.useIndex(kind + "rating = " + query.getRating(), rowsWithRating(query.getRating()));
+		}
+		if (query.hasYears()) {
+			plan.useIndex(kind + "year " + query.getFromYear() + ".." + query.getToYear(),
+					rowsWithYears(query.getFromYear(), query.getToYear()));
+		}
+		if (query.getNewRelease() != null) {
+			RowBitmap newReleases = newReleaseRows();
+			plan.useIndex(kind + (query.getNewRelease() ? "new release" : "not new release"),
+					query.getNewRelease() ? newReleases : allRows().andNot(newReleases));
+		}
+		if (query.getTitleText() != null) {
+			if (query.getTitleText().length() < 3) {
+				plan.note("title text too short for the title index");
+			} else if (!isIndexed() || !titles.isBuilt()) {
+				plan.note("title index not built, searchTitles builds it");
+			} else {
+				plan.useIndex("index title trigrams of \"" + query.getTitleText() + "\"",
+						titles.titleRows(query.getTitleText()));
+			}
+		}
+		if (isIndexed() && !query.hasConditions()) {
+			plan.useIndex("index all rows", numbered(indexes.all()));
+		}
+
+		plan.finish();
+		return plan;
+	}
+
+	/**
+	 * Find the videos meeting the conditions of a query, in the order of the
+	 * query.  The indexes are used where they help, and a large number of
+	 * videos not narrowed down by an index are checked in parallel.
+	 * 
+	 * @param query - the query
+	 * @return a view of the videos found, which does not copy them
+	 */
+	public synchronized List<Video> query(VideoQuery query) {
+		return plan(query).run();
+	}
+
+	/**
+	 * Run a query and explain how it was answered: the indexes used and the
+	 * rows each left, the videos checked, and the time each step took.
+	 * 
+	 * @param query - the query
+	 * @return the explanation, one step per line
+	 */
+	public synchronized String explain(VideoQuery query) {
+		QueryPlan plan = plan(query);
+		plan.run();
+		return plan.toString();
+	}
+
+	/**
+	 * Change every video found by a query, as one edit.  The update is run
+	 * on a scratch copy of each video, in parallel when there are many, and
+	 * the fields it changed are then set on the videos a field at a time,
+	 * the bitmap indexes and the aggregates being updated once a field for
+	 * all videos.  The changes are undone as one step, written to the
+	 * journal as one batch, and told to the event listeners at once, as any
+	 * edit.  For example, to raise the
+	 * rental rate of all new releases by 50 cents:
+	 * 
+	 * <pre>
+	 * vm.updateVideos(new VideoQuery().newRelease(true), new VideoUpdate() {
+	 *     public void update(Video video) {
+	 *         video.setRentalRate(video.getRentalRate() + 0.5);
+	 *     }
+	 * });
+	 * </pre>
+	 * 
+	 * @param query - finds the videos to change
+	 * @param update - changes a video
+	 * @return the number of videos changed
+	 */
+	public synchronized int updateVideos(VideoQuery query, VideoUpdate update) {
+		if (videos instanceof PagedVideoList) {
+			throw new IllegalStateException("Videos opened read-only can not be updated");
+		}
+
+		final Video[] found = query(query).toArray(new Video[0]);
+		final Video[] updated = new Video[found.length];
+		final byte[] changedFields = new byte[found.length];
+		final VideoUpdate change = update;
+
+		IntStream indexes = IntStream.range(0, found.length);
+		if (found.length >= PARALLEL_UPDATES) {
+			indexes = indexes.parallel();
+		}
+		indexes.forEach(new IntConsumer() {
+			@Override
+			public void accept(int i) {
+				Video video = found[i];
+				Video copy = new Video(video.getVid(), video.getTitle(), video.getRentalRate(),
+						video.getYear(), video.getRating(), video.isNewRelease());
+				change.update(copy);
+				for (VideoField field : VideoField.values()) {
+					if (!field.same(copy, video)) {
+						changedFields[i] |= 1 << field.ordinal();
+						updated[i] = copy;
+					}
+				}
+			}
+		});
+
+		int noChanged = 0;
+		int[] noFieldChanges = new int[VideoField.values().length];
+		for (byte fields : changedFields) {
+			if (fields != 0) {
+				noChanged++;
+				for (VideoField field : VideoField.values()) {
+					if ((fields & 1 << field.ordinal()) != 0) {
+						noFieldChanges[field.ordinal()]++;
+					}
+				}
+			}
+		}
+
+		beginEdit();
+		try {
+			for (VideoField field : VideoField.values()) {
+				int noChanges = noFieldChanges[field.ordinal()];
+				if (noChanges == 0) {
+					continue;
+				}
+
+				int bit = 1 << field.ordinal();
+				List<Video> changed = new ArrayList<Video>(noChanges);
+				List<Object> oldValues = new ArrayList<Object>(noChanges);
+				for (int i = 0; i < found.length; i++) {
+					if ((changedFields[i] & bit) != 0) {
+						oldValues.add(field.get(found[i]));
+						found[i].setQuietly(field, field.get(updated[i]));
+						changed.add(found[i]);
+					}
+				}
+				videosChanged(changed, field, oldValues);
+			}
+		} finally {
+			endEdit();
+		}
+		return noChanged;
+	}
+
+	/**
+	 * Tell the indexes and the listeners that a field of many videos
+	 * changed, one field at a time, so the other fields of the videos are
+	 * as the listeners last saw them.  The bitmap indexes and the aggregates
+	 * are updated in bulk; other listeners are told of each video.
+	 * 
+	 * @param changed - the changed videos
+	 * @param field - the changed field
+	 * @param oldValues - the value of the field of each video before the
+	 * change
+	 */
+	private void videosChanged(List<Video> changed, VideoField field, List<Object> oldValues) {
+		if (isIndexed()) {
+			indexes.videosChanged(changed, field, oldValues);
+			if (field == VideoField.TITLE) {
+				for (int i = 0; i < changed.size(); i++) {
+					titles.videoChanged(changed.get(i), field, oldValues.get(i));
+					titleTree.videoChanged(changed.get(i), field, oldValues.get(i));
+				}
+			}
+		} else if (videos instanceof ColumnarVideoList) {
+			for (Video video : changed) {
+				int i = positionOf(video);
+				if (i >= 0) {
+					((ColumnarVideoList) videos).update(i, video, field);
+				}
+			}
+		}
+
+		if (journal != null) {
+			for (Video video : changed) {
+				if (sharesVid(video)) {
+					journal.dropUntilSaved();
+					break;
+				}
+			}
+		}
+
+		for (CatalogListener listener : listeners) {
+			if (listener instanceof VideoAggregate) {
+				((VideoAggregate) listener).videosChanged(changed, field, oldValues);
+				continue;
+			}
+			for (int i = 0; i < changed.size(); i++) {
+				listener.videoChanged(changed.get(i), field, oldValues.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Get the loaded videos as they are now, without copying them.
+	 * 
+	 * @return the videos, or null if they are not loaded
+	 */
+	List<Video> stableVideos() {
+		List<Video> videos = this.videos;
+		if (videos instanceof CopyOnWriteVideoList) {
+			return ((CopyOnWriteVideoList) videos).snapshot();
+		}
+		return null;
+	}
+
+	/**
+	 * Find the videos whose title holds a text, ignoring case, for search as
+	 * you type.  Titles equal to the text come first, then titles starting
+	 * with it, then titles with a word starting with it, then the rest, and
+	 * shorter titles first within each.  A text of one or two characters
+	 * only matches the start of a title.  The title index is built on the
+	 * first search.
+	 * 
+	 * @param text - the text searched for
+	 * @param limit - the most videos returned
+	 * @return the matching videos, best first
+	 */
+	public synchronized List<Video> searchTitles(String text, int limit) {
+		if (!isIndexed()) {
+			return TitleIndex.scan(videos, text, limit);
+		}
+		return titles.search(text, limit);
+	}
+
+	/**
+	 * Find the videos whose title is within a few typos of a text, ignoring
+	 * case: the title can be turned into the text by inserting, deleting or
+	 * replacing at most maxDistance characters.  The closest titles come
+	 * first.  The title tree is built on the first search.
+	 * 
+	 * @param text - the text searched for
+	 * @param maxDistance - the most characters that may differ
+	 * @param limit - the most videos returned
+	 * @return the matching videos, closest first
+	 */
+	public synchronized List<Video> fuzzySearchTitles(String text, int maxDistance, int limit) {
+		if (!isIndexed()) {
+			return TitleTree.scan(videos, text, maxDistance, limit);
+		}
+		return titleTree.search(text, maxDistance, limit);
+	}
+
+	/**
+	 * Called by a video held by this VideoManager when one of its fields
+	 * changed.
+	 * 
+	 * @param video - the changed video
+	 * @param field - the changed field
+	 * @param oldValue - the value of the field before the change
+	 */
+	synchronized void videoChanged(Video video, VideoField field, Object oldValue) {
+		if (isIndexed()) {
+			indexes.videoChanged(video, field, oldValue);
+			titles.videoChanged(video, field, oldValue);
+			titleTree.videoChanged(video, field, oldValue);
+		} else if (videos instanceof ColumnarVideoList) {
+			int i = positionOf(video);
+			if (i >= 0) {
+				((ColumnarVideoList) videos).update(i, video, field);
+			}
+		}
+		if (journal != null && sharesVid(video)) {
+			journal.dropUntilSaved();
+		}
+		for (CatalogListener listener : listeners) {
+			listener.videoChanged(video, field, oldValue);
+		}
+	}
+
+	/**
+	 * Add a listener to be notified of every change made to the videos.
+	 * 
+	 * @param listener - the listener to be added
+	 */
+	public synchronized void addCatalogListener(CatalogListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Remove a listener added by addCatalogListener.
+	 * 
+	 * @param listener - the listener to be removed
+	 */
+	public synchronized void removeCatalogListener(CatalogListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Add a listener to be told of the changes made to the videos as runs of
+	 * rows inserted, updated and deleted.  The listener is run through an
+	 * executor, such as SwingUtilities.invokeLater for the event dispatch
+	 * thread, and is told at once of all changes made since it last ran, a
+	 * bulk add being a single event.
+	 * 
+	 * @param listener - the listener to be added
+	 * @param executor - runs the listener
+	 */
+	public synchronized void addCatalogEventListener(CatalogEventListener listener,
+			Executor executor) {
+		CatalogEventBus bus = new CatalogEventBus(this, listener, executor);
+		buses.add(bus);
+		addCatalogListener(bus);
+	}
+
+	/**
+	 * Remove a listener added by addCatalogEventListener.  Events already
+	 * scheduled may still be told.
+	 * 
+	 * @param listener - the listener to be removed
+	 */
+	public synchronized void removeCatalogEventListener(CatalogEventListener listener) {
+		for (CatalogEventBus bus : buses) {
+			if (bus.getListener() == listener) {
+				buses.remove(bus);
+				removeCatalogListener(bus);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Add an aggregate, a figure over the videos kept up to date as videos
+	 * are added, removed and changed, such as the count of videos by rating
+	 * or the average rental rate by year.  The videos are scanned once to
+	 * compute it, and again only when the list of videos is replaced, as by
+	 * openColumnar.  The videos opened by openPaged are not aggregated, the
+	 * aggregate being left empty.
+	 * 
+	 * @param function - how the values of a group are combined
+	 * @param valueField - the numeric field combined, RENTAL_RATE or YEAR;
+	 * ignored for COUNT
+	 * @param groupField - the field the videos are grouped by, RATING, YEAR
+	 * or NEW_RELEASE, or null to combine all videos
+	 * @return the aggregate, whose figures can be read from any thread
+	 */
+	public synchronized VideoAggregate addAggregate(VideoAggregate.Function function,
+			VideoField valueField, VideoField groupField) {
+		VideoAggregate aggregate = new VideoAggregate(function, valueField, groupField);
+		aggregate.reset(videos instanceof PagedVideoList ? null : videos);
+		aggregates.add(aggregate);
+		addCatalogListener(aggregate);
+		return aggregate;
+	}
+
+	/**
+	 * Stop keeping an aggregate added by addAggregate up to date.
+	 * 
+	 * @param aggregate - the aggregate
 	 */
-	public void removeVideo(int i) {
-		videos.remove(i);
+	public synchronized void removeAggregate(VideoAggregate aggregate) {
+		if (aggregates.remove(aggregate)) {
+			removeCatalogListener(aggregate);
+		}
 	}
 
 	/**
-	 * Get the of videos in the VideoManager's list
+	 * Get the of videos in the VideoManager's list.  Does not wait for a
+	 * change being made by another thread.
 	 * 
 	 * @return the of videos in the VideoManager's list
 	 */
 	public int getNoVideos() {
-		return videos.size();
+		List<Video> videos = this.videos;
+		if (videos instanceof CopyOnWriteVideoList) {
+			return videos.size();
+		}
+
+		synchronized (this) {
+			return this.videos.size();
+		}
 	}
 
 	/**
-	 * Get a video from the VideoManager given its index position.
+	 * Get a video from the VideoManager given its index position.  Does not
+	 * wait for a change being made by another thread.
 	 * 
 	 * @param index - the index position of the video to be retrieved.
 	 * @return video at the given index position.
 	 */
 	public Video getVideo(int i) {
-		return videos.get(i);
+		List<Video> videos = this.videos;
+		if (videos instanceof CopyOnWriteVideoList) {
+			return videos.get(i);
+		}
+
+		synchronized (this) {
+			return this.videos.get(i);
+		}
 	}
 
 	/**
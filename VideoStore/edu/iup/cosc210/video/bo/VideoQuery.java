@@ -0,0 +1,263 @@
+package edu.iup.cosc210.video.bo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A query over the fields of the videos of a VideoManager: the conditions a
+ * video must meet, all of which must hold, the order of the videos found
+ * and how many are wanted.  Each method sets one condition and returns the
+ * query, so a query reads as one expression:
+ *
+ * <pre>
+ * vm.query(new VideoQuery().rating("PG").years(1990, 1999)
+ *         .orderBy(VideoField.TITLE, false).limit(20));
+ * </pre>
+ *
+ * VideoManager.plan chooses how the query is answered from the indexes
+ * held, and VideoManager.explain tells the plan chosen.
+ *
+ * @author dtsmith
+ *
+ */
+public class VideoQuery {
+	private String vid;
+	private String rating;
+	private boolean hasYears;
+	private int fromYear;
+	private int toYear;
+	private Boolean newRelease;
+	private boolean hasRentalRates;
+	private double minRentalRate;
+	private double maxRentalRate;
+	private String titleText;
+	private VideoField orderField;
+	private boolean descending;
+	private int limit = Integer.MAX_VALUE;
+
+	/**
+	 * Only find the videos with a vid.
+	 *
+	 * @param vid - the video id
+	 * @return this query
+	 */
+	public VideoQuery vid(String vid) {
+		this.vid = vid;
+		return this;
+	}
+
+	/**
+	 * Only find the videos with a rating.
+	 *
+	 * @param rating - the rating
+	 * @return this query
+	 */
+	public VideoQuery rating(String rating) {
+		this.rating = rating;
+		return this;
+	}
+
+	/**
+	 * Only find the videos released in a year.
+	 *
+	 * @param year - the year
+	 * @return this query
+	 */
+	public VideoQuery year(int year) {
+		return years(year, year);
+	}
+
+	/**
+	 * Only find the videos released in a range of years.
+	 *
+	 * @param fromYear - the first year of the range
+	 * @param toYear - the last year of the range, included
+	 * @return this query
+	 */
+	public VideoQuery years(int fromYear, int toYear) {
+		hasYears = true;
+		this.fromYear = fromYear;
+		this.toYear = toYear;
+		return this;
+	}
+
+	/**
+	 * Only find the videos that are, or are not, new releases.
+	 *
+	 * @param newRelease - true for new releases only, false for the rest
+	 * @return this query
+	 */
+	public VideoQuery newRelease(boolean newRelease) {
+		this.newRelease = newRelease;
+		return this;
+	}
+
+	/**
+	 * Only find the videos with a rental rate in a range.
+	 *
+	 * @param minRentalRate - the lowest rental rate
+	 * @param maxRentalRate - the highest rental rate, included
+	 * @return this query
+	 */
+	public VideoQuery rentalRates(double minRentalRate, double maxRentalRate) {
+		hasRentalRates = true;
+		this.minRentalRate = minRentalRate;
+		this.maxRentalRate = maxRentalRate;
+		return this;
+	}
+
+	/**
+	 * Only find the videos whose title holds a text, ignoring case.
+	 *
+	 * @param text - the text
+	 * @return this query
+	 */
+	public VideoQuery titleContains(String text) {
+		titleText = TitleIndex.normalize(text);
+		return this;
+	}
+
+	/**
+	 * Order the videos found by a field.  Titles are ordered ignoring case.
+	 * Videos with equal values keep their order in the VideoManager.
+	 * Without an order the videos are found in the order they were added.
+	 *
+	 * @param field - the field
+	 * @param descending - true for the largest values first
+	 * @return this query
+	 */
+	public VideoQuery orderBy(VideoField field, boolean descending) {
+		this.orderField = field;
+		this.descending = descending;
+		return this;
+	}
+
+	/**
+	 * Find at most a number of videos, the first in the order of the query.
+	 *
+	 * @param limit - the most videos found
+	 * @return this query
+	 */
+	public VideoQuery limit(int limit) {
+		if (limit < 0) {
+			throw new IllegalArgumentException("limit must not be negative");
+		}
+		this.limit = limit;
+		return this;
+	}
+
+	/**
+	 * Check whether a video meets all conditions of the query.
+	 *
+	 * @param video - the video
+	 * @return true if the video is to be found
+	 */
+	boolean matches(Video video) {
+		if (vid != null && !vid.equals(video.getVid())) {
+			return false;
+		}
+		if (rating != null && !rating.equals(video.getRating())) {
+			return false;
+		}
+		if (hasYears && (video.getYear() < fromYear || video.getYear() > toYear)) {
+			return false;
+		}
+		if (newRelease != null && newRelease != video.isNewRelease()) {
+			return false;
+		}
+		if (hasRentalRates && (video.getRentalRate() < minRentalRate
+				|| video.getRentalRate() > maxRentalRate)) {
+			return false;
+		}
+		if (titleText != null && (video.getTitle() == null
+				|| !TitleIndex.normalize(video.getTitle()).contains(titleText))) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether the query has any condition.
+	 *
+	 * @return true if some videos may not be found
+	 */
+	boolean hasConditions() {
+		return vid != null || rating != null || hasYears || newRelease != null
+				|| hasRentalRates || titleText != null;
+	}
+
+	String getVid() {
+		return vid;
+	}
+
+	String getRating() {
+		return rating;
+	}
+
+	boolean hasYears() {
+		return hasYears;
+	}
+
+	int getFromYear() {
+		return fromYear;
+	}
+
+	int getToYear() {
+		return toYear;
+	}
+
+	Boolean getNewRelease() {
+		return newRelease;
+	}
+
+	String getTitleText() {
+		return titleText;
+	}
+
+	VideoField getOrderField() {
+		return orderField;
+	}
+
+	boolean isDescending() {
+		return descending;
+	}
+
+	int getLimit() {
+		return limit;
+	}
+
+	@Override
+	public String toString() {
+		List<String> conditions = new ArrayList<String>();
+
+		if (vid != null) {
+			conditions.add("vid = " + vid);
+		}
+		if (rating != null) {
+			conditions.add("rating = " + rating);
+		}
+		if (hasYears) {
+			conditions.add(fromYear == toYear ? "year = " + fromYear
+					: "year " + fromYear + ".." + toYear);
+		}
+		if (newRelease != null) {
+			conditions.add(newRelease ? "new release" : "not new release");
+		}
+		if (hasRentalRates) {
+			conditions.add("rental rate " + minRentalRate + ".." + maxRentalRate);
+		}
+		if (titleText != null) {
+			conditions.add("title contains \"" + titleText + "\"");
+		}
+
+		StringBuilder text = new StringBuilder(conditions.isEmpty() ? "all videos"
+				: String.join(" and ", conditions));
+		if (orderField != null) {
+			text.append(" order by ").append(orderField).append(descending ? " desc" : "");
+		}
+		if (limit != Integer.MAX_VALUE) {
+			text.append(" limit ").append(limit);
+		}
+		return text.toString();
+	}
+}
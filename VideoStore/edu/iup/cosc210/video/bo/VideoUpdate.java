@@ -0,0 +1,20 @@
+package edu.iup.cosc210.video.bo;
+
+/**
+ * A change made to each video found by a query, for
+ * VideoManager.updateVideos.  The update is given a scratch copy of each
+ * video and changes it through its setters; the fields it changed are then
+ * set on the video itself.  Updates may run on several threads at once, so
+ * an update must not depend on state shared between videos.
+ * 
+ * @author dtsmith
+ *
+ */
+public interface VideoUpdate {
+	/**
+	 * Change a video.
+	 * 
+	 * @param video - a scratch copy of the video, not in any VideoManager
+	 */
+	void update(Video video);
+}
@@ -0,0 +1,187 @@
+package edu.iup.cosc210.video.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Report of an import of a comma separated video file: how many videos were
+ * imported, and which lines were left out because they are not valid videos,
+ * with the column at fault and the reason.  The details of at most
+ * MAX_BAD_LINES bad lines are kept; further bad lines are only counted.
+ *
+ * @author dtsmith
+ *
+ */
+public class ImportReport {
+	public static final int MAX_BAD_LINES = 10000;
+	private static final int MAX_TEXT_LENGTH = 200;
+
+	private String fileName;
+	private int noImported;
+	private int noBadLines;
+	private List<BadLine> badLines = new ArrayList<BadLine>();
+
+	/**
+	 * A line left out of the import.
+	 */
+	public static class BadLine {
+		private int lineNo;
+		private int column;
+		private String reason;
+		private String text;
+
+		BadLine(int lineNo, VideoFormatException e, String text) {
+			this.lineNo = lineNo;
+			this.column = e.getColumn();
+			this.reason = e.getReason();
+			this.text = text.length() > MAX_TEXT_LENGTH ? text.substring(0, MAX_TEXT_LENGTH) : text;
+		}
+
+		/**
+		 * Get the line number.
+		 *
+		 * @return the number of the line in the file, starting at 1
+		 */
+		public int getLineNo() {
+			return lineNo;
+		}
+
+		/**
+		 * Get the column at fault.
+		 *
+		 * @return the number of the column at fault, starting at 1
+		 */
+		public int getColumn() {
+			return column;
+		}
+
+		/**
+		 * Get what is wrong with the column.
+		 *
+		 * @return what is wrong with the column
+		 */
+		public String getReason() {
+			return reason;
+		}
+
+		/**
+		 * Get the text of the line.
+		 *
+		 * @return the text of the line, cut short if it is long
+		 */
+		public String getText() {
+			return text;
+		}
+
+		@Override
+		public String toString() {
+			return "Line " + lineNo + ", column " + column + ": " + reason;
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param fileName - the name of the file imported
+	 */
+	public ImportReport(String fileName) {
+		this.fileName = fileName;
+	}
+
+	/**
+	 * Add a bad line.
+	 *
+	 * @param line - the bad line
+	 */
+	void addBadLine(BadLine line) {
+		noBadLines++;
+		if (badLines.size() < MAX_BAD_LINES) {
+			badLines.add(line);
+		}
+	}
+
+	/**
+	 * Add the bad lines found in one part of the file, in line order.
+	 *
+	 * @param lines - the bad lines kept, numbered from the start of the part
+	 * @param count - the number of bad lines found, kept or not
+	 * @param firstLineNo - the number of lines in the file before the part
+	 */
+	void addBadLines(List<BadLine> lines, int count, int firstLineNo) {
+		noBadLines += count;
+		for (BadLine line : lines) {
+			if (badLines.size() == MAX_BAD_LINES) {
+				break;
+			}
+			line.lineNo += firstLineNo;
+			badLines.add(line);
+		}
+	}
+
+	void setNoImported(int noImported) {
+		this.noImported = noImported;
+	}
+
+	/**
+	 * Get the name of the file imported.
+	 *
+	 * @return the name of the file imported
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Get the number of videos imported.
+	 *
+	 * @return the number of videos imported
+	 */
+	public int getNoImported() {
+		return noImported;
+	}
+
+	/**
+	 * Get the number of lines left out.
+	 *
+	 * @return the number of lines left out, including those not kept in
+	 * the report
+	 */
+	public int getNoBadLines() {
+		return noBadLines;
+	}
+
+	/**
+	 * Get the lines left out.
+	 *
+	 * @return the first MAX_BAD_LINES lines left out, in line order
+	 */
+	public List<BadLine> getBadLines() {
+		return Collections.unmodifiableList(badLines);
+	}
+
+	/**
+	 * Check whether every line was imported.
+	 *
+	 * @return true if no line was left out
+	 */
+	public boolean isClean() {
+		return noBadLines == 0;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		report.append(fileName).append(": ").append(noImported).append(" videos imported, ")
+				.append(noBadLines).append(" bad lines");
+
+		for (BadLine line : badLines) {
+			report.append('\n').append(line);
+		}
+		if (noBadLines > badLines.size()) {
+			report.append("\n...");
+		}
+
+		return report.toString();
+	}
+}
@@ -0,0 +1,367 @@
+package edu.iup.cosc210.video.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import edu.iup.cosc210.video.bo.Video;
+
+/**
+ * Read-only list of the videos in a comma separated file, reading videos
+ * from the file only when they are asked for.  A background thread builds
+ * an index holding the file offset of every PAGE_SIZE-th video; a video is
+ * read by parsing its page, and a bounded number of recently used pages is
+ * cached.  Memory use stays flat however large the file is.
+ *
+ * <p>
+ * The list can be used as soon as it is created.  While the index is being
+ * built, size() is the number of videos indexed so far and grows until the
+ * whole file is indexed, after which it is exact.
+ *
+ * <p>
+ * A line that is not a valid video is read as a placeholder video whose
+ * title tells what is wrong, so the rows after it keep their positions and
+ * a table showing the list can still be painted.  The listener is told of
+ * each such line the first time it is read.
+ *
+ * <p>
+ * Videos read from the list are copies: changing one does not change the
+ * file, and the change is lost when its page is dropped from the cache.
+ *
+ * @author dtsmith
+ *
+ */
+public class PagedVideoList extends AbstractList<Video> implements RandomAccess {
+	public static final int PAGE_SIZE = 64;
+
+	private static final int SCAN_SIZE = 1 << 20;
+	private static final long PUBLISH_INTERVAL = 100000000L;
+	private static final int DICTIONARY_SIZE = 256;
+
+	private FileChannel channel;
+	private Charset charset = Charset.defaultCharset();
+	private Listener listener;
+	private Thread indexer;
+
+	private volatile long[] pageOffsets = new long[1024];
+	private volatile long indexedEnd;
+	private volatile int size;
+	private volatile boolean indexComplete;
+	private volatile IOException indexError;
+
+	private StringDictionary dictionary = new StringDictionary(DICTIONARY_SIZE);
+	private Map<Integer, Video[]> cache;
+	private BitSet unreadableRows = new BitSet();
+
+	/**
+	 * Listener told as the index grows.  Called on the index thread.
+	 */
+	public interface Listener {
+		/**
+		 * More videos were indexed.
+		 *
+		 * @param firstRow - the index position of the first new video
+		 * @param lastRow - the index position of the last new video
+		 * @param complete - true if the whole file is now indexed
+		 */
+		void rowsIndexed(int firstRow, int lastRow, boolean complete);
+
+		/**
+		 * A line read is not a valid video, and was read as a placeholder.
+		 * Told once for each line, on the thread reading the video.
+		 *
+		 * @param row - the index position of the video
+		 * @param e - what is wrong with the line
+		 */
+		void rowUnreadable(int row, VideoFormatException e);
+	}
+
+	/**
+	 * Constructor.  Starts building the index in the background.
+	 *
+	 * @param fileName - the name of the file holding the videos
+	 * @param cachePages - the number of pages of videos kept in memory
+	 * @param listener - told as the index grows, may be null
+	 * @throws IOException if the file can not be opened or is compressed
+	 */
+	public PagedVideoList(String fileName, final int cachePages, Listener listener)
+			throws IOException {
+		if (VideoReader.isCompressed(fileName)) {
+			throw new IOException(fileName + " is compressed and can not be paged");
+		}
+
+		this.listener = listener;
+		channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+
+		cache = new LinkedHashMap<Integer, Video[]>(cachePages * 4 / 3 + 1, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Video[]> eldest) {
+				return size() > cachePages;
+			}
+		};
+
+		indexer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				buildIndex();
+			}
+		}, "Index " + fileName);
+		indexer.setDaemon(true);
+		indexer.start();
+	}
+
+	/**
+	 * Scan the file for line feeds, recording the offset of the first line
+	 * of every page.  Empty lines are skipped, as VideoReader skips them.
+	 * Runs on the index thread.
+	 */
+	private void buildIndex() {
+		ByteBuffer buffer = ByteBuffer.allocate(SCAN_SIZE);
+		long[] offsets = pageOffsets;
+		int rows = 0;
+		int published = 0;
+		long lastPublish = System.nanoTime();
+		long pos = 0;
+		long lineStart = 0;
+		boolean content = false;
+
+		try {
+			while (true) {
+				buffer.clear();
+				int n = channel.read(buffer, pos);
+				if (n < 0) {
+					break;
+				}
+
+				byte[] bytes = buffer.array();
+				for (int i = 0; i < n; i++) {
+					byte b = bytes[i];
+					if (b == '\n') {
+						if (content) {
+							if (rows % PAGE_SIZE == 0) {
+								offsets = addOffset(offsets, rows / PAGE_SIZE, lineStart);
+							}
+							rows++;
+							indexedEnd = pos + i + 1;
+						}
+						lineStart = pos + i + 1;
+						content = false;
+					} else if (b != '\r') {
+						content = true;
+					}
+				}
+				pos += n;
+
+				if (System.nanoTime() - lastPublish > PUBLISH_INTERVAL) {
+					publish(published, rows, false);
+					published = rows;
+					lastPublish = System.nanoTime();
+				}
+			}
+
+			if (content) {
+				if (rows % PAGE_SIZE == 0) {
+					offsets = addOffset(offsets, rows / PAGE_SIZE, lineStart);
+				}
+				rows++;
+				indexedEnd = pos;
+			}
+		} catch (IOException e) {
+			indexError = e;
+		}
+
+		indexComplete = true;
+		publish(published, rows, true);
+	}
+
+	/**
+	 * Record the offset of a page, growing the offsets when full.  A grown
+	 * array is published before the size covering its new pages.
+	 */
+	private long[] addOffset(long[] offsets, int page, long offset) {
+		if (page == offsets.length) {
+			long[] larger = new long[offsets.length * 2];
+			System.arraycopy(offsets, 0, larger, 0, offsets.length);
+			offsets = larger;
+		}
+		offsets[page] = offset;
+		pageOffsets = offsets;
+		return offsets;
+	}
+
+	private void publish(int from, int to, boolean complete) {
+		size = to;
+		if (listener != null && (to > from || complete)) {
+			listener.rowsIndexed(from, to - 1, complete);
+		}
+	}
+
+	/**
+	 * Check whether the whole file has been indexed.
+	 *
+	 * @return true if the index is complete, so size() is exact
+	 */
+	public boolean isIndexComplete() {
+		return indexComplete;
+	}
+
+	/**
+	 * Wait for the whole file to be indexed.
+	 *
+	 * @throws IOException if the file could not be read
+	 * @throws InterruptedException
+	 */
+	public void awaitIndex() throws IOException, InterruptedException {
+		indexer.join();
+		if (indexError != null) {
+			throw indexError;
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Video get(int index) {
+		int noRows = size;
+		if (index < 0 || index >= noRows) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + noRows);
+		}
+
+		int page = index / PAGE_SIZE;
+		Video[] videos;
+
+		synchronized (cache) {
+			videos = cache.get(page);
+		}
+
+		if (videos == null || index % PAGE_SIZE >= videos.length) {
+			try {
+				videos = readPage(page, noRows);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		return videos[index % PAGE_SIZE];
+	}
+
+	/**
+	 * Read and parse one page of videos.  A full page is cached; the last
+	 * page is not cached until the index is complete, as it may still grow.
+	 * Bytes not valid in the charset are replaced, as VideoReader replaces
+	 * them, so a line holding one is read, or read as a placeholder.
+	 *
+	 * @param page - the number of the page
+	 * @param noRows - the number of videos indexed
+	 * @return the videos of the page
+	 * @throws IOException
+	 */
+	private Video[] readPage(int page, int noRows) throws IOException {
+		long[] offsets = pageOffsets;
+		boolean complete = indexComplete;
+		int count = Math.min(PAGE_SIZE, noRows - page * PAGE_SIZE);
+		long start = offsets[page];
+		long end = (page + 1) * PAGE_SIZE < noRows ? offsets[page + 1] : indexedEnd;
+
+		ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+		while (bytes.hasRemaining()) {
+			if (channel.read(bytes, start + bytes.position()) < 0) {
+				throw new IOException("The file was truncated while it was being read");
+			}
+		}
+		bytes.flip();
+
+		CharBuffer chars = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE)
+				.decode(bytes);
+		char[] buf = chars.array();
+		int length = chars.arrayOffset() + chars.limit();
+		int lineStart = chars.arrayOffset();
+
+		VideoReader.LineParser parser = new VideoReader.LineParser();
+		parser.setDictionary(dictionary);
+		Video[] videos = new Video[count];
+		int row = 0;
+
+		while (row < count && lineStart < length) {
+			int lineEnd = lineStart;
+			while (lineEnd < length && buf[lineEnd] != '\n') {
+				lineEnd++;
+			}
+
+			int next = lineEnd + 1;
+			while (lineEnd > lineStart && buf[lineEnd - 1] == '\r') {
+				lineEnd--;
+			}
+			if (lineEnd > lineStart) {
+				try {
+					videos[row] = parser.parse(buf, lineStart, lineEnd);
+				} catch (VideoFormatException e) {
+					videos[row] = unreadable(page * PAGE_SIZE + row, e);
+				}
+				row++;
+			}
+			lineStart = next;
+		}
+
+		if (count == PAGE_SIZE || complete) {
+			synchronized (cache) {
+				cache.put(page, videos);
+			}
+		}
+
+		return videos;
+	}
+
+	/**
+	 * Make the placeholder for a line that is not a valid video, telling the
+	 * listener the first time the line is read.
+	 */
+	private Video unreadable(int row, VideoFormatException e) {
+		boolean first;
+		synchronized (unreadableRows) {
+			first = !unreadableRows.get(row);
+			unreadableRows.set(row);
+		}
+		if (first && listener != null) {
+			listener.rowUnreadable(row, e);
+		}
+		return new Video("", "Unreadable: " + e.getMessage(), 0, 0, "", false);
+	}
+
+	/**
+	 * Get the number of lines read so far that are not valid videos.
+	 *
+	 * @return the number of placeholder videos read
+	 */
+	public int getNoUnreadableRows() {
+		synchronized (unreadableRows) {
+			return unreadableRows.cardinality();
+		}
+	}
+
+	/**
+	 * Stop indexing and close the file.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		indexer.interrupt();
+		channel.close();
+	}
+}
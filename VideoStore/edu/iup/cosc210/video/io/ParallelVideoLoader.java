@@ -0,0 +1,507 @@
+package edu.iup.cosc210.video.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import edu.iup.cosc210.video.bo.Video;
+
+/**
+ * Helper class to load all videos from a comma separated file in parallel.
+ * The file is memory mapped, cut into chunks on line boundaries and the
+ * chunks are parsed on a ForkJoin pool.  The videos are returned in the
+ * same order as they appear in the file.  A compressed file can not be
+ * mapped; it is read by a VideoReader, which decompresses ahead of the
+ * parser.  Given an ImportReport, lines that are not valid videos are left
+ * out and reported instead of failing the load.  Titles and ratings met
+ * more than once are held as one string, shared through a StringDictionary.
+ *
+ * @author dtsmith
+ *
+ */
+public class ParallelVideoLoader {
+	private static final int MIN_CHUNK_SIZE = 1 << 20;
+	private static final int MAX_CHUNK_SIZE = 64 << 20;
+	private static final int SCAN_SIZE = 8 << 10;
+
+	private ForkJoinPool pool;
+	private Charset charset = Charset.defaultCharset();
+	private StringDictionary dictionary;
+
+	/**
+	 * Constructor.  Chunks are parsed on the common ForkJoin pool.
+	 */
+	public ParallelVideoLoader() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param pool - the ForkJoin pool on which chunks are parsed
+	 */
+	public ParallelVideoLoader(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Share the titles and ratings of all videos loaded through a
+	 * dictionary, across loads and with other loaders using it.  By default
+	 * each load shares them through a dictionary of its own.
+	 *
+	 * @param dictionary - the dictionary
+	 */
+	public void setDictionary(StringDictionary dictionary) {
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * Get the dictionary for a load: the one set, or a new one.
+	 */
+	private StringDictionary dictionaryForLoad() {
+		return dictionary != null ? dictionary : new StringDictionary();
+	}
+
+	/**
+	 * Load all videos from a comma separated file.
+	 *
+	 * @param fileName - the name of the file from which to load videos
+	 * @return the videos in file order
+	 * @throws IOException
+	 * @throws VideoFormatException if a line is not a valid video
+	 */
+	public List<Video> load(String fileName) throws IOException {
+		return load(fileName, null);
+	}
+
+	/**
+	 * Load the valid videos from a comma separated file, leaving out the
+	 * lines that are not valid videos.  The lines left out are added to the
+	 * report with their line number, the column at fault and the reason.
+	 *
+	 * @param fileName - the name of the file from which to load videos
+	 * @param report - the report of the lines left out, or null to throw
+	 * VideoFormatException on the first bad line
+	 * @return the valid videos in file order
+	 * @throws IOException
+	 */
+	public List<Video> load(String fileName, ImportReport report) throws IOException {
+		List<Video> videos;
+
+		StringDictionary dictionary = dictionaryForLoad();
+		if (VideoReader.isCompressed(fileName)) {
+			videos = loadSequential(fileName, report, dictionary);
+		} else {
+			videos = loadParallel(fileName, report, dictionary);
+		}
+
+		if (report != null) {
+			report.setNoImported(videos.size());
+		}
+		return videos;
+	}
+
+	private List<Video> loadParallel(String fileName, ImportReport report,
+			StringDictionary dictionary) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(fileName),
+				StandardOpenOption.READ);
+
+		try {
+			List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+			Chunk[] chunks = createChunkTasks(channel, report != null, dictionary, tasks);
+
+			pool.invoke(new LoadTask(tasks));
+
+			return joinChunks(chunks, report);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Load all videos from several comma separated files at once.  The
+	 * chunks of all files are parsed together on the pool, so small files
+	 * are loaded side by side and large ones are still cut into chunks.
+	 *
+	 * @param fileNames - the names of the files from which to load videos
+	 * @return the videos of each file in file order, in the order of the
+	 * file names
+	 * @throws IOException
+	 * @throws VideoFormatException if a line is not a valid video
+	 */
+	public List<List<Video>> loadAll(List<String> fileNames) throws IOException {
+		int noFiles = fileNames.size();
+		FileChannel[] channels = new FileChannel[noFiles];
+		Chunk[][] chunks = new Chunk[noFiles][];
+		List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+		StringDictionary dictionary = dictionaryForLoad();
+
+		try {
+			for (int i = 0; i < noFiles; i++) {
+				String fileName = fileNames.get(i);
+
+				if (VideoReader.isCompressed(fileName)) {
+					chunks[i] = new Chunk[] { new Chunk(false, dictionary) };
+					tasks.add(new SequentialTask(fileName, chunks[i][0]));
+				} else {
+					channels[i] = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+					chunks[i] = createChunkTasks(channels[i], false, dictionary, tasks);
+				}
+			}
+
+			pool.invoke(new LoadTask(tasks));
+
+			List<List<Video>> videos = new ArrayList<List<Video>>(noFiles);
+			for (int i = 0; i < noFiles; i++) {
+				videos.add(joinChunks(chunks[i], null));
+			}
+			return videos;
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			for (FileChannel channel : channels) {
+				if (channel != null) {
+					channel.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create the tasks parsing the chunks of a file.
+	 *
+	 * @param channel - the file being loaded
+	 * @param tolerant - true to report bad lines instead of failing
+	 * @param dictionary - the dictionary sharing titles and ratings
+	 * @param tasks - the list to which the tasks are added
+	 * @return the chunks filled in by the tasks
+	 * @throws IOException
+	 */
+	private Chunk[] createChunkTasks(FileChannel channel, boolean tolerant,
+			StringDictionary dictionary, List<RecursiveAction> tasks) throws IOException {
+		long[] bounds = findChunkBounds(channel);
+		int noChunks = bounds.length - 1;
+		Chunk[] chunks = new Chunk[noChunks];
+
+		for (int i = 0; i < noChunks; i++) {
+			chunks[i] = new Chunk(tolerant, dictionary);
+			tasks.add(new ChunkTask(channel, bounds[i], bounds[i + 1], chunks[i]));
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * Join the videos of the parsed chunks of a file, numbering the bad lines
+	 * from the start of the file.
+	 */
+	private static List<Video> joinChunks(Chunk[] chunks, ImportReport report) {
+		int total = 0;
+		for (Chunk chunk : chunks) {
+			total += chunk.videos.size();
+		}
+
+		List<Video> videos = new ArrayList<Video>(total);
+		int firstLineNo = 0;
+		for (Chunk chunk : chunks) {
+			videos.addAll(chunk.videos);
+			if (report != null) {
+				report.addBadLines(chunk.badLines, chunk.noBadLines, firstLineNo);
+			}
+			firstLineNo += chunk.noLines;
+		}
+
+		return videos;
+	}
+
+	private List<Video> loadSequential(String fileName, ImportReport report,
+			StringDictionary dictionary) throws IOException {
+		List<Video> videos = new ArrayList<Video>();
+		VideoReader in = new VideoReader(fileName);
+		in.setDictionary(dictionary);
+
+		try {
+			while (true) {
+				try {
+					Video video = in.readVideo();
+					if (video == null) {
+						break;
+					}
+					videos.add(video);
+				} catch (VideoFormatException e) {
+					if (report == null) {
+						throw e;
+					}
+					report.addBadLine(new ImportReport.BadLine(in.getLineNo(), e, in.getLastLine()));
+				}
+			}
+		} finally {
+			in.close();
+		}
+
+		return videos;
+	}
+
+	/**
+	 * Cut the file into chunks of roughly equal size.  Every chunk, other than
+	 * the last, ends just after a line feed.
+	 *
+	 * @param channel - the file being loaded
+	 * @return the chunk boundaries, the first is 0 and the last is the file size
+	 * @throws IOException
+	 */
+	private long[] findChunkBounds(FileChannel channel) throws IOException {
+		long size = channel.size();
+		long target = size / (pool.getParallelism() * 4L);
+		long chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, target));
+
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+
+		ByteBuffer scan = ByteBuffer.allocate(SCAN_SIZE);
+		long pos = chunkSize;
+
+		while (pos < size) {
+			long end = findLineEnd(channel, pos, scan);
+			if (end >= size) {
+				break;
+			}
+			bounds.add(end);
+			pos = end + chunkSize;
+		}
+		bounds.add(size);
+
+		long[] result = new long[bounds.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = bounds.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Find the position just after the first line feed at or after a position.
+	 *
+	 * @param channel - the file being loaded
+	 * @param pos - the position at which to start looking
+	 * @param scan - a scratch buffer
+	 * @return the position following the line feed, or the file size if none
+	 * @throws IOException
+	 */
+	private long findLineEnd(FileChannel channel, long pos, ByteBuffer scan)
+			throws IOException {
+		while (true) {
+			scan.clear();
+			int n = channel.read(scan, pos);
+			if (n <= 0) {
+				return channel.size();
+			}
+			for (int i = 0; i < n; i++) {
+				if (scan.get(i) == '\n') {
+					return pos + i + 1;
+				}
+			}
+			pos += n;
+		}
+	}
+
+	/**
+	 * Runs all chunk tasks, waiting for them to complete.
+	 */
+	private static class LoadTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private List<RecursiveAction> tasks;
+
+		LoadTask(List<RecursiveAction> tasks) {
+			this.tasks = tasks;
+		}
+
+		@Override
+		protected void compute() {
+			ForkJoinTask.invokeAll(tasks);
+		}
+	}
+
+	/**
+	 * Maps and parses one chunk of the file.  Bytes that are not valid in
+	 * the charset are replaced, as the InputStreamReader of VideoReader
+	 * replaces them.  When bad lines are tolerated, the lines holding such
+	 * bytes are reported as bad lines instead.
+	 */
+	private class ChunkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private FileChannel channel;
+		private long start;
+		private long end;
+		private Chunk chunk;
+
+		ChunkTask(FileChannel channel, long start, long end, Chunk chunk) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+			this.chunk = chunk;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY,
+						start, end - start);
+				CharBuffer chars;
+				if (chunk.tolerant) {
+					try {
+						chars = charset.newDecoder().decode(bytes);
+					} catch (CharacterCodingException e) {
+						bytes.rewind();
+						chars = replacingDecode(bytes);
+						chunk.replaced = true;
+					}
+				} else {
+					chars = replacingDecode(bytes);
+				}
+
+				chunk.parseLines(chars);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Decode bytes, replacing those not valid in the charset.
+	 */
+	private CharBuffer replacingDecode(ByteBuffer bytes) throws CharacterCodingException {
+		return charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE)
+				.decode(bytes);
+	}
+
+	/**
+	 * Reads a compressed file, which can not be cut into chunks, as a single
+	 * chunk.
+	 */
+	private class SequentialTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private String fileName;
+		private Chunk chunk;
+
+		SequentialTask(String fileName, Chunk chunk) {
+			this.fileName = fileName;
+			this.chunk = chunk;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				chunk.videos = loadSequential(fileName, null, chunk.dictionary);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * The result of parsing one chunk: its videos in order and, when bad
+	 * lines are tolerated, the bad lines numbered from the start of the chunk.
+	 */
+	private static class Chunk {
+		private boolean tolerant;
+		private boolean replaced;
+		private StringDictionary dictionary;
+		private List<Video> videos = new ArrayList<Video>();
+		private List<ImportReport.BadLine> badLines = new ArrayList<ImportReport.BadLine>();
+		private int noBadLines;
+		private int noLines;
+
+		Chunk(boolean tolerant, StringDictionary dictionary) {
+			this.tolerant = tolerant;
+			this.dictionary = dictionary;
+		}
+
+		/**
+		 * Parse every line held in a buffer.  Empty lines are skipped.
+		 *
+		 * @param chars - the decoded chunk
+		 */
+		void parseLines(CharBuffer chars) {
+			VideoReader.LineParser parser = new VideoReader.LineParser();
+			parser.setDictionary(dictionary);
+			char[] buf = chars.array();
+			int length = chars.arrayOffset() + chars.limit();
+			int lineStart = chars.arrayOffset();
+
+			while (lineStart < length) {
+				int lineEnd = lineStart;
+				while (lineEnd < length && buf[lineEnd] != '\n') {
+					lineEnd++;
+				}
+
+				int next = lineEnd + 1;
+				noLines++;
+				if (lineEnd > lineStart && buf[lineEnd - 1] == '\r') {
+					lineEnd--;
+				}
+				if (lineEnd > lineStart) {
+					try {
+						Video video = parser.parse(buf, lineStart, lineEnd);
+						if (replaced) {
+							checkEncoding(buf, lineStart, lineEnd);
+						}
+						videos.add(video);
+					} catch (VideoFormatException e) {
+						if (!tolerant) {
+							throw e;
+						}
+						noBadLines++;
+						if (badLines.size() < ImportReport.MAX_BAD_LINES) {
+							badLines.add(new ImportReport.BadLine(noLines, e,
+									new String(buf, lineStart, lineEnd - lineStart)));
+						}
+					}
+				}
+				lineStart = next;
+			}
+		}
+
+		/**
+		 * Check that a line holds no character put by the decoder in place
+		 * of bytes not valid in the charset.
+		 *
+		 * @throws VideoFormatException naming the column holding one
+		 */
+		private static void checkEncoding(char[] buf, int start, int end) {
+			int column = 1;
+			boolean quoted = false;
+
+			for (int i = start; i < end; i++) {
+				if (buf[i] == '"') {
+					quoted = !quoted;
+				} else if (buf[i] == ',' && !quoted) {
+					column++;
+				} else if (buf[i] == '\uFFFD') {
+					throw new VideoFormatException("Bytes not valid in the character set",
+							column);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,159 @@
+package edu.iup.cosc210.video.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Input stream reading its source on a background thread, a few blocks
+ * ahead of the consumer.  Used to run decompression as a pipeline stage
+ * ahead of the parser, so the two overlap instead of taking turns.
+ *
+ * @author dtsmith
+ *
+ */
+public class ReadAheadInputStream extends InputStream {
+	private static final int BLOCK_SIZE = 64 << 10;
+	private static final int BLOCKS_AHEAD = 4;
+	private static final byte[] END = new byte[0];
+
+	private InputStream source;
+	private BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<byte[]>(BLOCKS_AHEAD);
+	private Thread reader;
+	private volatile boolean closed;
+	private volatile IOException error;
+
+	private byte[] block;
+	private int blockLength;
+	private int pos;
+
+	/**
+	 * Constructor.  Starts reading the source right away.
+	 *
+	 * @param source - the stream to be read ahead
+	 * @param name - the name of the background thread
+	 */
+	public ReadAheadInputStream(InputStream source, String name) {
+		this.source = source;
+
+		reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readAhead();
+			}
+		}, name);
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Read the source into blocks until its end, an error, or close.
+	 * Runs on the background thread.
+	 */
+	private void readAhead() {
+		try {
+			while (!closed) {
+				byte[] buffer = new byte[BLOCK_SIZE];
+				int length = 0;
+				int n = 0;
+
+				while (length < BLOCK_SIZE && (n = source.read(buffer, length, BLOCK_SIZE - length)) > 0) {
+					length += n;
+				}
+
+				if (length > 0) {
+					if (length < BLOCK_SIZE) {
+						byte[] shorter = new byte[length];
+						System.arraycopy(buffer, 0, shorter, 0, length);
+						buffer = shorter;
+					}
+					put(buffer);
+				}
+				if (n < 0) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			error = e;
+		} catch (InterruptedException e) {
+			return;
+		}
+
+		try {
+			put(END);
+		} catch (InterruptedException e) {
+			// closed
+		}
+	}
+
+	private void put(byte[] buffer) throws InterruptedException {
+		while (!closed && !blocks.offer(buffer, 100, TimeUnit.MILLISECONDS)) {
+			// wait for the consumer, checking for close
+		}
+	}
+
+	/**
+	 * Make sure there is an unread byte in the current block.
+	 *
+	 * @return false at the end of the source
+	 * @throws IOException if the source could not be read
+	 */
+	private boolean nextBlock() throws IOException {
+		while (block != END && pos == blockLength) {
+			try {
+				block = blocks.take();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			blockLength = block.length;
+			pos = 0;
+		}
+
+		if (block == END) {
+			if (error != null) {
+				throw error;
+			}
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!nextBlock()) {
+			return -1;
+		}
+		return block[pos++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!nextBlock()) {
+			return -1;
+		}
+
+		int n = Math.min(len, blockLength - pos);
+		System.arraycopy(block, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return block == null || block == END ? 0 : blockLength - pos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		reader.interrupt();
+		blocks.clear();
+		source.close();
+	}
+}
@@ -0,0 +1,255 @@
+package edu.iup.cosc210.video.io;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded dictionary sharing one String among the videos for each title and
+ * rating met while loading, instead of a String per line.  A catalog holds a
+ * handful of ratings and, once merged from several stores, many titles more
+ * than once.  Text is looked up straight from the buffer being parsed, so a
+ * string already in the dictionary is found without creating one.
+ *
+ * <p>
+ * The dictionary is an open addressing hash table of fixed size filled
+ * with compare and set, so any number of threads can parse into it without
+ * locking.  It holds at most maxEntries strings; once full, new text is
+ * still returned as a new string but is not added, so a dictionary never
+ * grows past its bound.  Counters tell how many lookups found a string and
+ * about how many bytes of strings were not created as a result.
+ *
+ * @author dtsmith
+ *
+ */
+public class StringDictionary {
+	public static final int DEFAULT_MAX_ENTRIES = 1 << 16;
+	private static final int MAX_PROBES = 16;
+	private static final int STRING_BYTES = 24;
+	private static final int ARRAY_HEADER_BYTES = 16;
+
+	private AtomicReferenceArray<String> table;
+	private int shift;
+	private int maxEntries;
+	private AtomicInteger noEntries = new AtomicInteger();
+	private LongAdder noLookups = new LongAdder();
+	private LongAdder noHits = new LongAdder();
+	private LongAdder bytesSaved = new LongAdder();
+
+	/**
+	 * Constructor.  The dictionary holds up to DEFAULT_MAX_ENTRIES strings.
+	 */
+	public StringDictionary() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxEntries - the most strings held
+	 */
+	public StringDictionary(int maxEntries) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("maxEntries must be positive");
+		}
+		this.maxEntries = maxEntries;
+		int entries = Math.min(maxEntries, 1 << 29);
+		int size = Integer.highestOneBit(entries * 2 - 1) << 1;
+		table = new AtomicReferenceArray<String>(size);
+		shift = 32 - Integer.numberOfTrailingZeros(size);
+	}
+
+	/**
+	 * Get the string held for some characters, adding a new string if there
+	 * is none and the dictionary is not full.
+	 *
+	 * @param buf - the buffer holding the characters
+	 * @param start - the index of the first character
+	 * @param length - the number of characters
+	 * @return a string equal to the characters
+	 */
+	public String intern(char[] buf, int start, int length) {
+		int hash = 0;
+		for (int i = start; i < start + length; i++) {
+			hash = 31 * hash + buf[i];
+		}
+
+		noLookups.increment();
+		int mask = table.length() - 1;
+		int slot = slot(hash);
+		String created = null;
+
+		for (int probe = 0; probe < MAX_PROBES; probe++) {
+			String held = table.get(slot);
+
+			if (held == null) {
+				if (created == null) {
+					created = new String(buf, start, length);
+				}
+				if (!reserve()) {
+					return created;
+				}
+				if (table.compareAndSet(slot, null, created)) {
+					return created;
+				}
+				noEntries.decrementAndGet();
+				held = table.get(slot);
+			}
+
+			if (held.hashCode() == hash && matches(held, buf, start, length)) {
+				hit(length);
+				return held;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		return created != null ? created : new String(buf, start, length);
+	}
+
+	/**
+	 * Get the string held equal to a string, adding the string if there is
+	 * none and the dictionary is not full.
+	 *
+	 * @param text - the string, may be null
+	 * @return the string held, or text itself
+	 */
+	public String intern(String text) {
+		if (text == null) {
+			return null;
+		}
+
+		int hash = text.hashCode();
+		noLookups.increment();
+		int mask = table.length() - 1;
+		int slot = slot(hash);
+
+		for (int probe = 0; probe < MAX_PROBES; probe++) {
+			String held = table.get(slot);
+
+			if (held == null) {
+				if (!reserve()) {
+					return text;
+				}
+				if (table.compareAndSet(slot, null, text)) {
+					return text;
+				}
+				noEntries.decrementAndGet();
+				held = table.get(slot);
+			}
+
+			if (held.hashCode() == hash && held.equals(text)) {
+				if (held != text) {
+					hit(text.length());
+				}
+				return held;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return text;
+	}
+
+	/**
+	 * Get the first slot for a hash.  Hashes of short strings differing in
+	 * their last characters are close together, so the hash is spread over
+	 * the table by multiplying before taking its top bits.
+	 */
+	private int slot(int hash) {
+		return (hash * 0x9E3779B9) >>> shift;
+	}
+
+	private static boolean matches(String held, char[] buf, int start, int length) {
+		if (held.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (held.charAt(i) != buf[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Count an entry about to be added, unless the dictionary is full.
+	 */
+	private boolean reserve() {
+		while (true) {
+			int n = noEntries.get();
+			if (n >= maxEntries) {
+				return false;
+			}
+			if (noEntries.compareAndSet(n, n + 1)) {
+				return true;
+			}
+		}
+	}
+
+	private void hit(int length) {
+		noHits.increment();
+		bytesSaved.add(STRING_BYTES + ((ARRAY_HEADER_BYTES + 2 * length + 7) & ~7));
+	}
+
+	/**
+	 * Get the number of strings held.
+	 *
+	 * @return the number of strings held
+	 */
+	public int getNoEntries() {
+		return noEntries.get();
+	}
+
+	/**
+	 * Get the most strings held.
+	 *
+	 * @return the bound on the number of strings held
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Get the number of lookups made.
+	 *
+	 * @return the number of lookups
+	 */
+	public long getNoLookups() {
+		return noLookups.sum();
+	}
+
+	/**
+	 * Get the number of lookups that found a string already held.
+	 *
+	 * @return the number of hits
+	 */
+	public long getNoHits() {
+		return noHits.sum();
+	}
+
+	/**
+	 * Get the share of the lookups that found a string already held.
+	 *
+	 * @return the hit rate, from 0 to 1
+	 */
+	public double getHitRate() {
+		long lookups = noLookups.sum();
+		return lookups == 0 ? 0 : (double) noHits.sum() / lookups;
+	}
+
+	/**
+	 * Get about how many bytes of strings were not kept because an equal
+	 * string was shared instead, counting a String object and its char
+	 * array for each hit.
+	 *
+	 * @return the estimated bytes saved
+	 */
+	public long getBytesSaved() {
+		return bytesSaved.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d strings, %d of %d lookups hit (%.1f%%), about %d bytes saved",
+				getNoEntries(), getNoHits(), getNoLookups(), 100 * getHitRate(),
+				getBytesSaved());
+	}
+}
@@ -0,0 +1,45 @@
+package edu.iup.cosc210.video.io;
+
+/**
+ * Thrown when a line of a comma separated video file can not be parsed
+ * into a video.  Tells which column is wrong and why.
+ *
+ * @author dtsmith
+ *
+ */
+public class VideoFormatException extends IllegalArgumentException {
+	private static final long serialVersionUID = 1L;
+
+	private String reason;
+	private int column;
+
+	/**
+	 * Constructor
+	 *
+	 * @param reason - what is wrong with the column
+	 * @param column - the number of the column, starting at 1
+	 */
+	public VideoFormatException(String reason, int column) {
+		super(reason + " in column " + column);
+		this.reason = reason;
+		this.column = column;
+	}
+
+	/**
+	 * Get what is wrong with the column.
+	 *
+	 * @return the reason the line could not be parsed
+	 */
+	public String getReason() {
+		return reason;
+	}
+
+	/**
+	 * Get the column that could not be parsed.
+	 *
+	 * @return the number of the column, starting at 1
+	 */
+	public int getColumn() {
+		return column;
+	}
+}
@@ -0,0 +1,517 @@
+package edu.iup.cosc210.video.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.iup.cosc210.video.bo.CatalogListener;
+import edu.iup.cosc210.video.bo.Video;
+import edu.iup.cosc210.video.bo.VideoField;
+
+/**
+ * Append-only journal of the changes made to a catalog since it was last
+ * saved in full.  Each change is written as one line as soon as it is made,
+ * so saving the catalog costs the size of the changes instead of the size of
+ * the catalog, and changes survive a crash between full saves.  The journal
+ * is replayed over the saved catalog on startup and emptied when the catalog
+ * is compacted into a full save.
+ *
+ * <p>
+ * Records, one per line, in UTF-8:
+ *
+ * <pre>
+ * A,&lt;video as written by VideoWriter&gt;   video added
+ * D,&lt;vid&gt;                              video removed
+ * U,&lt;vid&gt;,&lt;field&gt;,&lt;value&gt;            field of a video changed
+ * U,&lt;vid&gt;,&lt;field&gt;                    field of a video set to null
+ * B                                  start of a batch
+ * C                                  end of a batch
+ * </pre>
+ *
+ * Vids and text values are quoted as VideoWriter quotes them.  The records
+ * of a batch, the changes made between beginBatch and
+ * endBatch, are written at once between a B and a C record, and are only
+ * replayed if the C record was written: a crash while a batch is written
+ * leaves none of it.
+ *
+ * Replaying a record is idempotent (adding an existing vid updates it,
+ * removing a missing vid does nothing), so replaying a journal over a
+ * catalog that already holds some of its changes is safe.  This lets
+ * compaction rotate the journal aside while the catalog is written out,
+ * new changes going to a fresh journal, and delete the rotated journal
+ * once the catalog is saved.  A record that can not be written, say on a
+ * full disk, is not thrown from the setter that made the change; sync
+ * throws it and getLastError tells it until the catalog is saved in full.
+ *
+ * <p>
+ * Records find their video by vid, the first video with the vid when
+ * several have it.  A change to a video whose vid another video has too
+ * can not be recorded so it replays on that video, so the catalog calls
+ * dropUntilSaved instead, and records are dropped until the catalog is
+ * saved in full.  The methods of a journal are thread safe.
+ *
+ * @author dtsmith
+ *
+ */
+public class VideoJournal implements CatalogListener {
+	public static final String ROTATED_EXTENSION = ".old";
+
+	private File file;
+	private File rotatedFile;
+	private FileOutputStream output;
+	private int noRecords;
+	private StringBuilder line = new StringBuilder();
+	private StringBuilder batch = new StringBuilder();
+	private int batchDepth;
+	private int batchRecords;
+	private IOException failure;
+	private IOException rotatedFailure;
+	private boolean dropping;
+	private boolean rotatedDropping;
+
+	/**
+	 * Constructor.  The journal file is created when the first change is
+	 * recorded.
+	 *
+	 * @param fileName - the name of the journal file
+	 */
+	public VideoJournal(String fileName) {
+		file = new File(fileName);
+		rotatedFile = new File(fileName + ROTATED_EXTENSION);
+	}
+
+	/**
+	 * Replay the journal over a list of videos.  A journal rotated aside by
+	 * a compaction that did not finish is replayed first.  The videos in the
+	 * list are updated in place.  The list is read once, so a list making a
+	 * new view of a video on each get, such as the columnar videos of a
+	 * VideoManager, can be replayed over.  A torn record left at the end of a journal
+	 * by a crash is dropped.
+	 *
+	 * @param videos - the videos as last saved in full
+	 * @return the videos with the changes of the journal applied, the given
+	 * list if the journal is empty
+	 * @throws IOException if the journal can not be read or is corrupt
+	 */
+	public synchronized List<Video> replay(List<Video> videos) throws IOException {
+		String rotated = readRecords(rotatedFile);
+		String current = readRecords(file);
+
+		if (rotated.isEmpty() && current.isEmpty()) {
+			return videos;
+		}
+
+		List<Video> saved = new ArrayList<Video>(videos);
+		Map<String, Video> byVid = new HashMap<String, Video>();
+		for (Video video : saved) {
+			if (!byVid.containsKey(video.getVid())) {
+				byVid.put(video.getVid(), video);
+			}
+		}
+
+		List<Video> added = new ArrayList<Video>();
+		Map<Video, Boolean> removed = new IdentityHashMap<Video, Boolean>();
+
+		apply(rotatedFile, rotated, byVid, added, removed);
+		apply(file, current, byVid, added, removed);
+
+		List<Video> result = new ArrayList<Video>(saved.size() + added.size());
+		for (Video video : saved) {
+			if (!removed.containsKey(video)) {
+				result.add(video);
+			}
+		}
+		for (Video video : added) {
+			if (!removed.containsKey(video)) {
+				result.add(video);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Read the complete records of a journal file, truncating a torn record
+	 * from its end.
+	 *
+	 * @param file - the journal file
+	 * @return the records, each ending with a line feed
+	 * @throws IOException
+	 */
+	private static String readRecords(File file) throws IOException {
+		if (!file.exists()) {
+			return "";
+		}
+
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		int validEnd = 0;
+		for (int i = bytes.length - 1; i >= 0; i--) {
+			if (bytes[i] == '\n') {
+				validEnd = i + 1;
+				break;
+			}
+		}
+
+		if (validEnd < bytes.length) {
+			FileOutputStream truncate = new FileOutputStream(file, true);
+			try {
+				truncate.getChannel().truncate(validEnd);
+			} finally {
+				truncate.close();
+			}
+		}
+
+		return new String(bytes, 0, validEnd, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Apply the records read from a journal file.  The records of a batch
+	 * are held until its end; a batch the file ends in was torn by a crash,
+	 * and is truncated from the file.
+	 */
+	private void apply(File file, String text, Map<String, Video> byVid,
+			List<Video> added, Map<Video, Boolean> removed) throws IOException {
+		int lineNo = 0;
+		int start = 0;
+		List<String> held = null;
+		int heldFrom = 0;
+		int heldLineNo = 0;
+
+		while (start < text.length()) {
+			int end = text.indexOf('\n', start);
+			String record = text.substring(start, end);
+			lineNo++;
+
+			if (record.equals("B")) {
+				held = new ArrayList<String>();
+				heldFrom = start;
+				heldLineNo = lineNo;
+			} else if (record.equals("C") && held != null) {
+				for (int i = 0; i < held.size(); i++) {
+					apply(file, held.get(i), heldLineNo + 1 + i, byVid, added, removed);
+				}
+				held = null;
+			} else if (held != null) {
+				held.add(record);
+			} else {
+				apply(file, record, lineNo, byVid, added, removed);
+			}
+			start = end + 1;
+		}
+
+		if (held != null) {
+			FileOutputStream truncate = new FileOutputStream(file, true);
+			try {
+				truncate.getChannel().truncate(
+						text.substring(0, heldFrom).getBytes(StandardCharsets.UTF_8).length);
+			} finally {
+				truncate.close();
+			}
+		}
+	}
+
+	/**
+	 * Apply one record read from a journal file.
+	 */
+	private void apply(File file, String record, int lineNo, Map<String, Video> byVid,
+			List<Video> added, Map<Video, Boolean> removed) throws IOException {
+		try {
+			apply(record, byVid, added, removed);
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupt record at line " + lineNo + " of "
+					+ file + ": " + record, e);
+		}
+		noRecords++;
+	}
+
+	/**
+	 * Apply one record.
+	 */
+	private void apply(String record, Map<String, Video> byVid, List<Video> added,
+			Map<Video, Boolean> removed) {
+		char type = record.charAt(0);
+		String rest = record.substring(2);
+
+		if (type == 'A') {
+			Video video = VideoReader.parseVideo(rest);
+			Video existing = byVid.get(video.getVid());
+			if (existing != null) {
+				for (VideoField field : VideoField.values()) {
+					field.set(existing, field.get(video));
+				}
+			} else {
+				byVid.put(video.getVid(), video);
+				added.add(video);
+			}
+		} else if (type == 'D') {
+			List<String> columns = columns(rest, 1);
+			Video video = byVid.remove(columns.get(0));
+			if (video != null) {
+				removed.put(video, Boolean.TRUE);
+			}
+		} else if (type == 'U') {
+			List<String> columns = columns(rest, 2, 3);
+			Video video = byVid.get(columns.get(0));
+			VideoField field = VideoField.valueOf(columns.get(1));
+			Object value = columns.size() == 2 ? null : parseValue(field, columns.get(2));
+			if (value == null && field != VideoField.TITLE && field != VideoField.RATING) {
+				throw new IllegalArgumentException(field + " can not be null");
+			}
+			if (video != null) {
+				field.set(video, value);
+			}
+		} else {
+			throw new IllegalArgumentException("Unknown record type " + type);
+		}
+	}
+
+	/**
+	 * Split the columns of a record, checking their number.
+	 */
+	private static List<String> columns(String text, int min, int max) {
+		List<String> columns = new VideoReader.LineParser().columns(text.toCharArray(), 0,
+				text.length());
+		if (columns.size() < min || columns.size() > max) {
+			throw new IllegalArgumentException("Wrong number of columns: " + columns.size());
+		}
+		return columns;
+	}
+
+	private static List<String> columns(String text, int count) {
+		return columns(text, count, count);
+	}
+
+	private static Object parseValue(VideoField field, String value) {
+		switch (field) {
+		case RENTAL_RATE: return Double.valueOf(value);
+		case YEAR: return Integer.valueOf(value);
+		case NEW_RELEASE: return value.equals("T");
+		default: return value;
+		}
+	}
+
+	/**
+	 * Get the number of records in the journal.
+	 *
+	 * @return the number of records in the journal
+	 */
+	public synchronized int getNoRecords() {
+		return noRecords;
+	}
+
+	@Override
+	public synchronized void videoAdded(int index, Video video) {
+		line.setLength(0);
+		line.append("A,");
+		VideoWriter.appendVideo(line, video);
+		append();
+	}
+
+	@Override
+	public synchronized void videoRemoved(int index, Video video) {
+		line.setLength(0);
+		line.append("D,");
+		VideoWriter.appendText(line, video.getVid());
+		append();
+	}
+
+	@Override
+	public synchronized void videoChanged(Video video, VideoField field, Object oldValue) {
+		Object value = field.get(video);
+
+		line.setLength(0);
+		line.append("U,");
+		VideoWriter.appendText(line, video.getVid());
+		line.append(',').append(field.name());
+		if (value != null) {
+			line.append(',');
+			if (field == VideoField.NEW_RELEASE) {
+				line.append((Boolean) value ? "T" : "F");
+			} else if (value instanceof String) {
+				VideoWriter.appendText(line, (String) value);
+			} else {
+				line.append(value);
+			}
+		}
+		append();
+	}
+
+	/**
+	 * Start a batch: the changes recorded until the matching call to
+	 * endBatch are written at once and replayed all or not at all.  Batches
+	 * may be nested; the outermost batch is the unit.
+	 */
+	public synchronized void beginBatch() {
+		batchDepth++;
+	}
+
+	/**
+	 * End a batch started by beginBatch, writing its records.  Does nothing
+	 * if no batch was begun.
+	 */
+	public synchronized void endBatch() {
+		if (batchDepth == 0 || --batchDepth > 0) {
+			return;
+		}
+
+		if (batchRecords > 1) {
+			batch.insert(0, "B\n").append("C\n");
+		}
+		String records = batch.toString();
+		batch.setLength(0);
+		batchRecords = 0;
+		if (!records.isEmpty()) {
+			write(records);
+		}
+	}
+
+	/**
+	 * Write the record in line to the journal, or add it to the open batch.
+	 * The record is handed to the operating system right away, so it
+	 * survives the program crashing; sync forces it to the disk.
+	 */
+	private void append() {
+		line.append('\n');
+		noRecords++;
+		if (batchDepth > 0) {
+			batch.append(line);
+			batchRecords++;
+		} else {
+			write(line.toString());
+		}
+	}
+
+	/**
+	 * Write records to the journal file.  Records are written from the
+	 * setters of the videos, so a failure is not thrown but kept: the
+	 * journal no longer holds every change, and records are dropped until
+	 * the catalog is compacted into a full save.
+	 */
+	private void write(String records) {
+		if (failure != null || dropping) {
+			return;
+		}
+		try {
+			if (output == null) {
+				output = new FileOutputStream(file, true);
+			}
+			output.write(records.getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	/**
+	 * Drop the changes recorded from now on until the catalog is saved in
+	 * full, for a change the journal can not record so it replays on the
+	 * right video.
+	 */
+	public synchronized void dropUntilSaved() {
+		dropping = true;
+	}
+
+	/**
+	 * Check whether the journal missed changes, because dropUntilSaved was
+	 * called or a record could not be written, so only saving the catalog
+	 * in full keeps them.
+	 *
+	 * @return true if the catalog must be saved in full
+	 */
+	public synchronized boolean isFullSaveNeeded() {
+		return dropping || rotatedDropping || getLastError() != null;
+	}
+
+	/**
+	 * Get the error that made the journal miss changes, which stays until
+	 * the catalog holding them is saved in full.
+	 *
+	 * @return the error, or null if every change was written
+	 */
+	public synchronized IOException getLastError() {
+		return failure != null ? failure : rotatedFailure;
+	}
+
+	/**
+	 * Force the records written so far to the disk.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void sync() throws IOException {
+		if (failure != null) {
+			throw failure;
+		}
+		if (output != null) {
+			output.getFD().sync();
+		}
+	}
+
+	/**
+	 * Move the records written so far aside, so the catalog holding them can
+	 * be saved while new records go to a fresh journal.  If a rotated journal
+	 * is still there from a compaction that failed, the records are appended
+	 * to it.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void rotate() throws IOException {
+		close();
+		if (failure != null) {
+			rotatedFailure = failure;
+			failure = null;
+		}
+		if (dropping) {
+			rotatedDropping = true;
+			dropping = false;
+		}
+
+		if (!file.exists()) {
+			return;
+		}
+
+		if (!rotatedFile.exists()) {
+			Files.move(file.toPath(), rotatedFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} else {
+			FileOutputStream append = new FileOutputStream(rotatedFile, true);
+			try {
+				append.write(Files.readAllBytes(file.toPath()));
+				append.getFD().sync();
+			} finally {
+				append.close();
+			}
+			Files.delete(file.toPath());
+		}
+		noRecords = 0;
+	}
+
+	/**
+	 * Delete the journal moved aside by rotate.  Called once the catalog
+	 * holding all its changes has been saved in full.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void discardRotated() throws IOException {
+		Files.deleteIfExists(rotatedFile.toPath());
+		rotatedFailure = null;
+		rotatedDropping = false;
+	}
+
+	/**
+	 * Close the journal file.  A later change reopens it.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		if (output != null) {
+			output.close();
+			output = null;
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package edu.iup.cosc210.video.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiFunction;
+
+import edu.iup.cosc210.video.bo.MergePolicy;
+import edu.iup.cosc210.video.bo.Video;
+
+/**
+ * Helper class to merge the catalogs of several comma separated files into
+ * one, keeping a single video for each vid.  The files are loaded side by
+ * side and the videos are de-duplicated in parallel, the merge policy
+ * choosing which video with a vid is kept.  The merged catalog holds the
+ * videos in the order their vid is first met: the videos of the first file
+ * in file order, then the videos of the second file not already met, and so
+ * on.
+ *
+ * @author dtsmith
+ *
+ */
+public class VideoMerger {
+	private static final int SPLIT_SIZE = 16 << 10;
+
+	private MergePolicy policy;
+	private ForkJoinPool pool;
+	private StringDictionary dictionary;
+	private int noDuplicates;
+
+	/**
+	 * Constructor.  Files are loaded and merged on the common ForkJoin pool.
+	 *
+	 * @param policy - chooses the video kept for a vid met more than once
+	 */
+	public VideoMerger(MergePolicy policy) {
+		this(policy, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param policy - chooses the video kept for a vid met more than once
+	 * @param pool - the ForkJoin pool on which files are loaded and merged
+	 */
+	public VideoMerger(MergePolicy policy, ForkJoinPool pool) {
+		this.policy = policy;
+		this.pool = pool;
+	}
+
+	/**
+	 * Share the titles and ratings of the videos loaded through a
+	 * dictionary.  By default each merge shares them through a dictionary of
+	 * its own, so titles found in several files are held once.
+	 *
+	 * @param dictionary - the dictionary
+	 */
+	public void setDictionary(StringDictionary dictionary) {
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * Load and merge the videos of several files.
+	 *
+	 * @param fileNames - the names of the files, in order of precedence
+	 * @return the merged videos
+	 * @throws IOException
+	 * @throws VideoFormatException if a line is not a valid video
+	 */
+	public List<Video> merge(List<String> fileNames) throws IOException {
+		ParallelVideoLoader loader = new ParallelVideoLoader(pool);
+		loader.setDictionary(dictionary);
+		return mergeCatalogs(loader.loadAll(fileNames));
+	}
+
+	/**
+	 * Merge catalogs already loaded.
+	 *
+	 * @param catalogs - the videos of each catalog, in order of precedence
+	 * @return the merged videos
+	 */
+	public List<Video> mergeCatalogs(List<List<Video>> catalogs) {
+		int total = 0;
+		for (List<Video> catalog : catalogs) {
+			total += catalog.size();
+		}
+
+		ConcurrentHashMap<String, Entry> byVid = new ConcurrentHashMap<String, Entry>(
+				total * 4 / 3 + 1);
+
+		List<MergeTask> tasks = new ArrayList<MergeTask>();
+		for (int i = 0; i < catalogs.size(); i++) {
+			tasks.add(new MergeTask(byVid, catalogs.get(i), i, 0, catalogs.get(i).size()));
+		}
+		pool.invoke(new InvokeAllTask(tasks));
+
+		Entry[] entries = byVid.values().toArray(new Entry[byVid.size()]);
+		Arrays.parallelSort(entries, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry a, Entry b) {
+				return Long.compare(a.first, b.first);
+			}
+		});
+
+		List<Video> merged = new ArrayList<Video>(entries.length);
+		for (Entry entry : entries) {
+			merged.add(entry.video);
+		}
+
+		noDuplicates = total - merged.size();
+		return merged;
+	}
+
+	/**
+	 * Get the number of videos left out of the last merge because a video
+	 * with the same vid was kept.
+	 *
+	 * @return the number of duplicate videos left out
+	 */
+	public int getNoDuplicates() {
+		return noDuplicates;
+	}
+
+	/**
+	 * The video kept for a vid, where it was found, and where the vid was
+	 * first met.  Positions are the catalog number in the high 32 bits and
+	 * the index in the catalog in the low 32 bits, so they order as the
+	 * videos are met.
+	 */
+	private static class Entry {
+		private Video video;
+		private long position;
+		private long first;
+
+		Entry(Video video, long position) {
+			this.video = video;
+			this.position = position;
+			this.first = position;
+		}
+
+		Entry(Video video, long position, long first) {
+			this.video = video;
+			this.position = position;
+			this.first = first;
+		}
+	}
+
+	/**
+	 * Combine two entries for the same vid.  The result does not depend on
+	 * which entry was stored first, so the catalogs can be merged in any
+	 * order.
+	 */
+	private Entry combine(Entry a, Entry b) {
+		Entry earlier = a.position < b.position ? a : b;
+		Entry later = earlier == a ? b : a;
+		Entry kept = policy.prefers(later.video, earlier.video) ? later : earlier;
+
+		return new Entry(kept.video, kept.position, Math.min(a.first, b.first));
+	}
+
+	/**
+	 * Runs the merge tasks of all catalogs, waiting for them to complete.
+	 */
+	private static class InvokeAllTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private List<MergeTask> tasks;
+
+		InvokeAllTask(List<MergeTask> tasks) {
+			this.tasks = tasks;
+		}
+
+		@Override
+		protected void compute() {
+			ForkJoinTask.invokeAll(tasks);
+		}
+	}
+
+	/**
+	 * Merges a range of the videos of one catalog into the map by vid,
+	 * splitting large ranges.
+	 */
+	private class MergeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private ConcurrentHashMap<String, Entry> byVid;
+		private List<Video> catalog;
+		private int catalogNo;
+		private int from;
+		private int to;
+
+		MergeTask(ConcurrentHashMap<String, Entry> byVid, List<Video> catalog, int catalogNo,
+				int from, int to) {
+			this.byVid = byVid;
+			this.catalog = catalog;
+			this.catalogNo = catalogNo;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > SPLIT_SIZE) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new MergeTask(byVid, catalog, catalogNo, from, middle),
+						new MergeTask(byVid, catalog, catalogNo, middle, to));
+				return;
+			}
+
+			BiFunction<Entry, Entry, Entry> combiner = new BiFunction<Entry, Entry, Entry>() {
+				@Override
+				public Entry apply(Entry a, Entry b) {
+					return combine(a, b);
+				}
+			};
+
+			long base = (long) catalogNo << 32;
+			for (int i = from; i < to; i++) {
+				Video video = catalog.get(i);
+				byVid.merge(video.getVid(), new Entry(video, base | i), combiner);
+			}
+		}
+	}
+}
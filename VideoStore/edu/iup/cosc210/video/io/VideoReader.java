@@ -1,58 +1,331 @@
 package edu.iup.cosc210.video.io;
 
-import java.io.BufferedReader;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.Scanner;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import edu.iup.cosc210.video.bo.Video;
 
 /**
- * Helper class to read videos from a comma separated file.
+ * Helper class to read videos from a comma separated file.  A vid, title or
+ * rating holding a comma or a double quote is enclosed in double quotes, a
+ * double quote inside a quoted column is doubled.  Files compressed with
+ * gzip or deflate are recognized by their first bytes and decompressed on a
+ * background thread running ahead of the parser.
  * 
  * @author dtsmith
  *
  */
 public class VideoReader {
-	BufferedReader input;
-	
+	private static final int BUFFER_SIZE = 64 << 10;
+
+	Reader input;
+	private char[] buffer = new char[BUFFER_SIZE];
+	private int pos;
+	private int limit;
+	private boolean eof;
+	private int lineNo;
+	private int lastLineStart;
+	private int lastLineEnd;
+	private LineParser parser = new LineParser();
+
 	/**
 	 * Constructor
 	 * 
 	 * @param fileName - the name of the file from which to read videos
-	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public VideoReader(String fileName) throws IOException {
+		InputStream in = new FileInputStream(fileName);
+
+		try {
+			PushbackInputStream file = new PushbackInputStream(in, 2);
+			in = file;
+
+			switch (detectCompression(file)) {
+			case GZIP:
+				in = new ReadAheadInputStream(new GZIPInputStream(file, BUFFER_SIZE),
+						"Decompress " + fileName);
+				break;
+			case DEFLATE:
+				in = new ReadAheadInputStream(new InflaterInputStream(file,
+						new Inflater(), BUFFER_SIZE), "Decompress " + fileName);
+				break;
+			default:
+				break;
+			}
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+
+		input = new InputStreamReader(in);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param input - the reader from which to read videos
+	 */
+	VideoReader(Reader input) {
+		this.input = input;
+	}
+
+	/**
+	 * Share the titles and ratings of the videos read through a dictionary,
+	 * so each title or rating met more than once is held as one string.
+	 *
+	 * @param dictionary - the dictionary, or null to share nothing
 	 */
-	public VideoReader(String fileName) throws FileNotFoundException {
-		input = new BufferedReader(new FileReader(fileName));
+	public void setDictionary(StringDictionary dictionary) {
+		parser.setDictionary(dictionary);
 	}
-	
+
 	/**
 	 * Reads one video from the file.  Each video is stored on a separate line.
+	 * Empty lines are skipped.  After a line that is not a valid video the
+	 * reader is positioned on the following line, so reading can go on.
 	 * 
 	 * @return the next video from the file, null if there are not more videos.
 	 * @throws IOException
+	 * @throws VideoFormatException if the line is not a valid video
 	 */
 	public Video readVideo() throws IOException {
-		String line = input.readLine();
-		if (line == null) {
-			return null;
+		while (true) {
+			int lineEnd = findLineEnd();
+			if (lineEnd < 0) {
+				return null;
+			}
+
+			int lineStart = pos;
+			pos = lineEnd < limit ? lineEnd + 1 : limit;
+			lineNo++;
+
+			if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+				lineEnd--;
+			}
+			if (lineEnd > lineStart) {
+				lastLineStart = lineStart;
+				lastLineEnd = lineEnd;
+				return parser.parse(buffer, lineStart, lineEnd);
+			}
+		}
+	}
+
+	/**
+	 * Get the number of the line last read by readVideo, counting empty
+	 * lines.
+	 *
+	 * @return the line number, starting at 1
+	 */
+	public int getLineNo() {
+		return lineNo;
+	}
+
+	/**
+	 * Get the text of the line last read by readVideo, valid until the next
+	 * call to readVideo.
+	 *
+	 * @return the line without its line separator
+	 */
+	String getLastLine() {
+		return new String(buffer, lastLineStart, lastLineEnd - lastLineStart);
+	}
+
+	/**
+	 * Find the end of the line starting at pos, reading more of the file
+	 * into the buffer as needed.
+	 *
+	 * @return the index of the line feed ending the line, limit if the last
+	 * line of the file has no line feed, or -1 if there are no more lines.
+	 * @throws IOException
+	 */
+	private int findLineEnd() throws IOException {
+		int scan = pos;
+
+		while (true) {
+			for (; scan < limit; scan++) {
+				if (buffer[scan] == '\n') {
+					return scan;
+				}
+			}
+
+			if (eof) {
+				return pos < limit ? limit : -1;
+			}
+
+			scan -= pos;
+			fill();
+		}
+	}
+
+	/**
+	 * Move the unread characters to the front of the buffer and read more
+	 * characters after them.  The buffer grows when a line does not fit.
+	 *
+	 * @throws IOException
+	 */
+	private void fill() throws IOException {
+		int remaining = limit - pos;
+
+		if (remaining == buffer.length) {
+			char[] larger = new char[buffer.length * 2];
+			System.arraycopy(buffer, pos, larger, 0, remaining);
+			buffer = larger;
+		} else {
+			System.arraycopy(buffer, pos, buffer, 0, remaining);
+		}
+		pos = 0;
+		limit = remaining;
+
+		int n = input.read(buffer, limit, buffer.length - limit);
+		if (n < 0) {
+			eof = true;
+		} else {
+			limit += n;
+		}
+	}
+
+	/**
+	 * Check whether a file is compressed.
+	 *
+	 * @param fileName - the name of the file
+	 * @return true if the file is compressed with gzip or deflate
+	 * @throws IOException
+	 */
+	public static boolean isCompressed(String fileName) throws IOException {
+		PushbackInputStream file = new PushbackInputStream(new FileInputStream(fileName), 2);
+
+		try {
+			return detectCompression(file) != Compression.NONE;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Look at the first two bytes of a file, leaving them unread, to detect
+	 * a gzip header or a zlib (deflate) header.
+	 */
+	private static Compression detectCompression(PushbackInputStream file) throws IOException {
+		byte[] magic = new byte[2];
+		int n = 0;
+		int read;
+
+		while (n < 2 && (read = file.read(magic, n, 2 - n)) > 0) {
+			n += read;
+		}
+		file.unread(magic, 0, n);
+
+		if (n < 2) {
+			return Compression.NONE;
+		}
+
+		int b0 = magic[0] & 0xff;
+		int b1 = magic[1] & 0xff;
+
+		if (b0 == 0x1f && b1 == 0x8b) {
+			return Compression.GZIP;
+		}
+		if (b0 == 0x78 && (b1 == 0x01 || b1 == 0x5e || b1 == 0x9c || b1 == 0xda)) {
+			return Compression.DEFLATE;
 		}
+		return Compression.NONE;
+	}
+
+	/**
+	 * Open a lazy stream of the videos in a comma separated file.  Videos are
+	 * read as the stream consumes them, so a file of any size can be scanned
+	 * in constant memory.  A parallel stream splits the file on line
+	 * boundaries.  The stream should be closed, for example with
+	 * try-with-resources, to close the file.
+	 *
+	 * @param fileName - the name of the file from which to read videos
+	 * @return the stream of videos
+	 * @throws IOException
+	 */
+	public static Stream<Video> stream(String fileName) throws IOException {
+		if (isCompressed(fileName)) {
+			return new VideoReader(fileName).stream();
+		}
+
+		final VideoSpliterator spliterator = new VideoSpliterator(Paths.get(fileName));
 
-		String[] parts = line.split(",");
-		String vid = parts[0];
-		String title = parts[1];
-		double rate = Double.parseDouble(parts[2]);
-		int year = Integer.parseInt(parts[3]);
-		String rating = parts[4];
-		boolean newRelease = parts[5].equals("T");
-		Video video = new Video(vid, title, rate, year, rating, newRelease);
+		return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					spliterator.close();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Get a lazy stream of the videos not yet read by this reader.  A
+	 * compressed file can only be read from the start, so a parallel stream
+	 * hands out batches of videos read ahead instead of splitting the file.
+	 * Closing the stream closes the reader.
+	 *
+	 * @return the stream of videos
+	 */
+	private Stream<Video> stream() {
+		Spliterator<Video> spliterator = new Spliterators.AbstractSpliterator<Video>(
+				Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+			@Override
+			public boolean tryAdvance(Consumer<? super Video> action) {
+				try {
+					Video video = readVideo();
+					if (video == null) {
+						return false;
+					}
+					action.accept(video);
+					return true;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		};
 
-		return video;
+		return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					close();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Parse one line of a comma separated video file into a video.
+	 *
+	 * @param line - the line holding the video
+	 * @return the video held by the line
+	 */
+	static Video parseVideo(String line) {
+		return new LineParser().parse(line.toCharArray(), 0, line.length());
 	}
-	
+
 	/**
 	 * Close the input file.  No more videos can be read.
 	 * 
@@ -61,4 +334,279 @@ public class VideoReader {
 	public void close() throws IOException {
 		input.close();
 	}
+
+	private enum Compression {
+		NONE,
+		GZIP,
+		DEFLATE
+	}
+
+	/**
+	 * Tokenizer for one line of a comma separated video file.  The line is
+	 * scanned directly from a char buffer: the rate and the year are parsed
+	 * from the characters and the only strings created are the ones kept
+	 * by the video.  Given a dictionary, titles and ratings are shared
+	 * through it, so a title or rating met before creates no string.  A
+	 * parser can be reused for any number of lines, but is not thread safe.
+	 */
+	static class LineParser {
+		private static final double[] POWERS_OF_10 = { 1e0, 1e1, 1e2, 1e3,
+				1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14,
+				1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+		private static final long MAX_EXACT = 1L << 53;
+
+		private char[] buf;
+		private int pos;
+		private int end;
+		private int fieldStart;
+		private int fieldEnd;
+		private int column;
+		private StringDictionary dictionary;
+
+		/**
+		 * Set the dictionary through which titles and ratings are shared.
+		 *
+		 * @param dictionary - the dictionary, or null to share nothing
+		 */
+		void setDictionary(StringDictionary dictionary) {
+			this.dictionary = dictionary;
+		}
+
+		/**
+		 * Parse the characters buf[start] to buf[end - 1] into a video.
+		 *
+		 * @param buf - the buffer holding the line
+		 * @param start - the index of the first character of the line
+		 * @param end - the index following the last character of the line
+		 * @return the video held by the line
+		 * @throws VideoFormatException if the line is not a valid video
+		 */
+		Video parse(char[] buf, int start, int end) {
+			this.buf = buf;
+			this.pos = start;
+			this.end = end;
+			this.column = 0;
+
+			String vid = nextText(false);
+			String title = nextText(true);
+			double rate = nextRate();
+			int year = nextYear();
+			String rating = nextText(true);
+			nextField();
+			boolean newRelease = fieldEnd - fieldStart == 1
+					&& buf[fieldStart] == 'T';
+
+			this.buf = null;
+
+			return new Video(vid, title, rate, year, rating, newRelease);
+		}
+
+		/**
+		 * Split the characters buf[start] to buf[end - 1] into text columns.
+		 * A quoted column may hold commas and doubled quotes.
+		 *
+		 * @param buf - the buffer holding the line
+		 * @param start - the index of the first character of the line
+		 * @param end - the index following the last character of the line
+		 * @return the text of each column
+		 * @throws VideoFormatException if a quoted column is not terminated
+		 */
+		List<String> columns(char[] buf, int start, int end) {
+			this.buf = buf;
+			this.pos = start;
+			this.end = end;
+			this.column = 0;
+
+			List<String> columns = new ArrayList<String>();
+			while (pos <= end) {
+				columns.add(nextText(false));
+			}
+
+			this.buf = null;
+
+			return columns;
+		}
+
+		/**
+		 * Get the next column as text.  A quoted column may hold commas and
+		 * doubled quotes.
+		 *
+		 * @param shared - true to share the text through the dictionary
+		 * @return the text of the column
+		 */
+		private String nextText(boolean shared) {
+			shared &= dictionary != null;
+			if (pos < end && buf[pos] == '"') {
+				String text = nextQuoted();
+				return shared ? dictionary.intern(text) : text;
+			}
+			nextField();
+			if (shared) {
+				return dictionary.intern(buf, fieldStart, fieldEnd - fieldStart);
+			}
+			return new String(buf, fieldStart, fieldEnd - fieldStart);
+		}
+
+		/**
+		 * Get the next column, which is enclosed in double quotes.
+		 *
+		 * @return the text between the quotes with doubled quotes undone
+		 */
+		private String nextQuoted() {
+			int start = ++pos;
+			StringBuilder unescaped = null;
+
+			while (true) {
+				if (pos >= end) {
+					throw new VideoFormatException("Unterminated quote", column + 1);
+				}
+				if (buf[pos] == '"') {
+					if (pos + 1 < end && buf[pos + 1] == '"') {
+						if (unescaped == null) {
+							unescaped = new StringBuilder();
+						}
+						unescaped.append(buf, start, pos + 1 - start);
+						pos += 2;
+						start = pos;
+						continue;
+					}
+					break;
+				}
+				pos++;
+			}
+
+			String text;
+			if (unescaped == null) {
+				text = new String(buf, start, pos - start);
+			} else {
+				text = unescaped.append(buf, start, pos - start).toString();
+			}
+
+			pos++;
+			if (pos < end && buf[pos] != ',') {
+				throw new VideoFormatException("Unexpected character after quote",
+						column + 1);
+			}
+			pos++;
+			column++;
+
+			return text;
+		}
+
+		/**
+		 * Advance to the next column, setting fieldStart and fieldEnd to
+		 * its bounds.
+		 */
+		private void nextField() {
+			if (pos > end) {
+				throw new VideoFormatException("Missing column", column + 1);
+			}
+
+			fieldStart = pos;
+			while (pos < end && buf[pos] != ',') {
+				pos++;
+			}
+			fieldEnd = pos;
+			pos++;
+			column++;
+		}
+
+		/**
+		 * Skip spaces around the current column.
+		 */
+		private void trimField() {
+			while (fieldStart < fieldEnd && buf[fieldStart] == ' ') {
+				fieldStart++;
+			}
+			while (fieldEnd > fieldStart && buf[fieldEnd - 1] == ' ') {
+				fieldEnd--;
+			}
+		}
+
+		/**
+		 * Get the next column as a rental rate.  Plain decimals are parsed
+		 * from the characters, anything else (exponents, very long numbers)
+		 * is left to Double.parseDouble.
+		 *
+		 * @return the rental rate
+		 */
+		private double nextRate() {
+			nextField();
+			trimField();
+
+			int i = fieldStart;
+			boolean negative = false;
+			if (i < fieldEnd && (buf[i] == '-' || buf[i] == '+')) {
+				negative = buf[i] == '-';
+				i++;
+			}
+
+			long mantissa = 0;
+			int digits = 0;
+			int fraction = -1;
+
+			for (; i < fieldEnd; i++) {
+				char c = buf[i];
+				if (c >= '0' && c <= '9') {
+					mantissa = mantissa * 10 + (c - '0');
+					digits++;
+					if (fraction >= 0) {
+						fraction++;
+					}
+				} else if (c == '.' && fraction < 0) {
+					fraction = 0;
+				} else {
+					break;
+				}
+			}
+
+			if (i < fieldEnd || digits == 0 || digits > 15 || mantissa >= MAX_EXACT) {
+				try {
+					return Double.parseDouble(new String(buf, fieldStart, fieldEnd - fieldStart));
+				} catch (NumberFormatException e) {
+					throw badNumber("Invalid rental rate");
+				}
+			}
+
+			double rate = fraction > 0 ? mantissa / POWERS_OF_10[fraction] : mantissa;
+			return negative ? -rate : rate;
+		}
+
+		/**
+		 * Get the next column as a year.
+		 *
+		 * @return the year
+		 */
+		private int nextYear() {
+			nextField();
+			trimField();
+
+			int i = fieldStart;
+			boolean negative = false;
+			if (i < fieldEnd && (buf[i] == '-' || buf[i] == '+')) {
+				negative = buf[i] == '-';
+				i++;
+			}
+
+			if (i == fieldEnd || fieldEnd - i > 9) {
+				throw badNumber("Invalid year");
+			}
+
+			int year = 0;
+			for (; i < fieldEnd; i++) {
+				char c = buf[i];
+				if (c < '0' || c > '9') {
+					throw badNumber("Invalid year");
+				}
+				year = year * 10 + (c - '0');
+			}
+
+			return negative ? -year : year;
+		}
+
+		private VideoFormatException badNumber(String reason) {
+			return new VideoFormatException(reason + " \""
+					+ new String(buf, fieldStart, fieldEnd - fieldStart) + "\"", column);
+		}
+	}
 }
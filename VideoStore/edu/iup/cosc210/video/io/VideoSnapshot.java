@@ -0,0 +1,439 @@
+package edu.iup.cosc210.video.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import edu.iup.cosc210.video.bo.Video;
+
+/**
+ * Binary snapshot of a list of videos.  A snapshot is opened by memory
+ * mapping the file, so the only work done to load it is decoding the
+ * strings of the videos.  The comma separated file remains the interchange
+ * format; a snapshot is a fast path for starting up.
+ *
+ * <p>
+ * Layout, all numbers big endian:
+ *
+ * <pre>
+ * int     magic "VSNP"
+ * int     version
+ * long    length of the file the videos were read from, or -1
+ * long    time the file the videos were read from was last modified
+ * int     number of videos n
+ * int     number of ratings r
+ * r x     rating: unsigned short length, UTF-8 bytes
+ *         padding to a multiple of 4
+ * n x int year
+ * n x int rental rate in cents
+ * n+1 int offsets of the vids in the vid heap
+ * n+1 int offsets of the titles in the title heap
+ * n x     byte rating code, an index into the ratings
+ * n/8     new release bits, bit i%8 of byte i/8 for video i
+ *         vid heap, UTF-8
+ *         title heap, UTF-8
+ * </pre>
+ *
+ * The length and time of the file the videos were read from tell whether
+ * the snapshot is still that of the file, however coarse the times of the
+ * file system.  The structure of a snapshot is checked when it is opened,
+ * so a torn or corrupt file is reported as an IOException.
+ *
+ * @author dtsmith
+ *
+ */
+public class VideoSnapshot {
+	public static final int MAGIC = 0x56534E50;
+	public static final int VERSION = 2;
+	private static final int HEADER_SIZE = 32;
+
+	private static final int DECODE_CHUNK = 16 << 10;
+
+	private ByteBuffer buffer;
+	private long sourceLength;
+	private long sourceModified;
+	private int noVideos;
+	private String[] ratings;
+	private int yearPos;
+	private int centsPos;
+	private int vidOffsetPos;
+	private int titleOffsetPos;
+	private int ratingPos;
+	private int newReleasePos;
+	private int vidHeapPos;
+	private int titleHeapPos;
+
+	/**
+	 * Open a snapshot by memory mapping the file.
+	 *
+	 * @param fileName - the name of the snapshot file
+	 * @throws IOException if the file is not a snapshot of a known version,
+	 * or is torn or corrupt
+	 */
+	public VideoSnapshot(String fileName) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(fileName),
+				StandardOpenOption.READ);
+
+		try {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(fileName + " is too large to be mapped");
+			}
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size());
+			buffer = mapped;
+		} finally {
+			channel.close();
+		}
+
+		if (buffer.limit() < 8 || buffer.getInt(0) != MAGIC) {
+			throw new IOException(fileName + " is not a video snapshot");
+		}
+		int version = buffer.getInt(4);
+		if (version != VERSION) {
+			throw new IOException(fileName + " has unsupported snapshot version " + version);
+		}
+		if (buffer.limit() < HEADER_SIZE) {
+			throw new IOException(fileName + " is torn");
+		}
+
+		sourceLength = buffer.getLong(8);
+		sourceModified = buffer.getLong(16);
+		noVideos = buffer.getInt(24);
+		int noRatings = buffer.getInt(28);
+		if (noVideos < 0 || noRatings < 0 || noRatings > 256) {
+			throw new IOException(fileName + " is corrupt");
+		}
+
+		ratings = new String[noRatings];
+		int pos = HEADER_SIZE;
+		for (int i = 0; i < ratings.length; i++) {
+			if (pos + 2 > buffer.limit()) {
+				throw new IOException(fileName + " is torn");
+			}
+			int length = buffer.getShort(pos) & 0xffff;
+			pos += 2;
+			if (pos + length > buffer.limit()) {
+				throw new IOException(fileName + " is torn");
+			}
+			byte[] bytes = new byte[length];
+			ByteBuffer header = buffer.duplicate();
+			header.position(pos);
+			header.get(bytes);
+			ratings[i] = new String(bytes, StandardCharsets.UTF_8);
+			pos += length;
+		}
+
+		long n = noVideos;
+		long heapPos = align(pos) + 4 * n + 4 * n + 4 * (n + 1) + 4 * (n + 1) + n + (n + 7) / 8;
+		if (heapPos > buffer.limit()) {
+			throw new IOException(fileName + " is torn");
+		}
+
+		yearPos = align(pos);
+		centsPos = yearPos + 4 * noVideos;
+		vidOffsetPos = centsPos + 4 * noVideos;
+		titleOffsetPos = vidOffsetPos + 4 * (noVideos + 1);
+		ratingPos = titleOffsetPos + 4 * (noVideos + 1);
+		newReleasePos = ratingPos + noVideos;
+		vidHeapPos = newReleasePos + (noVideos + 7) / 8;
+
+		long vidHeapSize = checkOffsets(fileName, vidOffsetPos,
+				buffer.limit() - (long) vidHeapPos);
+		titleHeapPos = vidHeapPos + (int) vidHeapSize;
+		checkOffsets(fileName, titleOffsetPos, buffer.limit() - (long) titleHeapPos);
+
+		for (int i = 0; i < noVideos; i++) {
+			if ((buffer.get(ratingPos + i) & 0xff) >= noRatings) {
+				throw new IOException(fileName + " is corrupt");
+			}
+		}
+	}
+
+	/**
+	 * Check that the offsets of the strings of a heap start at 0, never
+	 * decrease and end within the file.
+	 *
+	 * @return the size of the heap
+	 */
+	private long checkOffsets(String fileName, int offsetPos, long room) throws IOException {
+		int previous = 0;
+		for (int i = 0; i <= noVideos; i++) {
+			int offset = buffer.getInt(offsetPos + 4 * i);
+			if (offset < previous || (i == 0 && offset != 0)) {
+				throw new IOException(fileName + " is corrupt");
+			}
+			previous = offset;
+		}
+		if (previous > room) {
+			throw new IOException(fileName + " is torn");
+		}
+		return previous;
+	}
+
+	/**
+	 * Get the length of the file the videos were read from, as written by
+	 * write.
+	 *
+	 * @return the length, or -1 if not known
+	 */
+	public long getSourceLength() {
+		return sourceLength;
+	}
+
+	/**
+	 * Get the time the file the videos were read from was last modified, as
+	 * written by write.
+	 *
+	 * @return the time in milliseconds since the epoch
+	 */
+	public long getSourceModified() {
+		return sourceModified;
+	}
+
+	/**
+	 * Get the number of videos in the snapshot.
+	 *
+	 * @return the number of videos in the snapshot
+	 */
+	public int getNoVideos() {
+		return noVideos;
+	}
+
+	/**
+	 * Get a video from the snapshot given its index position.
+	 *
+	 * @param i - the index position of the video
+	 * @return a new video holding the values stored for the index position
+	 */
+	public Video getVideo(int i) {
+		return getVideo(buffer.duplicate(), i, new byte[64]);
+	}
+
+	/**
+	 * Get all videos in the snapshot.  The strings are decoded in parallel.
+	 *
+	 * @return the videos in snapshot order
+	 */
+	public List<Video> getVideos() {
+		return getVideos(null);
+	}
+
+	/**
+	 * Get all videos in the snapshot, sharing titles met more than once
+	 * through a dictionary.  Ratings are always shared.  The strings are
+	 * decoded in parallel.
+	 *
+	 * @param dictionary - the dictionary, or null to share no titles
+	 * @return the videos in snapshot order
+	 */
+	public List<Video> getVideos(final StringDictionary dictionary) {
+		final Video[] videos = new Video[noVideos];
+		int noChunks = (noVideos + DECODE_CHUNK - 1) / DECODE_CHUNK;
+
+		IntStream.range(0, noChunks).parallel().forEach(new IntConsumer() {
+			@Override
+			public void accept(int chunk) {
+				ByteBuffer local = buffer.duplicate();
+				byte[] scratch = new byte[64];
+				int end = Math.min(noVideos, (chunk + 1) * DECODE_CHUNK);
+
+				for (int i = chunk * DECODE_CHUNK; i < end; i++) {
+					videos[i] = getVideo(local, i, scratch);
+					if (dictionary != null) {
+						videos[i].setTitle(dictionary.intern(videos[i].getTitle()));
+					}
+				}
+			}
+		});
+
+		return new ArrayList<Video>(Arrays.asList(videos));
+	}
+
+	private Video getVideo(ByteBuffer local, int i, byte[] scratch) {
+		String vid = getString(local, vidHeapPos, vidOffsetPos, i, scratch);
+		String title = getString(local, titleHeapPos, titleOffsetPos, i, scratch);
+		int year = local.getInt(yearPos + 4 * i);
+		double rate = local.getInt(centsPos + 4 * i) / 100.0;
+		String rating = ratings[local.get(ratingPos + i) & 0xff];
+		boolean newRelease = (local.get(newReleasePos + i / 8) & (1 << (i % 8))) != 0;
+
+		return new Video(vid, title, rate, year, rating, newRelease);
+	}
+
+	private String getString(ByteBuffer local, int heapPos, int offsetPos, int i,
+			byte[] scratch) {
+		int start = local.getInt(offsetPos + 4 * i);
+		int length = local.getInt(offsetPos + 4 * i + 4) - start;
+		if (length > scratch.length) {
+			scratch = new byte[length];
+		}
+
+		local.position(heapPos + start);
+		local.get(scratch, 0, length);
+		return new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Write a snapshot of a list of videos not read from a file.
+	 *
+	 * @param fileName - the name of the snapshot file
+	 * @param videos - the videos to be written
+	 * @throws IOException
+	 */
+	public static void write(String fileName, List<Video> videos) throws IOException {
+		write(fileName, videos, -1, 0);
+	}
+
+	/**
+	 * Write a snapshot of a list of videos.  The snapshot is written to a
+	 * temporary file which then replaces the target, so a failed write
+	 * leaves any previous snapshot intact.
+	 *
+	 * @param fileName - the name of the snapshot file
+	 * @param videos - the videos to be written
+	 * @param sourceLength - the length of the file the videos were read
+	 * from, or -1
+	 * @param sourceModified - the time that file was last modified
+	 * @throws IOException
+	 */
+	public static void write(String fileName, List<Video> videos, long sourceLength,
+			long sourceModified) throws IOException {
+		Path target = Paths.get(fileName);
+		Path temp = Files.createTempFile(target.toAbsolutePath().getParent(),
+				target.getFileName().toString(), ".tmp");
+		int n = videos.size();
+
+		List<String> ratings = new ArrayList<String>();
+		byte[] ratingCodes = new byte[n];
+		byte[] newRelease = new byte[(n + 7) / 8];
+
+		for (int i = 0; i < n; i++) {
+			Video video = videos.get(i);
+			int code = ratings.indexOf(video.getRating());
+			if (code < 0) {
+				if (ratings.size() == 256) {
+					throw new IOException("More than 256 ratings can not be stored in a snapshot");
+				}
+				code = ratings.size();
+				ratings.add(video.getRating());
+			}
+			ratingCodes[i] = (byte) code;
+			if (video.isNewRelease()) {
+				newRelease[i / 8] |= 1 << (i % 8);
+			}
+		}
+
+		FileOutputStream file = new FileOutputStream(temp.toFile());
+		boolean written = false;
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 64 << 10));
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(sourceLength);
+			out.writeLong(sourceModified);
+			out.writeInt(n);
+			out.writeInt(ratings.size());
+			for (String rating : ratings) {
+				byte[] bytes = rating.getBytes(StandardCharsets.UTF_8);
+				out.writeShort(bytes.length);
+				out.write(bytes);
+			}
+			while (out.size() % 4 != 0) {
+				out.writeByte(0);
+			}
+
+			for (int i = 0; i < n; i++) {
+				out.writeInt(videos.get(i).getYear());
+			}
+			for (int i = 0; i < n; i++) {
+				out.writeInt((int) Math.round(videos.get(i).getRentalRate() * 100));
+			}
+
+			int offset = 0;
+			out.writeInt(offset);
+			for (int i = 0; i < n; i++) {
+				offset += utf8Length(videos.get(i).getVid());
+				out.writeInt(offset);
+			}
+			offset = 0;
+			out.writeInt(offset);
+			for (int i = 0; i < n; i++) {
+				offset += utf8Length(videos.get(i).getTitle());
+				out.writeInt(offset);
+			}
+
+			out.write(ratingCodes);
+			out.write(newRelease);
+
+			for (int i = 0; i < n; i++) {
+				out.write(videos.get(i).getVid().getBytes(StandardCharsets.UTF_8));
+			}
+			for (int i = 0; i < n; i++) {
+				out.write(videos.get(i).getTitle().getBytes(StandardCharsets.UTF_8));
+			}
+
+			out.flush();
+			file.getFD().sync();
+			file.close();
+
+			try {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			written = true;
+		} finally {
+			if (!written) {
+				file.close();
+				Files.deleteIfExists(temp);
+			}
+		}
+	}
+
+	/**
+	 * Get the number of bytes needed to encode a string in UTF-8.
+	 */
+	private static int utf8Length(String s) {
+		int length = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				// an unpaired surrogate is encoded as '?'
+				length++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	private static int align(int pos) {
+		return (pos + 3) & ~3;
+	}
+}
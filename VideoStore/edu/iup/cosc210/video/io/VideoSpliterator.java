@@ -0,0 +1,213 @@
+package edu.iup.cosc210.video.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import edu.iup.cosc210.video.bo.Video;
+
+/**
+ * Spliterator reading videos on demand from a range of bytes of a comma
+ * separated file.  A spliterator is split by cutting its range in two on a
+ * line boundary, so every part of a parallel stream reads its own part of
+ * the file and no more than one video per part is held in memory.
+ *
+ * @author dtsmith
+ *
+ */
+public class VideoSpliterator implements Spliterator<Video> {
+	private static final long MIN_SPLIT_SIZE = 1 << 20;
+	private static final int SCAN_SIZE = 8 << 10;
+
+	private Source source;
+	private long start;
+	private long end;
+	private VideoReader reader;
+
+	/**
+	 * Constructor for a spliterator over a whole file.
+	 *
+	 * @param file - the file from which videos are read
+	 * @throws IOException
+	 */
+	public VideoSpliterator(Path file) throws IOException {
+		this(new Source(file), 0, -1);
+		end = source.channel.size();
+	}
+
+	private VideoSpliterator(Source source, long start, long end) {
+		this.source = source;
+		this.start = start;
+		this.end = end;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super Video> action) {
+		try {
+			if (reader == null) {
+				if (start >= end) {
+					return false;
+				}
+				reader = source.open(start, end);
+			}
+
+			Video video = reader.readVideo();
+
+			if (video == null) {
+				source.close(reader);
+				start = end;
+				return false;
+			}
+
+			action.accept(video);
+			return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public Spliterator<Video> trySplit() {
+		if (reader != null || end - start < 2 * MIN_SPLIT_SIZE) {
+			return null;
+		}
+
+		try {
+			long mid = source.findLineEnd(start + (end - start) / 2);
+			if (mid >= end) {
+				return null;
+			}
+
+			VideoSpliterator prefix = new VideoSpliterator(source, start, mid);
+			start = mid;
+			return prefix;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Estimate the remaining videos.  The estimate is the number of bytes
+	 * left to read, which is all the stream framework needs for splitting.
+	 */
+	@Override
+	public long estimateSize() {
+		return end - start;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | NONNULL;
+	}
+
+	/**
+	 * Close every file opened by this spliterator or the spliterators split
+	 * from it.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		source.closeAll();
+	}
+
+	/**
+	 * The file shared by a spliterator and all spliterators split from it.
+	 */
+	private static class Source {
+		private FileChannel channel;
+		private List<VideoReader> readers = new ArrayList<VideoReader>();
+		private Charset charset = Charset.defaultCharset();
+
+		Source(Path file) throws IOException {
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+		}
+
+		/**
+		 * Open a reader for a range of the file.
+		 */
+		synchronized VideoReader open(long start, long end) {
+			VideoReader reader = new VideoReader(new InputStreamReader(
+					new RangeInputStream(channel, start, end), charset));
+			readers.add(reader);
+			return reader;
+		}
+
+		synchronized void close(VideoReader reader) throws IOException {
+			readers.remove(reader);
+			reader.close();
+		}
+
+		synchronized void closeAll() throws IOException {
+			for (VideoReader reader : readers) {
+				reader.close();
+			}
+			readers.clear();
+			channel.close();
+		}
+
+		/**
+		 * Find the position just after the first line feed at or after a
+		 * position.
+		 */
+		long findLineEnd(long pos) throws IOException {
+			ByteBuffer scan = ByteBuffer.allocate(SCAN_SIZE);
+			while (true) {
+				scan.clear();
+				int n = channel.read(scan, pos);
+				if (n <= 0) {
+					return channel.size();
+				}
+				for (int i = 0; i < n; i++) {
+					if (scan.get(i) == '\n') {
+						return pos + i + 1;
+					}
+				}
+				pos += n;
+			}
+		}
+	}
+
+	/**
+	 * Input stream over a range of bytes of a file channel.  Reads use
+	 * positional reads, so any number of ranges can be read concurrently.
+	 */
+	private static class RangeInputStream extends InputStream {
+		private FileChannel channel;
+		private long pos;
+		private long end;
+
+		RangeInputStream(FileChannel channel, long start, long end) {
+			this.channel = channel;
+			this.pos = start;
+			this.end = end;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (pos >= end) {
+				return -1;
+			}
+			int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - pos)), pos);
+			if (n > 0) {
+				pos += n;
+			}
+			return n;
+		}
+	}
+}
@@ -1,56 +1,335 @@
 package edu.iup.cosc210.video.io;
 
-import java.io.FileNotFoundException;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import edu.iup.cosc210.video.bo.Video;
 
 /**
- * Helper class to save videos into a comma separated file.
- * 
+ * Helper class to save videos into a comma separated file.  The videos are
+ * written to a temporary file of its own next to the target, which replaces
+ * the target only when the writer is closed, after the data is on the disk.
+ * A crash while saving leaves the previous file intact, and writers saving
+ * to the same target at once do not share a temporary file.  The file can
+ * be written compressed with gzip, which VideoReader recognizes when
+ * reading it.
+ *
  * @author dtsmith
  *
  */
 public class VideoWriter {
-	private PrintStream output;
-	
+	private static final int BUFFER_SIZE = 64 << 10;
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	private Path target;
+	private Path temp;
+	private FileOutputStream file;
+	private CountingOutputStream counter;
+	private DeflaterOutputStream compressor;
+	private Writer output;
+	private StringBuilder line = new StringBuilder();
+	private char[] chars = new char[256];
+	private long rowsWritten;
+
 	/**
 	 * Constructor
-	 * 
+	 *
+	 * @param fileName - the name of the file into which videos will be saved
+	 * @throws IOException
+	 */
+	public VideoWriter(String fileName) throws IOException {
+		this(fileName, false, 0);
+	}
+
+	/**
+	 * Constructor for a writer compressing the file with gzip.
+	 *
 	 * @param fileName - the name of the file into which videos will be saved
-	 * @throws FileNotFoundException
+	 * @param compressionLevel - the compression level, from 0 (none) to 9
+	 * (best), or -1 (Deflater.DEFAULT_COMPRESSION)
+	 * @throws IOException
 	 */
-	public VideoWriter(String fileName) throws FileNotFoundException {
-		output = new PrintStream(fileName);		
+	public VideoWriter(String fileName, int compressionLevel) throws IOException {
+		this(fileName, true, compressionLevel);
 	}
-	
+
+	private VideoWriter(String fileName, boolean compressed, final int compressionLevel)
+			throws IOException {
+		if (compressed && (compressionLevel < Deflater.DEFAULT_COMPRESSION
+				|| compressionLevel > Deflater.BEST_COMPRESSION)) {
+			throw new IllegalArgumentException("Invalid compression level " + compressionLevel);
+		}
+
+		target = Paths.get(fileName);
+		temp = createTemp(target);
+
+		boolean opened = false;
+		try {
+			file = new FileOutputStream(temp.toFile());
+			counter = new CountingOutputStream(file);
+
+			OutputStream out = counter;
+			if (compressed) {
+				compressor = new GZIPOutputStream(counter, BUFFER_SIZE) {
+					{
+						def.setLevel(compressionLevel);
+					}
+				};
+				out = compressor;
+			}
+			output = new BufferedWriter(new OutputStreamWriter(out), BUFFER_SIZE);
+			opened = true;
+		} finally {
+			if (!opened) {
+				if (file != null) {
+					file.close();
+				}
+				Files.deleteIfExists(temp);
+			}
+		}
+	}
+
+	/**
+	 * Create an empty temporary file next to a target, named after the
+	 * target and a random number.  The file is created like any other, so
+	 * the target keeps the usual permissions once replaced.
+	 *
+	 * @param target - the file the temporary file will replace
+	 * @return the temporary file
+	 * @throws IOException
+	 */
+	private static Path createTemp(Path target) throws IOException {
+		String prefix = target.getFileName() + ".";
+		while (true) {
+			long number = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+			try {
+				return Files.createFile(target.resolveSibling(prefix
+						+ Long.toString(number, Character.MAX_RADIX) + ".tmp"));
+			} catch (FileAlreadyExistsException e) {
+				// taken by another writer, draw again
+			}
+		}
+	}
+
 	/**
 	 * Save a video into the file.
-	 * 
+	 *
 	 * @param video - the video to be saved.
+	 * @throws IOException
 	 */
-	public void saveVideo(Video video) {
-		output.print(video.getVid());
-		output.print(',');
-		output.print(video.getTitle());
-		output.print(',');
-		output.printf("%.2f",video.getRentalRate());
-		output.print(',');
-		output.print(video.getYear());
-		output.print(',');
-		output.print(video.getRating());
-		output.print(',');
-		output.print(video.isNewRelease() ? "T" : "F");
-		output.println();
-	}
-	
-	/**
-	 * Close the output file.  No more videos can be saved.
-	 * 
+	public void saveVideo(Video video) throws IOException {
+		line.setLength(0);
+		appendVideo(line, video);
+		line.append(LINE_SEPARATOR);
+
+		int length = line.length();
+		if (length > chars.length) {
+			chars = new char[Math.max(length, chars.length * 2)];
+		}
+		line.getChars(0, length, chars, 0);
+		output.write(chars, 0, length);
+
+		rowsWritten++;
+	}
+
+	/**
+	 * Append the comma separated line for a video, without a line separator.
+	 *
+	 * @param line - the builder to which the line is appended
+	 * @param video - the video
+	 */
+	static void appendVideo(StringBuilder line, Video video) {
+		appendText(line, video.getVid());
+		line.append(',');
+		appendText(line, video.getTitle());
+		line.append(',');
+		appendMoney(line, video.getRentalRate());
+		line.append(',');
+		line.append(video.getYear());
+		line.append(',');
+		appendText(line, video.getRating());
+		line.append(',');
+		line.append(video.isNewRelease() ? 'T' : 'F');
+	}
+
+	/**
+	 * Append a text column: the vid, title or rating.  Text holding a comma or
+	 * a double quote is enclosed in double quotes with any double quote
+	 * doubled.
+	 *
+	 * @param line - the builder to which the text is appended
+	 * @param text - the text
+	 */
+	static void appendText(StringBuilder line, String text) {
+		if (text == null || (text.indexOf(',') < 0 && text.indexOf('"') < 0)) {
+			line.append(text);
+			return;
+		}
+
+		line.append('"');
+		line.append(text.replace("\"", "\"\""));
+		line.append('"');
+	}
+
+	/**
+	 * Append an amount of money with two decimals, formatted as fixed-point
+	 * cents without going through a Formatter.  Rounding matches "%.2f":
+	 * an amount written with three decimals, such as 1.005, rounds half up
+	 * even though its binary value is slightly below the half.
+	 *
+	 * @param line - the builder to which the amount is appended
+	 * @param amount - the amount
+	 */
+	static void appendMoney(StringBuilder line, double amount) {
+		double magnitude = Math.abs(amount);
+		if (Double.isNaN(amount) || Double.isInfinite(amount)
+				|| magnitude >= Long.MAX_VALUE / 1000) {
+			line.append(String.format("%.2f", amount));
+			return;
+		}
+
+		double mills = magnitude * 1000;
+		long roundedMills = Math.round(mills);
+		long cents;
+		if (Math.abs(mills - roundedMills) <= 4 * Math.ulp(mills)) {
+			cents = (roundedMills + 5) / 10;
+		} else {
+			cents = Math.round(magnitude * 100);
+		}
+
+		if (amount < 0 || (amount == 0 && 1 / amount < 0)) {
+			line.append('-');
+		}
+
+		long fraction = cents % 100;
+		line.append(cents / 100);
+		line.append('.');
+		line.append((char) ('0' + fraction / 10));
+		line.append((char) ('0' + fraction % 10));
+	}
+
+	/**
+	 * Get the number of videos saved so far.
+	 *
+	 * @return the number of videos saved
+	 */
+	public long getRowsWritten() {
+		return rowsWritten;
+	}
+
+	/**
+	 * Get the number of bytes written to the file so far, after compression.
+	 * Bytes still held in the writer's buffers are not counted until the
+	 * writer is closed.
+	 *
+	 * @return the number of bytes written to the file
+	 */
+	public long getBytesWritten() {
+		return counter.count;
+	}
+
+	/**
+	 * Close the output file.  No more videos can be saved.  The data is
+	 * forced to the disk and the file then atomically replaces the target.
+	 * If anything fails the temporary file is thrown away.
+	 *
 	 * @throws IOException
 	 */
-	public void close() {
-		output.close();
+	public void close() throws IOException {
+		boolean moved = false;
+		try {
+			output.flush();
+			if (compressor != null) {
+				compressor.finish();
+			}
+			file.getFD().sync();
+			output.close();
+
+			try {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			moved = true;
+		} finally {
+			if (!moved) {
+				abort();
+			}
+		}
+
+		syncDirectory();
+	}
+
+	/**
+	 * Close the output file and throw it away, leaving the target as it was.
+	 * Does nothing once the writer has replaced the target.
+	 */
+	public void abort() {
+		try {
+			output.close();
+		} catch (IOException e) {
+			// the file is deleted anyway
+		}
+		temp.toFile().delete();
+	}
+
+	/**
+	 * Force the rename to the disk.  Not every platform can open a
+	 * directory, in which case the rename is left to the operating system.
+	 */
+	private void syncDirectory() {
+		Path directory = target.toAbsolutePath().getParent();
+
+		try {
+			FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ);
+			try {
+				channel.force(true);
+			} finally {
+				channel.close();
+			}
+		} catch (IOException e) {
+			// directories can not be synced on this platform
+		}
+	}
+
+	/**
+	 * Output stream counting the bytes written through it.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		private long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
 	}
 }
@@ -0,0 +1,285 @@
+package edu.iup.cosc210.video.ui;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import edu.iup.cosc210.video.bo.Video;
+import edu.iup.cosc210.video.bo.VideoField;
+import edu.iup.cosc210.video.bo.VideoManager;
+
+/**
+ * Watches the catalog file of a VideoManager and brings the videos up to
+ * date when another program replaces or changes the file.  The file is read
+ * and compared with the videos by vid on a background thread; only the
+ * differences are applied, on the event dispatch thread, so the table is
+ * only told about the rows that changed.  Videos no
+ * longer in the file are removed, changed videos are updated in place, and
+ * new videos are added at the end.  The VideoManager's own saves are not
+ * mistaken for changes, and the differences applied are undone as one edit.
+ * A file that can not be read is read again on its next change; the error
+ * is kept until then, for getLastError.
+ */
+public class CatalogWatcher {
+	private static final long QUIET_MILLIS = 500;
+
+	private VideoManager vm;
+	private Path file;
+	private WatchService watchService;
+	private Thread thread;
+	private Exception lastError;
+
+	/**
+	 * Constructor
+	 *
+	 * @param vm - the VideoManager whose catalog file is watched
+	 * @param fileName - the name of the catalog file
+	 */
+	public CatalogWatcher(VideoManager vm, String fileName) {
+		this.vm = vm;
+		this.file = Paths.get(fileName).toAbsolutePath();
+	}
+
+	/**
+	 * Start watching the file.
+	 *
+	 * @throws IOException if the directory of the file can not be watched
+	 */
+	public void start() throws IOException {
+		watchService = FileSystems.getDefault().newWatchService();
+		file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "Watch " + file.getFileName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop watching the file.
+	 *
+	 * @throws IOException
+	 */
+	public void stop() throws IOException {
+		watchService.close();
+	}
+
+	/**
+	 * Get the error of the last reload, if it failed.
+	 *
+	 * @return the error, or null if the last reload succeeded
+	 */
+	public synchronized Exception getLastError() {
+		return lastError;
+	}
+
+	/**
+	 * Wait for the file to change, and reload it once it has stopped
+	 * changing for a while, so a file being copied is read when complete.
+	 * Runs on the watch thread.
+	 */
+	private void watch() {
+		try {
+			while (true) {
+				if (!isFileEvent(watchService.take())) {
+					continue;
+				}
+
+				WatchKey key;
+				while ((key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+					isFileEvent(key);
+				}
+
+				reload();
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		} catch (ClosedWatchServiceException e) {
+			// stopped
+		}
+	}
+
+	private boolean isFileEvent(WatchKey key) {
+		boolean fileEvent = false;
+
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW
+					|| file.getFileName().equals(event.context())) {
+				fileEvent = true;
+			}
+		}
+		key.reset();
+
+		return fileEvent;
+	}
+
+	/**
+	 * Read the file if it was changed by another program and apply the
+	 * differences.  A file that can not be read, for example because it is
+	 * still being written, is read again on its next change.
+	 */
+	private void reload() throws InterruptedException {
+		List<Video> loaded;
+
+		try {
+			loaded = vm.readChangedCatalog();
+		} catch (IOException e) {
+			setLastError(e);
+			return;
+		} catch (RuntimeException e) {
+			setLastError(e);
+			return;
+		}
+
+		if (loaded == null) {
+			return;
+		}
+
+		final CatalogDiff diff = new CatalogDiff(vm.snapshot(), loaded);
+		if (diff.isEmpty()) {
+			setLastError(null);
+			return;
+		}
+
+		try {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				@Override
+				public void run() {
+					vm.beginEdit();
+					try {
+						diff.apply(vm);
+					} finally {
+						vm.endEdit();
+					}
+				}
+			});
+			setLastError(null);
+		} catch (InvocationTargetException e) {
+			setLastError(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+		}
+	}
+
+	/**
+	 * Keep the result of a reload.
+	 *
+	 * @param e - the error, or null if the reload succeeded
+	 */
+	private synchronized void setLastError(Exception e) {
+		lastError = e;
+	}
+
+	/**
+	 * The differences between the videos of a VideoManager and the videos
+	 * read from its catalog file, matched by vid.
+	 */
+	private static class CatalogDiff {
+		private List<Video> current;
+		private List<Integer> deleted = new ArrayList<Integer>();
+		private List<Integer> updated = new ArrayList<Integer>();
+		private List<Video> updatedValues = new ArrayList<Video>();
+		private List<Video> inserted = new ArrayList<Video>();
+
+		/**
+		 * Compare the videos.
+		 *
+		 * @param current - the videos of the VideoManager
+		 * @param loaded - the videos read from the file
+		 */
+		CatalogDiff(List<Video> current, List<Video> loaded) {
+			this.current = current;
+
+			Map<String, Video> byVid = new HashMap<String, Video>(loaded.size() * 4 / 3 + 1);
+			for (Video video : loaded) {
+				if (!byVid.containsKey(video.getVid())) {
+					byVid.put(video.getVid(), video);
+				}
+			}
+
+			for (int i = 0; i < current.size(); i++) {
+				Video video = current.get(i);
+				Video value = byVid.remove(video.getVid());
+
+				if (value == null) {
+					deleted.add(i);
+				} else if (!sameFields(video, value)) {
+					updated.add(i);
+					updatedValues.add(value);
+				}
+			}
+
+			for (Video video : loaded) {
+				if (byVid.get(video.getVid()) == video) {
+					inserted.add(video);
+				}
+			}
+		}
+
+		private static boolean sameFields(Video video, Video value) {
+			for (VideoField field : VideoField.values()) {
+				if (!field.get(video).equals(field.get(value))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		boolean isEmpty() {
+			return deleted.isEmpty() && updated.isEmpty() && inserted.isEmpty();
+		}
+
+		/**
+		 * Apply the differences.  Runs on the event dispatch thread.  If the
+		 * videos were added or removed after they were compared, the videos
+		 * are removed by video instead of by index.
+		 *
+		 * @param vm - the VideoManager
+		 */
+		void apply(VideoManager vm) {
+			boolean moved = vm.getNoVideos() != current.size();
+
+			for (int k = deleted.size() - 1; k >= 0; k--) {
+				int i = deleted.get(k);
+				Video video = current.get(i);
+
+				if (!moved && vm.getVideo(i) == video) {
+					vm.removeVideo(i);
+				} else {
+					vm.removeVideo(video);
+					moved = true;
+				}
+			}
+
+			for (int k = 0; k < updated.size(); k++) {
+				Video video = current.get(updated.get(k));
+				Video value = updatedValues.get(k);
+
+				for (VideoField field : VideoField.values()) {
+					field.set(video, field.get(value));
+				}
+			}
+
+			for (Video video : inserted) {
+				vm.addVideo(video);
+			}
+		}
+	}
+}
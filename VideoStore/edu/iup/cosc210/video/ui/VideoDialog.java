@@ -20,9 +20,11 @@ import com.javera.ui.layout.JvGridLayout;
 import com.javera.ui.layout.JvGridLocation;
 
 import edu.iup.cosc210.video.bo.Video;
+import edu.iup.cosc210.video.bo.VideoManager;
 
 public class VideoDialog extends JDialog {
 	private Video video;
+	private VideoManager vm;
 	
 	private JTextField vidField;
 	private JTextField titleField;
@@ -34,7 +36,22 @@ public class VideoDialog extends JDialog {
 	private boolean okPressed = false;
 
 	public VideoDialog(VideoFrame videoFrame, Video video, String title) {
+		this(videoFrame, null, video, title);
+	}
+
+	/**
+	 * Create a dialog editing a video held by a VideoManager.  The values
+	 * entered are set on the video as one edit when OK is pressed.
+	 * 
+	 * @param videoFrame - the owner of the dialog
+	 * @param vm - the VideoManager holding the video, or null
+	 * @param video - the video edited
+	 * @param title - the title of the dialog
+	 */
+	public VideoDialog(VideoFrame videoFrame, VideoManager vm, Video video, String title) {
 		super(videoFrame, title, true);
+
+		this.vm = vm;
 		
 		this.video = video;
 		
@@ -95,7 +112,16 @@ public class VideoDialog extends JDialog {
 
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				getFields();
+				if (VideoDialog.this.vm != null) {
+					VideoDialog.this.vm.beginEdit();
+				}
+				try {
+					getFields();
+				} finally {
+					if (VideoDialog.this.vm != null) {
+						VideoDialog.this.vm.endEdit();
+					}
+				}
 				okPressed = true;
 				setVisible(false);
 				
@@ -2,38 +2,82 @@ package edu.iup.cosc210.video.ui;
 
 import java.awt.BorderLayout;
 import java.awt.Dimension;
+import java.awt.FlowLayout;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
+import javax.swing.BorderFactory;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JDialog;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
+import javax.swing.JTextField;
 import javax.swing.JToolBar;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 
+import com.javera.ui.layout.JvGridLayout;
+import com.javera.ui.layout.JvGridLocation;
+
+import edu.iup.cosc210.video.bo.CatalogEvent;
+import edu.iup.cosc210.video.bo.CatalogEventListener;
 import edu.iup.cosc210.video.bo.Video;
 import edu.iup.cosc210.video.bo.VideoManager;
+import edu.iup.cosc210.video.bo.VideoQuery;
+import edu.iup.cosc210.video.io.ImportReport;
+import edu.iup.cosc210.video.io.PagedVideoList;
+import edu.iup.cosc210.video.io.VideoFormatException;
 
 public class VideoFrame extends JFrame {
+	private static final long AUTO_SAVE_DELAY = 2000;
+	private static final long AUTO_SAVE_MAX_LAG = 10000;
+	private static final long SHUTDOWN_TIMEOUT = 30000;
+	private static final int PAGED_CACHE_PAGES = 256;
+	private static final int IMPORT_LINES_SHOWN = 20;
+	private static final int FIND_MATCHES_SHOWN = 20;
+	private static final int FIND_MAX_TYPOS = 2;
+	private static final long UNDO_HISTORY_BYTES = 16 << 20;
+
 	private VideoManager vm;
 	private JTable videoTable;
 	private VideoTableModelAdapter videoModel;
+	private Action[] editActions;
+	private Action undoAction;
+	private Action redoAction;
 
 	public VideoFrame(final VideoManager vm) {
 		super("Video Store");
 		this.vm = vm;
 
-		setDefaultCloseOperation(EXIT_ON_CLOSE);
+		setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
+
+		addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosing(WindowEvent e) {
+				exit();
+			}
+		});
 
 		setSize(600, 400);
 
@@ -44,13 +88,14 @@ public class VideoFrame extends JFrame {
 
 		videoModel = new VideoTableModelAdapter(vm);
 		videoTable = new JTable(videoModel);
+		videoModel.setTable(videoTable);
 
 		getContentPane().add(new JScrollPane(videoTable));
 
 		Action newAction = new AbstractAction("New...", new ImageIcon(
 				"images/New.gif")) {
 			public void actionPerformed(ActionEvent e) {
-				Video video = new Video();
+				Video video = vm.newVideo();
 
 				VideoDialog videoDialog = new VideoDialog(VideoFrame.this,
 						video, "Edit Video");
@@ -59,9 +104,6 @@ public class VideoFrame extends JFrame {
 
 				if (videoDialog.isOkPressed()) {
 					vm.addVideo(video);
-
-					int i = vm.getNoVideos() - 1;
-					videoModel.fireTableRowsInserted(i, i);
 				}
 
 			}
@@ -73,14 +115,12 @@ public class VideoFrame extends JFrame {
 				int i = videoTable.getSelectedRow();
 
 				if (i >= 0) {
-					Video video = VideoFrame.this.vm.getVideo(i);
+					Video video = videoModel.getVideo(i);
 
 					VideoDialog videoDialog = new VideoDialog(VideoFrame.this,
-							video, "Edit Video");
+							VideoFrame.this.vm, video, "Edit Video");
 
 					videoDialog.setVisible(true);
-
-					videoModel.fireTableRowsUpdated(i, i);
 				}
 
 			}
@@ -92,21 +132,70 @@ public class VideoFrame extends JFrame {
 				int i = videoTable.getSelectedRow();
 
 				if (i >= 0) {
-					Video video = VideoFrame.this.vm.getVideo(i);
+					Video video = videoModel.getVideo(i);
 
 					if (JOptionPane.showConfirmDialog(
 							VideoFrame.this,
 							"Are you sure your want to delete\n"
 									+ video.getTitle() + "?", "Delete Video",
 							JOptionPane.OK_CANCEL_OPTION) == JOptionPane.OK_OPTION) {
-						vm.removeVideo(i);
- 						videoModel.fireTableRowsDeleted(i, i);
+						vm.removeVideo(video);
 					}
 				}
 
 			}
 		};
 		
+		Action saveAction = new AbstractAction("Save", new ImageIcon(
+				"images/filesave.gif")) {
+			public void actionPerformed(ActionEvent e) {
+				VideoFrame.this.vm.flush();
+			}
+		};
+
+		Action importAction = new AbstractAction("Import...") {
+			public void actionPerformed(ActionEvent e) {
+				JFileChooser chooser = new JFileChooser(".");
+
+				if (chooser.showOpenDialog(VideoFrame.this) == JFileChooser.APPROVE_OPTION) {
+					importFile(chooser.getSelectedFile().getPath());
+				}
+			}
+		};
+
+		undoAction = new AbstractAction("Undo", new ImageIcon(
+				"images/Undo.gif")) {
+			public void actionPerformed(ActionEvent e) {
+				VideoFrame.this.vm.undo();
+			}
+		};
+
+		redoAction = new AbstractAction("Redo", new ImageIcon(
+				"images/Redo.gif")) {
+			public void actionPerformed(ActionEvent e) {
+				VideoFrame.this.vm.redo();
+			}
+		};
+
+		Action findAction = new AbstractAction("Find...", new ImageIcon(
+				"images/find.gif")) {
+			public void actionPerformed(ActionEvent e) {
+				String text = JOptionPane.showInputDialog(VideoFrame.this,
+						"Title contains:", "Find Video", JOptionPane.QUESTION_MESSAGE);
+
+				if (text != null && !text.trim().isEmpty()) {
+					findVideo(text.trim());
+				}
+			}
+		};
+
+		Action filterAction = new AbstractAction("Filter...", new ImageIcon(
+				"images/filter.gif")) {
+			public void actionPerformed(ActionEvent e) {
+				filterVideos();
+			}
+		};
+
 		Action aboutAction = new AbstractAction("About...") {
 			public void actionPerformed(ActionEvent e) {
 					JOptionPane.showMessageDialog(
@@ -121,10 +210,21 @@ public class VideoFrame extends JFrame {
 		JMenu fileMenu = new JMenu("File");
 		fileMenu.add(newAction);
 		fileMenu.add(openAction);
+		fileMenu.add(saveAction);
+		fileMenu.add(importAction);
 		fileMenu.addSeparator();
 		fileMenu.add(deleteAction);
+		fileMenu.addSeparator();
+		fileMenu.add(findAction);
+		fileMenu.add(filterAction);
 
 		menuBar.add(fileMenu);
+
+		JMenu editMenu = new JMenu("Edit");
+		editMenu.add(undoAction);
+		editMenu.add(redoAction);
+
+		menuBar.add(editMenu);
 		
 		JMenu helpMenu = new JMenu("help");
 		helpMenu.add(aboutAction);
@@ -135,8 +235,15 @@ public class VideoFrame extends JFrame {
 
 		toolBar.add(newAction);
 		toolBar.add(openAction);
+		toolBar.add(saveAction);
 		toolBar.addSeparator();
 		toolBar.add(deleteAction);
+		toolBar.addSeparator();
+		toolBar.add(undoAction);
+		toolBar.add(redoAction);
+		toolBar.addSeparator();
+		toolBar.add(findAction);
+		toolBar.add(filterAction);
 
 		JPanel topPanel = new JPanel(new BorderLayout());
 		topPanel.add(menuBar, BorderLayout.NORTH);
@@ -151,29 +258,367 @@ public class VideoFrame extends JFrame {
 
 		getContentPane().add(bottomPanel, BorderLayout.SOUTH);
 
+		editActions = new Action[] { newAction, openAction, deleteAction, saveAction,
+				importAction, undoAction, redoAction, filterAction };
+
+		updateUndoActions();
+		vm.addCatalogEventListener(new CatalogEventListener() {
+			@Override
+			public void catalogChanged(CatalogEvent event) {
+				updateUndoActions();
+			}
+		}, VideoTableModelAdapter.EVENT_DISPATCH_THREAD);
+	}
+
+	/**
+	 * Enable Undo and Redo only when there is an edit to undo or redo.
+	 */
+	private void updateUndoActions() {
+		undoAction.setEnabled(vm.canUndo());
+		redoAction.setEnabled(vm.canRedo());
+	}
+
+	/**
+	 * Let the user pick one of the videos best matching a text and select
+	 * it in the table.  If no title holds the text, the titles within a few
+	 * typos of it are offered.
+	 * 
+	 * @param text - the text the title of the video holds
+	 */
+	private void findVideo(String text) {
+		List<Video> matches = vm.searchTitles(text, FIND_MATCHES_SHOWN);
+		if (matches.isEmpty()) {
+			matches = vm.fuzzySearchTitles(text, FIND_MAX_TYPOS, FIND_MATCHES_SHOWN);
+		}
+
+		if (matches.isEmpty()) {
+			JOptionPane.showMessageDialog(this, "No title contains \"" + text + "\"",
+					"Find Video", JOptionPane.INFORMATION_MESSAGE);
+			return;
+		}
+
+		String[] titles = new String[matches.size()];
+		for (int i = 0; i < titles.length; i++) {
+			titles[i] = matches.get(i).getTitle() + " (" + matches.get(i).getYear() + ")";
+		}
+
+		Object choice = JOptionPane.showInputDialog(this, "Matching videos:", "Find Video",
+				JOptionPane.QUESTION_MESSAGE, null, titles, titles[0]);
+		if (choice == null) {
+			return;
+		}
+
+		Video video = matches.get(Arrays.asList(titles).indexOf(choice));
+		int row = videoModel.getRow(video);
+		if (row < 0 && videoModel.getFilter() != null) {
+			videoModel.setFilter(null);
+			row = videoModel.getRow(video);
+		}
+		if (row >= 0) {
+			videoTable.setRowSelectionInterval(row, row);
+			videoTable.scrollRectToVisible(videoTable.getCellRect(row, 0, true));
+		}
 	}
 
 	/**
-	 * @param args
+	 * Ask the user which videos to show in the table: titles holding a text,
+	 * a rating, a range of years, new releases only.  Leaving every field
+	 * blank shows all videos again.
+	 */
+	private void filterVideos() {
+		JPanel filterPanel = new JPanel(new JvGridLayout(4, 2));
+
+		filterPanel.add(new JLabel("Title contains"), new JvGridLocation(0, 0));
+		JTextField titleField = new JTextField(15);
+		filterPanel.add(titleField, new JvGridLocation(0, 1));
+
+		filterPanel.add(new JLabel("Rating"), new JvGridLocation(1, 0));
+		JComboBox<String> ratingField = new JComboBox<String>(new String[] { "", "G", "PG", "PG13", "R" });
+		filterPanel.add(ratingField, new JvGridLocation(1, 1));
+
+		filterPanel.add(new JLabel("Years"), new JvGridLocation(2, 0));
+		JTextField fromYearField = new JTextField(4);
+		JTextField toYearField = new JTextField(4);
+		JPanel yearPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+		yearPanel.add(fromYearField);
+		yearPanel.add(new JLabel(" to "));
+		yearPanel.add(toYearField);
+		filterPanel.add(yearPanel, new JvGridLocation(2, 1));
+
+		JCheckBox newField = new JCheckBox("New releases only");
+		filterPanel.add(newField, new JvGridLocation(3, 0, 1, 2));
+
+		if (JOptionPane.showConfirmDialog(this, filterPanel, "Filter Videos",
+				JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) {
+			return;
+		}
+
+		VideoQuery query = new VideoQuery();
+		boolean blank = true;
+
+		String title = titleField.getText().trim();
+		if (!title.isEmpty()) {
+			query.titleContains(title);
+			blank = false;
+		}
+		String rating = (String) ratingField.getSelectedItem();
+		if (!rating.isEmpty()) {
+			query.rating(rating);
+			blank = false;
+		}
+		String fromYear = fromYearField.getText().trim();
+		String toYear = toYearField.getText().trim();
+		if (!fromYear.isEmpty() || !toYear.isEmpty()) {
+			try {
+				query.years(fromYear.isEmpty() ? Integer.MIN_VALUE : Integer.parseInt(fromYear),
+						toYear.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(toYear));
+			} catch (NumberFormatException e) {
+				JOptionPane.showMessageDialog(this, "The years must be numbers.",
+						"Filter Videos", JOptionPane.ERROR_MESSAGE);
+				return;
+			}
+			blank = false;
+		}
+		if (newField.isSelected()) {
+			query.newRelease(true);
+			blank = false;
+		}
+
+		videoModel.setFilter(blank ? null : query);
+	}
+
+	/**
+	 * Import the valid videos of a file in the background, then tell the
+	 * user how many were imported and which lines were left out.
+	 * 
+	 * @param fileName - the name of the file to import
+	 */
+	private void importFile(final String fileName) {
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				String message;
+				int type = JOptionPane.INFORMATION_MESSAGE;
+
+				try {
+					ImportReport report = vm.importFile(fileName);
+					message = report.getNoImported() + " videos imported.";
+
+					if (!report.isClean()) {
+						type = JOptionPane.WARNING_MESSAGE;
+						message += "\n" + report.getNoBadLines() + " lines were left out:";
+						int shown = 0;
+						for (ImportReport.BadLine line : report.getBadLines()) {
+							if (shown++ == IMPORT_LINES_SHOWN) {
+								message += "\n...";
+								break;
+							}
+							message += "\n" + line;
+						}
+					}
+				} catch (IOException e) {
+					type = JOptionPane.ERROR_MESSAGE;
+					message = "The file could not be imported:\n" + e.getMessage();
+				}
+
+				final String text = message;
+				final int messageType = type;
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						JOptionPane.showMessageDialog(VideoFrame.this, text, "Import",
+								messageType);
+					}
+				});
+			}
+		}, "Import " + fileName).start();
+	}
+
+	/**
+	 * Show a video file read-only, for kiosk terminals.  The frame can be
+	 * shown right away: rows are added to the table as the file is indexed,
+	 * and videos are only read from the file as they are displayed.  The
+	 * first line found not to be a valid video is reported; it and any
+	 * others are shown as placeholder rows.
+	 * 
+	 * @param fileName - the name of the file containing the videos
+	 * @throws IOException
+	 */
+	public void openPaged(String fileName) throws IOException {
+		for (Action action : editActions) {
+			action.setEnabled(false);
+		}
+
+		vm.openPaged(fileName, PAGED_CACHE_PAGES, new PagedVideoList.Listener() {
+			private boolean unreadableReported;
+
+			@Override
+			public void rowsIndexed(final int firstRow, final int lastRow, boolean complete) {
+				if (lastRow >= firstRow) {
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							videoModel.fireTableRowsInserted(firstRow, lastRow);
+						}
+					});
+				}
+			}
+
+			@Override
+			public void rowUnreadable(final int row, final VideoFormatException e) {
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						if (unreadableReported) {
+							return;
+						}
+						unreadableReported = true;
+						JOptionPane.showMessageDialog(VideoFrame.this, "Video " + (row + 1)
+								+ " could not be read: " + e.getMessage()
+								+ "\nUnreadable videos are shown as placeholders.", "Open",
+								JOptionPane.WARNING_MESSAGE);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Wait for unsaved changes to be saved, then exit.  The wait runs in the
+	 * background while a modal dialog shows it, so the window still paints.
+	 * If the changes can not be saved the user is asked whether to exit
+	 * anyway.
+	 */
+	private void exit() {
+		final JDialog progress = new JDialog(this, "Exit", true);
+		JProgressBar bar = new JProgressBar();
+		bar.setIndeterminate(true);
+		JPanel panel = new JPanel(new BorderLayout(0, 8));
+		panel.setBorder(BorderFactory.createEmptyBorder(12, 12, 12, 12));
+		panel.add(new JLabel("Saving the videos..."), BorderLayout.NORTH);
+		panel.add(bar, BorderLayout.CENTER);
+		progress.setContentPane(panel);
+		progress.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+		progress.pack();
+		progress.setLocationRelativeTo(this);
+
+		new SwingWorker<Boolean, Void>() {
+			@Override
+			protected Boolean doInBackground() throws IOException, InterruptedException {
+				return vm.awaitFlush(SHUTDOWN_TIMEOUT);
+			}
+
+			@Override
+			protected void done() {
+				progress.dispose();
+				flushed(this);
+			}
+		}.execute();
+
+		progress.setVisible(true);
+	}
+
+	/**
+	 * Exit once the unsaved changes were saved, otherwise ask the user
+	 * whether to exit anyway.  Called on the event thread.
+	 * 
+	 * @param flush - the finished wait for the changes to be saved
+	 */
+	private void flushed(SwingWorker<Boolean, Void> flush) {
+		String problem;
+
+		try {
+			if (flush.get()) {
+				System.exit(0);
+			}
+			problem = "Saving the videos is taking too long.";
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof InterruptedException) {
+				problem = "Saving the videos was interrupted.";
+			} else {
+				problem = "The videos could not be saved:\n" + e.getCause().getMessage();
+			}
+		} catch (InterruptedException e) {
+			problem = "Saving the videos was interrupted.";
+		}
+
+		if (JOptionPane.showConfirmDialog(VideoFrame.this, problem
+				+ "\nExit anyway and lose the unsaved changes?", "Exit",
+				JOptionPane.OK_CANCEL_OPTION) == JOptionPane.OK_OPTION) {
+			System.exit(0);
+		}
+	}
+
+	/**
+	 * Reload the videos whenever another program changes the video file,
+	 * updating only the rows that changed.
+	 * 
+	 * @param fileName - the name of the file containing the videos
+	 * @return the watcher, which keeps the error of a reload that failed
+	 * @throws IOException
+	 */
+	public CatalogWatcher watchCatalog(String fileName) throws IOException {
+		CatalogWatcher watcher = new CatalogWatcher(vm, fileName);
+		watcher.start();
+		return watcher;
+	}
+
+	/**
+	 * @param args - the file name of the videos, preceded by -paged to show
+	 * the file read-only without loading it, or by -watch to reload the file
+	 * when it changes
 	 */
 	public static void main(String[] args) {
-		if (args.length == 0) {
+		boolean paged = false;
+		boolean columnar = false;
+		boolean watch = false;
+		int i = 0;
+
+		for (; i < args.length - 1; i++) {
+			if (args[i].equals("-paged")) {
+				paged = true;
+			} else if (args[i].equals("-columnar")) {
+				columnar = true;
+			} else if (args[i].equals("-watch")) {
+				watch = true;
+			} else {
+				break;
+			}
+		}
+
+		if (i != args.length - 1 || (paged && (watch || columnar))) {
 			System.out
-					.println("Usage: java edu.iup.cosc210.bo.VideoManager [video file]");
+					.println("Usage: java edu.iup.cosc210.video.ui.VideoFrame [-paged | [-columnar] [-watch]] [video file]");
 			System.exit(-1);
 		}
+		String fileName = args[i];
 		VideoManager vm = new VideoManager();
+		VideoFrame frame = new VideoFrame(vm);
 		try {
-			vm.loadFile(args[0]);
+			if (paged) {
+				frame.openPaged(fileName);
+			} else {
+				if (columnar) {
+					vm.openColumnar(fileName);
+				} else {
+					vm.openCatalog(fileName);
+				}
+				vm.openJournal(fileName);
+				vm.startAutoSave(AUTO_SAVE_DELAY, AUTO_SAVE_MAX_LAG);
+				vm.startHistory(UNDO_HISTORY_BYTES);
+				if (watch) {
+					frame.watchCatalog(fileName);
+				}
+			}
 
 		} catch (FileNotFoundException e) {
-			System.out.println("File " + args[0] + " not found");
+			System.out.println("File " + fileName + " not found");
 			System.exit(-1);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 
-		new VideoFrame(vm).setVisible(true);
+		frame.setVisible(true);
 
 	}
 
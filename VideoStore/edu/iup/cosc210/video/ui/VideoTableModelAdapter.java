@@ -1,24 +1,232 @@
 package edu.iup.cosc210.video.ui;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
 import javax.swing.event.TableModelListener;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.TableModel;
 
+import edu.iup.cosc210.video.bo.CatalogEvent;
+import edu.iup.cosc210.video.bo.CatalogEventListener;
 import edu.iup.cosc210.video.bo.Video;
 import edu.iup.cosc210.video.bo.VideoManager;
+import edu.iup.cosc210.video.bo.VideoQuery;
+
+/**
+ * Table model showing the videos of a VideoManager.  The model listens to
+ * the VideoManager and tells the table of the rows changed, on the event
+ * dispatch thread, however and from whatever thread the videos are changed;
+ * a burst of changes is told as a few runs of rows.  With a filter set
+ * only the videos found by a query are shown.  The query is run on a
+ * background thread, again a moment after the videos change, so the event
+ * dispatch thread neither waits for the VideoManager nor scans the videos;
+ * the videos found replace those shown at once, the selected videos
+ * staying selected.
+ */
+public class VideoTableModelAdapter extends AbstractTableModel implements TableModel,
+		CatalogEventListener {
+	public static final Executor EVENT_DISPATCH_THREAD = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			SwingUtilities.invokeLater(command);
+		}
+	};
+
+	private static final long REQUERY_DELAY_MILLIS = 250;
 
-public class VideoTableModelAdapter extends AbstractTableModel implements TableModel {
 	private VideoManager vm;
+	private JTable table;
+	private VideoQuery filter;
+	private List<Video> filtered;
+	private int filterVersion;
+	private boolean requeryPending;
+	private ScheduledExecutorService queryThread;
 	
 
 	public VideoTableModelAdapter(VideoManager vm) {
 		super();
 		this.vm = vm;
+		vm.addCatalogEventListener(this, EVENT_DISPATCH_THREAD);
+	}
+
+	/**
+	 * Set the table showing the model, whose selected videos are kept
+	 * selected when the videos found by the filter change.
+	 * 
+	 * @param table - the table
+	 */
+	public void setTable(JTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * Show only the videos found by a query.  The videos shown change once
+	 * the query has run.
+	 * 
+	 * @param query - the query, or null to show all videos
+	 */
+	public void setFilter(VideoQuery query) {
+		filter = query;
+		filterVersion++;
+		requeryPending = false;
+		if (query == null) {
+			filtered = null;
+			fireTableDataChanged();
+		} else {
+			requery(0);
+		}
+	}
+
+	/**
+	 * Run the filter on the query thread after a delay, unless a run is
+	 * pending already, and show the videos found on the event dispatch
+	 * thread if the filter was not changed meanwhile.
+	 */
+	private void requery(long delayMillis) {
+		if (requeryPending) {
+			return;
+		}
+		requeryPending = true;
+
+		if (queryThread == null) {
+			queryThread = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Video filter");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		final VideoQuery query = filter;
+		final int version = filterVersion;
+		queryThread.schedule(new Runnable() {
+			@Override
+			public void run() {
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						if (version == filterVersion) {
+							requeryPending = false;
+						}
+					}
+				});
+				final List<Video> found = new ArrayList<Video>(vm.query(query));
+
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						if (version == filterVersion) {
+							showFiltered(found);
+						}
+					}
+				});
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Show the videos found by the filter, keeping the selected videos
+	 * selected.
+	 */
+	private void showFiltered(List<Video> found) {
+		Set<String> selected = new HashSet<String>();
+		if (table != null) {
+			for (int row : table.getSelectedRows()) {
+				if (row < getRowCount()) {
+					selected.add(getVideo(row).getVid());
+				}
+			}
+		}
+
+		filtered = found;
+		fireTableDataChanged();
+
+		if (!selected.isEmpty()) {
+			for (int row = 0; row < found.size(); row++) {
+				if (selected.contains(found.get(row).getVid())) {
+					table.addRowSelectionInterval(row, row);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the query whose videos are shown.
+	 * 
+	 * @return the query, or null if all videos are shown
+	 */
+	public VideoQuery getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Get the video shown in a row.
+	 * 
+	 * @param rowIndex - the row
+	 * @return the video
+	 */
+	public Video getVideo(int rowIndex) {
+		return filtered != null ? filtered.get(rowIndex) : vm.getVideo(rowIndex);
+	}
+
+	/**
+	 * Get the row showing a video.  The video is matched by its index
+	 * position, as columnar videos are new objects on every get.
+	 * 
+	 * @param video - the video
+	 * @return the row, or -1 if the video is not shown
+	 */
+	public int getRow(Video video) {
+		int position = vm.indexOf(video);
+		if (filtered == null || position < 0) {
+			return position;
+		}
+
+		for (int row = 0; row < filtered.size(); row++) {
+			if (vm.indexOf(filtered.get(row)) == position) {
+				return row;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public void catalogChanged(CatalogEvent event) {
+		if (filter != null) {
+			requery(REQUERY_DELAY_MILLIS);
+			return;
+		}
+
+		switch (event.getType()) {
+		case INSERTED:
+			fireTableRowsInserted(event.getFirstRow(), event.getLastRow());
+			break;
+		case UPDATED:
+			fireTableRowsUpdated(event.getFirstRow(), event.getLastRow());
+			break;
+		case DELETED:
+			fireTableRowsDeleted(event.getFirstRow(), event.getLastRow());
+			break;
+		default:
+			fireTableDataChanged();
+		}
 	}
 
 	@Override
 	public int getRowCount() {
-		return vm.getNoVideos();
+		return filtered != null ? filtered.size() : vm.getNoVideos();
 	}
 
 	@Override
@@ -59,7 +267,11 @@ public class VideoTableModelAdapter extends AbstractTableModel implements TableM
 
 	@Override
 	public Object getValueAt(int rowIndex, int columnIndex) {
-		Video video = vm.getVideo(rowIndex);
+		if (rowIndex >= getRowCount()) {
+			// removed by another thread, the table is told next
+			return null;
+		}
+		Video video = getVideo(rowIndex);
 
 		switch (columnIndex) {
 		case 0: return video.getVid();
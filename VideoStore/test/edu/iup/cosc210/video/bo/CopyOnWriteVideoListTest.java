@@ -0,0 +1,375 @@
+package edu.iup.cosc210.video.bo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.iup.cosc210.video.io.VideoWriter;
+
+/**
+ * Stress test of CopyOnWriteVideoList with 8 threads mixing reads and
+ * writes.  Writers add at the end, into the shared last segment, insert in
+ * the middle, splitting full segments, remove, merging nearly empty
+ * segments, and replace, each change made to a reference list too under
+ * one lock.  Now and then a writer keeps a snapshot with a copy of the
+ * reference; readers check, while the writers go on, that every kept
+ * snapshot still holds exactly its copy, that get and the iterator agree,
+ * and that a snapshot written by a VideoWriter holds its copy.  Last the
+ * list is checked against the reference, and VideoManager.saveToFile is run
+ * while videos are added and removed.
+ *
+ * <p>
+ * Run with the classes of the program on the class path; exits with status
+ * 1 on the first failure.
+ *
+ * @author dtsmith
+ *
+ */
+public class CopyOnWriteVideoListTest {
+	private static final int WRITERS = 4;
+	private static final int READERS = 4;
+	private static final int OPERATIONS = 20000;
+	private static final int KEEP_EVERY = 100;
+	private static final int HIGH_SIZE = 8 * CopyOnWriteVideoList.SEGMENT_SIZE;
+	private static final int LOW_SIZE = CopyOnWriteVideoList.SEGMENT_SIZE;
+
+	private CopyOnWriteVideoList list = new CopyOnWriteVideoList();
+	private List<Video> reference = new ArrayList<Video>();
+	private Object lock = new Object();
+	private boolean shrinking;
+	private AtomicInteger nextVid = new AtomicInteger();
+	private ConcurrentLinkedQueue<Kept> kept = new ConcurrentLinkedQueue<Kept>();
+	private AtomicBoolean writing = new AtomicBoolean(true);
+	private ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+	private AtomicInteger checks = new AtomicInteger();
+
+	/**
+	 * A snapshot and the videos it held when it was taken.
+	 */
+	private static class Kept {
+		private List<Video> snapshot;
+		private Video[] videos;
+
+		Kept(List<Video> snapshot, Video[] videos) {
+			this.snapshot = snapshot;
+			this.videos = videos;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		CopyOnWriteVideoListTest test = new CopyOnWriteVideoListTest();
+		try {
+			test.testConcurrentChanges();
+			test.testSaveWhileChanging();
+		} catch (Throwable e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		System.out.println("CopyOnWriteVideoListTest passed, " + test.checks + " snapshots checked");
+	}
+
+	private Video newVideo() {
+		int number = nextVid.getAndIncrement();
+		return new Video("V" + number, "Title " + number, 1.99, 2000 + number % 20, "PG",
+				false);
+	}
+
+	/**
+	 * Run the writers and readers together, then check the list against
+	 * the reference.
+	 */
+	void testConcurrentChanges() throws Exception {
+		List<Video> initial = new ArrayList<Video>();
+		for (int i = 0; i < 3 * CopyOnWriteVideoList.SEGMENT_SIZE + 100; i++) {
+			initial.add(newVideo());
+		}
+		list.addAll(initial);
+		reference.addAll(initial);
+		check(list, reference.toArray(new Video[0]), "initial addAll");
+
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> writers = new ArrayList<Thread>();
+		List<Thread> readers = new ArrayList<Thread>();
+
+		for (int t = 0; t < WRITERS; t++) {
+			final long seed = t;
+			writers.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						write(new Random(seed));
+					} catch (Throwable e) {
+						failures.add(e);
+					}
+				}
+			}, "Writer " + t));
+		}
+		for (int t = 0; t < READERS; t++) {
+			final long seed = 100 + t;
+			readers.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						read(new Random(seed));
+					} catch (Throwable e) {
+						failures.add(e);
+					}
+				}
+			}, "Reader " + t));
+		}
+
+		for (Thread thread : writers) {
+			thread.start();
+		}
+		for (Thread thread : readers) {
+			thread.start();
+		}
+		start.countDown();
+		for (Thread thread : writers) {
+			thread.join();
+		}
+		writing.set(false);
+		for (Thread thread : readers) {
+			thread.join();
+		}
+
+		if (!failures.isEmpty()) {
+			throw new AssertionError("A thread failed", failures.peek());
+		}
+		check(list, reference.toArray(new Video[0]), "final list");
+		for (Kept k : kept) {
+			check(k.snapshot, k.videos, "kept snapshot at the end");
+		}
+	}
+
+	/**
+	 * Make random changes to the list and the reference.  The size swings
+	 * between LOW_SIZE and HIGH_SIZE, so segments fill, split, empty and
+	 * merge.
+	 */
+	private void write(Random random) {
+		for (int i = 0; i < OPERATIONS; i++) {
+			synchronized (lock) {
+				int size = reference.size();
+				if (size >= HIGH_SIZE) {
+					shrinking = true;
+				} else if (size <= LOW_SIZE) {
+					shrinking = false;
+				}
+
+				int choice = random.nextInt(10);
+				if (shrinking && choice < 6 && size > 0) {
+					int index = random.nextInt(size);
+					Video removed = list.remove(index);
+					if (removed != reference.remove(index)) {
+						throw new AssertionError("remove(" + index + ") removed the wrong video");
+					}
+				} else if (choice < 3) {
+					Video video = newVideo();
+					list.add(video);
+					reference.add(video);
+				} else if (choice < 5) {
+					int index = random.nextInt(size + 1);
+					Video video = newVideo();
+					list.add(index, video);
+					reference.add(index, video);
+				} else if (choice < 6) {
+					List<Video> added = new ArrayList<Video>();
+					for (int n = random.nextInt(40); n > 0; n--) {
+						added.add(newVideo());
+					}
+					list.addAll(added);
+					reference.addAll(added);
+				} else if (choice < 8 && size > 0) {
+					int index = random.nextInt(size);
+					Video video = newVideo();
+					Video old = list.set(index, video);
+					if (old != reference.set(index, video)) {
+						throw new AssertionError("set(" + index + ") replaced the wrong video");
+					}
+				} else if (size > 0) {
+					int index = random.nextInt(size);
+					Video removed = list.remove(index);
+					if (removed != reference.remove(index)) {
+						throw new AssertionError("remove(" + index + ") removed the wrong video");
+					}
+				}
+
+				if (list.size() != reference.size()) {
+					throw new AssertionError("size " + list.size() + " instead of "
+							+ reference.size());
+				}
+				if (i % KEEP_EVERY == 0) {
+					kept.add(new Kept(list.snapshot(), reference.toArray(new Video[0])));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check snapshots while the writers change the list: the kept ones
+	 * against their copies, fresh ones for agreement of get, iterator and
+	 * size, and now and then one written by a VideoWriter.
+	 */
+	private void read(Random random) throws IOException {
+		File file = File.createTempFile("snapshot", ".txt");
+		file.deleteOnExit();
+
+		while (writing.get()) {
+			List<Video> snapshot = list.snapshot();
+			int size = snapshot.size();
+			Video[] seen = new Video[size];
+			int n = 0;
+			for (Video video : snapshot) {
+				seen[n++] = video;
+			}
+			if (n != size) {
+				throw new AssertionError("iterator gave " + n + " videos of " + size);
+			}
+			for (int probe = 0; probe < 64 && size > 0; probe++) {
+				int index = random.nextInt(size);
+				if (snapshot.get(index) != seen[index]) {
+					throw new AssertionError("get(" + index + ") differs from the iterator");
+				}
+			}
+
+			Kept k = kept.poll();
+			if (k != null) {
+				if (random.nextInt(8) == 0) {
+					checkWritten(k, file);
+				} else {
+					check(k.snapshot, k.videos, "kept snapshot");
+				}
+				checks.incrementAndGet();
+				kept.add(k);
+			}
+		}
+	}
+
+	/**
+	 * Write a kept snapshot with a VideoWriter while the list changes, and
+	 * check the file holds the videos of the copy.
+	 */
+	private static void checkWritten(Kept k, File file) throws IOException {
+		VideoWriter out = new VideoWriter(file.getPath());
+		for (Video video : k.snapshot) {
+			out.saveVideo(video);
+		}
+		out.close();
+
+		List<String> lines = Files.readAllLines(file.toPath(), Charset.defaultCharset());
+		if (lines.size() != k.videos.length) {
+			throw new AssertionError("wrote " + lines.size() + " videos of " + k.videos.length);
+		}
+		for (int i = 0; i < lines.size(); i++) {
+			if (!lines.get(i).startsWith(k.videos[i].getVid() + ",")) {
+				throw new AssertionError("line " + (i + 1) + " is " + lines.get(i)
+						+ " instead of video " + k.videos[i].getVid());
+			}
+		}
+	}
+
+	/**
+	 * Save a VideoManager to a file again and again while other threads add
+	 * and remove videos.  Every save must hold distinct vids, as a torn
+	 * snapshot would repeat or lose videos shifted by a change.
+	 */
+	void testSaveWhileChanging() throws Exception {
+		final VideoManager vm = new VideoManager();
+		List<Video> initial = new ArrayList<Video>();
+		for (int i = 0; i < 4 * CopyOnWriteVideoList.SEGMENT_SIZE; i++) {
+			initial.add(newVideo());
+		}
+		vm.addVideos(initial);
+
+		final AtomicBoolean saving = new AtomicBoolean(true);
+		List<Thread> changers = new ArrayList<Thread>();
+		for (int t = 0; t < WRITERS; t++) {
+			final Random random = new Random(200 + t);
+			changers.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (saving.get()) {
+							synchronized (vm) {
+								int size = vm.getNoVideos();
+								if (random.nextBoolean() && size > LOW_SIZE) {
+									vm.removeVideo(random.nextInt(size));
+								} else if (random.nextBoolean()) {
+									vm.insertVideo(random.nextInt(size + 1), newVideo());
+								} else {
+									vm.addVideo(newVideo());
+								}
+							}
+						}
+					} catch (Throwable e) {
+						failures.add(e);
+					}
+				}
+			}, "Changer " + t));
+		}
+
+		File file = File.createTempFile("catalog", ".txt");
+		file.deleteOnExit();
+		for (Thread thread : changers) {
+			thread.start();
+		}
+		try {
+			for (int i = 0; i < 20; i++) {
+				vm.saveToFile(file.getPath());
+				Set<String> vids = new HashSet<String>();
+				for (String line : Files.readAllLines(file.toPath(), Charset.defaultCharset())) {
+					String vid = line.substring(0, line.indexOf(','));
+					if (!vids.add(vid)) {
+						throw new AssertionError("save " + (i + 1) + " holds " + vid + " twice");
+					}
+				}
+				checks.incrementAndGet();
+			}
+		} finally {
+			saving.set(false);
+			for (Thread thread : changers) {
+				thread.join();
+			}
+			new File(file.getPath() + VideoManager.IDS_EXTENSION).delete();
+		}
+
+		if (!failures.isEmpty()) {
+			throw new AssertionError("A thread failed", failures.peek());
+		}
+	}
+
+	/**
+	 * Check that a list holds exactly some videos, by get and by iterator.
+	 */
+	private static void check(List<Video> actual, Video[] expected, String what) {
+		if (actual.size() != expected.length) {
+			throw new AssertionError(what + ": size " + actual.size() + " instead of "
+					+ expected.length);
+		}
+		int i = 0;
+		for (Video video : actual) {
+			if (video != expected[i]) {
+				throw new AssertionError(what + ": iterator differs at " + i);
+			}
+			i++;
+		}
+		for (i = 0; i < expected.length; i++) {
+			if (actual.get(i) != expected[i]) {
+				throw new AssertionError(what + ": get(" + i + ") differs");
+			}
+		}
+	}
+}